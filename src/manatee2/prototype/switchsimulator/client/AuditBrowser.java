@@ -0,0 +1,296 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.value.ObservableValue;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Callback;
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+
+
+/**
+ * Window for searching the Switch's audit trail, e.g. "who connected Ingress Port 12 to Egress Port 15, and when".
+ * 
+ * Searches run off the GUI thread.
+ */
+public class AuditBrowser
+{
+    /**
+     * Most events a single search shows.
+     */
+    private static final int MAX_EVENTS = 1000;
+
+    private static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private final SwitchServiceApi switchService;
+    private final Stage stage = new Stage();
+    private final TextField ingressField = new TextField();
+    private final TextField egressField = new TextField();
+    private final TextField startField = new TextField();
+    private final TextField endField = new TextField();
+    private final Button searchButton = new Button("Search");
+    private final Label statusLabel = new Label();
+    private final TableView<AuditEvent> tableView = new TableView<AuditEvent>();
+
+
+    /**
+     * @param switchService - Switch Service to search.
+     * @param owner - Window it belongs to.
+     */
+    public AuditBrowser(SwitchServiceApi switchService, Window owner)
+    {
+        this.switchService = switchService;
+
+        ingressField.setPromptText("Ingress");
+        ingressField.setPrefColumnCount(5);
+        egressField.setPromptText("Egress");
+        egressField.setPrefColumnCount(5);
+        startField.setPromptText("From " + TIME_FORMAT);
+        startField.setPrefColumnCount(14);
+        endField.setPromptText("To " + TIME_FORMAT);
+        endField.setPrefColumnCount(14);
+        EventHandler<ActionEvent> search = new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent event)
+            {
+                search();
+            }
+        };
+        searchButton.setOnAction(search);
+        ingressField.setOnAction(search);
+        egressField.setOnAction(search);
+        startField.setOnAction(search);
+        endField.setOnAction(search);
+
+        HBox filterPanel = new HBox(5, ingressField, egressField, startField, endField, searchButton);
+        filterPanel.setAlignment(Pos.CENTER_LEFT);
+
+        tableView.getColumns().add(column("Time", 140, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return new SimpleDateFormat(TIME_FORMAT).format(new Date(event.getTimestamp()));
+            }
+        }));
+        tableView.getColumns().add(column("Client", 130, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.getClientId();
+            }
+        }));
+        tableView.getColumns().add(column("Operation", 100, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.getOperation();
+            }
+        }));
+        tableView.getColumns().add(column("Change", 130, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.getChange().toString();
+            }
+        }));
+        tableView.getColumns().add(column("Before", 120, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.getBefore().toString();
+            }
+        }));
+        tableView.getColumns().add(column("After", 120, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.getAfter().toString();
+            }
+        }));
+        tableView.getColumns().add(column("Outcome", 220, new Formatter()
+        {
+            @Override
+            public String format(AuditEvent event)
+            {
+                return event.isSucceeded() ? "OK" : event.getFailure();
+            }
+        }));
+        VBox.setVgrow(tableView, Priority.ALWAYS);
+
+        VBox rootNode = new VBox(5, filterPanel, tableView, statusLabel);
+        rootNode.setPadding(new Insets(10, 10, 10, 10));
+        stage.setTitle("Audit Trail");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(rootNode, 1000, 500));
+    }
+
+
+    /**
+     * Show the window, with the most recent events.
+     */
+    public void show()
+    {
+        stage.show();
+        stage.toFront();
+        search();
+    }
+
+
+    /**
+     * Run a search with the current filters.
+     */
+    private void search()
+    {
+        final int inputPort;
+        final int outputPort;
+        final long startTime;
+        final long endTime;
+        try
+        {
+            inputPort = parsePort(ingressField.getText(), "Ingress");
+            outputPort = parsePort(egressField.getText(), "Egress");
+            startTime = parseTime(startField.getText());
+            endTime = parseTime(endField.getText());
+        }
+        catch (Exception exception)
+        {
+            statusLabel.setText(exception.getMessage());
+            return;
+        }
+
+        searchButton.setDisable(true);
+        statusLabel.setText("Searching...");
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long startNanos = System.nanoTime();
+                List<AuditEvent> events = null;
+                String failure = null;
+                try
+                {
+                    events = switchService.queryAudit(inputPort, outputPort, startTime, endTime, MAX_EVENTS);
+                }
+                catch (Exception exception)
+                {
+                    failure = "Search failed: " + exception.getMessage();
+                }
+                final long millis = (System.nanoTime() - startNanos) / 1000000;
+                final List<AuditEvent> result = events;
+                final String message = failure;
+                Platform.runLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        searchButton.setDisable(false);
+                        if (result == null)
+                        {
+                            statusLabel.setText(message);
+                            return;
+                        }
+                        tableView.getItems().setAll(result);
+                        statusLabel.setText(result.size() + " event(s) in " + millis + "ms"
+                                + (result.size() == MAX_EVENTS ? " (most recent " + MAX_EVENTS + " shown)" : ""));
+                    }
+                });
+            }
+        }, "AuditSearch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Formats one column of an event.
+     */
+    private interface Formatter
+    {
+        String format(AuditEvent event);
+    }
+
+
+    private static TableColumn<AuditEvent, String> column(String title, double width, final Formatter formatter)
+    {
+        TableColumn<AuditEvent, String> column = new TableColumn<AuditEvent, String>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(
+                new Callback<TableColumn.CellDataFeatures<AuditEvent, String>, ObservableValue<String>>()
+                {
+                    @Override
+                    public ObservableValue<String> call(TableColumn.CellDataFeatures<AuditEvent, String> features)
+                    {
+                        return new ReadOnlyStringWrapper(formatter.format(features.getValue()));
+                    }
+                });
+        return column;
+    }
+
+
+    /**
+     * @return Port Number, or zero if blank.
+     */
+    private static int parsePort(String text, String direction) throws Exception
+    {
+        if (text == null || text.trim().isEmpty())
+        {
+            return 0;
+        }
+        try
+        {
+            return Integer.parseInt(text.trim());
+        }
+        catch (NumberFormatException exception)
+        {
+            throw new Exception("Invalid " + direction + " Port: " + text);
+        }
+    }
+
+
+    /**
+     * @return Time (milliseconds since the epoch), or zero if blank.
+     */
+    private static long parseTime(String text) throws Exception
+    {
+        if (text == null || text.trim().isEmpty())
+        {
+            return 0;
+        }
+        try
+        {
+            return new SimpleDateFormat(TIME_FORMAT).parse(text.trim()).getTime();
+        }
+        catch (ParseException exception)
+        {
+            throw new Exception("Invalid time (expected " + TIME_FORMAT + "): " + text);
+        }
+    }
+}
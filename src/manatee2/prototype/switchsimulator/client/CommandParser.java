@@ -0,0 +1,293 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import manatee2.prototype.switchsimulator.shared.PortChange;
+
+
+/**
+ * Compiles a patching command into a single batch of Port Changes.
+ * 
+ * <pre>
+ * command    := "connect" ports "->" ports
+ *             | "disconnect" ( "all" | ports [ "->" ports ] )
+ *             | "resize" number number
+ * ports      := item ( "," item )*
+ * item       := number [ "-" number ]
+ * </pre>
+ * 
+ * Examples: {@code connect 1-16 -> 33-48}, {@code connect 3 -> 10,12,14}, {@code disconnect 5,7,9},
+ * {@code disconnect 3 -> 12}, {@code disconnect all}, {@code resize 64 128}.
+ * 
+ * Port lists on either side of "->" are paired in order when they are the same length; a single Ingress Port on the
+ * left fans out (multicast) to every Egress Port on the right. Ranges may run downwards ("16-1"). "resize" changes
+ * the number of Ingress and Egress Ports rather than the mapping, so it is recognised by {@link #parseResize(String)}
+ * instead.
+ * 
+ * The parser is a single left-to-right scan over the characters with no backtracking, so it runs in time linear in
+ * the length of the command.
+ */
+public class CommandParser
+{
+    /**
+     * Most Ports a single list may name, so that a typo such as "1-1000000000" cannot exhaust memory.
+     */
+    private static final int MAX_PORTS = 65536;
+
+    private final String text;
+    private int position;
+
+
+    private CommandParser(String text)
+    {
+        this.text = text;
+        this.position = 0;
+    }
+
+
+    /**
+     * Compile a command.
+     * 
+     * @param command - Command text.
+     * @param numInputPorts - Number of Ingress Ports (for "disconnect all").
+     * 
+     * @return Port Changes making up the command, to be applied as one batch.
+     * 
+     * @throws Exception Describing the first syntax error, and where it is.
+     */
+    public static List<PortChange> parse(String command, int numInputPorts) throws Exception
+    {
+        return new CommandParser(command).parseCommand(numInputPorts);
+    }
+
+
+    /**
+     * Recognise a "resize" command.
+     * 
+     * @param command - Command text.
+     * 
+     * @return Number of Ingress Ports and number of Egress Ports to resize to, or null if this is not a "resize"
+     *         command.
+     * 
+     * @throws Exception Describing the first syntax error, and where it is.
+     */
+    public static int[] parseResize(String command) throws Exception
+    {
+        CommandParser parser = new CommandParser(command);
+        String verb = parser.parseWord();
+        if (!verb.equalsIgnoreCase("resize"))
+        {
+            return null;
+        }
+        int numInputPorts = parser.parseNumber();
+        int numOutputPorts = parser.parseNumber();
+        parser.skipSpaces();
+        if (parser.position < command.length())
+        {
+            throw parser.error("Unexpected '" + command.charAt(parser.position) + "'", parser.position);
+        }
+        return new int[] { numInputPorts, numOutputPorts };
+    }
+
+
+    private List<PortChange> parseCommand(int numInputPorts) throws Exception
+    {
+        String verb = parseWord();
+        List<PortChange> changes = new ArrayList<PortChange>();
+
+        if (verb.equalsIgnoreCase("connect"))
+        {
+            int[] inputs = parsePorts();
+            expectArrow();
+            int[] outputs = parsePorts();
+            int numPairs = pairCount(inputs, outputs);
+            for (int index = 0; index < numPairs; index++)
+            {
+                changes.add(PortChange.connect(pick(inputs, index), outputs[index]));
+            }
+        }
+        else if (verb.equalsIgnoreCase("disconnect"))
+        {
+            skipSpaces();
+            if (position < text.length() && Character.isLetter(text.charAt(position)))
+            {
+                int start = position;
+                String word = parseWord();
+                if (!word.equalsIgnoreCase("all"))
+                {
+                    throw error("Expected 'all' or a Port Number", start);
+                }
+                for (int inputPort = 1; inputPort <= numInputPorts; inputPort++)
+                {
+                    changes.add(PortChange.disconnect(inputPort));
+                }
+            }
+            else
+            {
+                int[] inputs = parsePorts();
+                skipSpaces();
+                if (position < text.length())
+                {
+                    expectArrow();
+                    int[] outputs = parsePorts();
+                    int numPairs = pairCount(inputs, outputs);
+                    for (int index = 0; index < numPairs; index++)
+                    {
+                        changes.add(PortChange.disconnect(pick(inputs, index), outputs[index]));
+                    }
+                }
+                else
+                {
+                    for (int inputPort : inputs)
+                    {
+                        changes.add(PortChange.disconnect(inputPort));
+                    }
+                }
+            }
+        }
+        else
+        {
+            throw error("Unknown command '" + verb + "' (expected 'connect', 'disconnect' or 'resize')", 0);
+        }
+
+        skipSpaces();
+        if (position < text.length())
+        {
+            throw error("Unexpected '" + text.charAt(position) + "'", position);
+        }
+        return changes;
+    }
+
+
+    /**
+     * How many pairs two Port lists make: equal lengths pair up in order; a single Ingress Port fans out.
+     */
+    private int pairCount(int[] inputs, int[] outputs) throws Exception
+    {
+        if (inputs.length != 1 && inputs.length != outputs.length)
+        {
+            throw error("Cannot pair " + inputs.length + " Ingress Port(s) with " + outputs.length
+                    + " Egress Port(s)", position);
+        }
+        return outputs.length;
+    }
+
+
+    private static int pick(int[] inputs, int index)
+    {
+        return inputs.length == 1 ? inputs[0] : inputs[index];
+    }
+
+
+    private String parseWord() throws Exception
+    {
+        skipSpaces();
+        int start = position;
+        while (position < text.length() && Character.isLetter(text.charAt(position)))
+        {
+            position++;
+        }
+        if (position == start)
+        {
+            throw error("Expected a command", start);
+        }
+        return text.substring(start, position);
+    }
+
+
+    private void expectArrow() throws Exception
+    {
+        skipSpaces();
+        if (position + 1 < text.length() && text.charAt(position) == '-' && text.charAt(position + 1) == '>')
+        {
+            position += 2;
+            return;
+        }
+        throw error("Expected '->'", position);
+    }
+
+
+    private int[] parsePorts() throws Exception
+    {
+        int[] ports = new int[8];
+        int numPorts = 0;
+        while (true)
+        {
+            int first = parseNumber();
+            int last = first;
+            skipSpaces();
+
+            //
+            // A '-' is a range only if it is not the start of "->".
+            //
+            if (position < text.length() && text.charAt(position) == '-'
+                    && (position + 1 >= text.length() || text.charAt(position + 1) != '>'))
+            {
+                position++;
+                last = parseNumber();
+                skipSpaces();
+            }
+
+            int step = last >= first ? 1 : -1;
+            long count = Math.abs((long) last - first) + 1;
+            if (numPorts + count > MAX_PORTS)
+            {
+                throw error("Too many Ports (more than " + MAX_PORTS + ")", position);
+            }
+            if (numPorts + count > ports.length)
+            {
+                ports = Arrays.copyOf(ports, (int) Math.max(ports.length * 2, numPorts + count));
+            }
+            for (int port = first; count > 0; port += step, count--)
+            {
+                ports[numPorts++] = port;
+            }
+
+            if (position < text.length() && text.charAt(position) == ',')
+            {
+                position++;
+                continue;
+            }
+            return Arrays.copyOf(ports, numPorts);
+        }
+    }
+
+
+    private int parseNumber() throws Exception
+    {
+        skipSpaces();
+        int start = position;
+        long value = 0;
+        while (position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9')
+        {
+            value = value * 10 + (text.charAt(position) - '0');
+            if (value > Integer.MAX_VALUE)
+            {
+                throw error("Port Number too large", start);
+            }
+            position++;
+        }
+        if (position == start)
+        {
+            throw error("Expected a Port Number", start);
+        }
+        return (int) value;
+    }
+
+
+    private void skipSpaces()
+    {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+        {
+            position++;
+        }
+    }
+
+
+    private Exception error(String message, int column)
+    {
+        return new Exception(message + " at column " + (column + 1) + ": " + text);
+    }
+}
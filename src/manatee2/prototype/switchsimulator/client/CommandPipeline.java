@@ -0,0 +1,412 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchUnavailableException;
+
+
+/**
+ * Sends the operator's Port Changes to the Switch Service off the GUI thread, coalescing them per Port.
+ * 
+ * Changes submitted within a short window (or while the previous batch is still with the Switch Service) are merged
+ * into their net effect before anything is sent: a later operation on the same Ingress/Egress pair supersedes an
+ * earlier one, and disconnecting a whole Ingress Port discards everything queued for it before. So Connect, Disconnect,
+ * Connect on the same Ports costs one round-trip, not three, and the number of round-trips no longer grows with the
+ * click rate.
+ * 
+ * Each batch waits in a bounded outbox until the Switch Service has answered it. If the Switch Service is unavailable,
+ * the outbox is retried until it returns, replaying each batch under its original Request ID so that none is applied
+ * twice; meanwhile new changes keep coalescing, and are only refused once MAX_OUTBOX batches are waiting.
+ * 
+ * Results are reported to a Listener on the pipeline's own thread.
+ */
+public class CommandPipeline
+{
+    /**
+     * Most batches that may wait for an unavailable Switch Service.
+     */
+    static final int MAX_OUTBOX = 64;
+
+    /**
+     * How long to wait before trying an unavailable Switch Service again (on top of the connection's own retries).
+     */
+    private static final long RETRY_MILLIS = 2000;
+
+    /**
+     * Receives the outcome of each batch (on the pipeline's thread).
+     */
+    public interface Listener
+    {
+        /**
+         * @param switchConfiguration - Switch Configuration after the batch (or after a failed batch).
+         */
+        void configurationChanged(SwitchConfiguration switchConfiguration);
+
+
+        /**
+         * @param message - Why the batch failed. Nothing in it was applied.
+         */
+        void commandFailed(String message);
+    }
+
+    /**
+     * Net effect of the queued changes on one Ingress Port.
+     */
+    private static class PendingPort
+    {
+        /**
+         * Disconnect the whole group first.
+         */
+        boolean reset;
+
+        /**
+         * Latest action per Egress Port, in first-touched order.
+         */
+        final Map<Integer, PortChange.Action> egress = new LinkedHashMap<Integer, PortChange.Action>();
+    }
+
+    /**
+     * A batch waiting for the Switch Service, and the Request ID it is (re)sent under.
+     */
+    private static class Batch
+    {
+        final String requestId;
+        final List<PortChange> changes;
+
+
+        Batch(String requestId, List<PortChange> changes)
+        {
+            this.requestId = requestId;
+            this.changes = changes;
+        }
+    }
+
+    private final SwitchServiceApi switchService;
+    private final long windowMillis;
+    private final Listener listener;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Queued changes, per Ingress Port in first-touched order. Guarded by this.
+     */
+    private Map<Integer, PendingPort> pending = new LinkedHashMap<Integer, PendingPort>();
+
+    /**
+     * Batches not yet answered by the Switch Service, oldest (possibly in flight) first. Guarded by this.
+     */
+    private final Deque<Batch> outbox = new ArrayDeque<Batch>();
+
+    /**
+     * Whether a flush is already scheduled. Guarded by this.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Whether the Switch Service was unavailable last time, and whether a retry is scheduled. Pipeline thread only.
+     */
+    private boolean unavailable;
+    private boolean retryScheduled;
+
+
+    /**
+     * @param switchService - Switch Service to send the batches to.
+     * @param windowMillis - How long to wait for further changes after the first one, before sending.
+     * @param listener - Receives the outcome of each batch.
+     */
+    public CommandPipeline(SwitchServiceApi switchService, long windowMillis, Listener listener)
+    {
+        this.switchService = switchService;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "CommandPipeline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Queue Port Changes. They are merged with anything already queued, and sent once the window has passed.
+     * 
+     * @param changes - Port Changes, in order.
+     */
+    public synchronized void submit(List<PortChange> changes)
+    {
+        for (PortChange change : changes)
+        {
+            merge(change);
+        }
+        if (!flushScheduled && !pending.isEmpty())
+        {
+            flushScheduled = true;
+            executor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Everything not yet reflected in the last Switch Configuration delivered: the batches in the outbox, then the
+     * queued net effect. Replaying a new change after these (with a Switch Validator) tells whether it will still be
+     * valid once it reaches the Switch Service.
+     * 
+     * @return Outstanding Port Changes, in the order they will be applied.
+     */
+    public synchronized List<PortChange> getOutstandingChanges()
+    {
+        List<PortChange> changes = new ArrayList<PortChange>();
+        for (Batch batch : outbox)
+        {
+            changes.addAll(batch.changes);
+        }
+        changes.addAll(netChanges(pending));
+        return changes;
+    }
+
+
+    /**
+     * Stop the pipeline. Anything still queued is discarded.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Fold one change into the queue.
+     */
+    private void merge(PortChange change)
+    {
+        PendingPort port = pending.get(change.getInputPort());
+        if (port == null)
+        {
+            port = new PendingPort();
+            pending.put(change.getInputPort(), port);
+        }
+
+        if (change.getAction() == PortChange.Action.DISCONNECT && change.getOutputPort() == 0)
+        {
+            //
+            // Supersedes everything queued for this Ingress Port.
+            //
+            port.reset = true;
+            port.egress.clear();
+            return;
+        }
+
+        //
+        // After a reset, disconnecting a single member is a no-op.
+        //
+        port.egress.remove(change.getOutputPort());
+        if (change.getAction() == PortChange.Action.CONNECT || !port.reset)
+        {
+            port.egress.put(change.getOutputPort(), change.getAction());
+        }
+    }
+
+
+    /**
+     * Expand the queue into Port Changes: every Disconnect before any Connect, so an Egress Port freed by one Ingress
+     * Port is free by the time another claims it.
+     */
+    private static List<PortChange> netChanges(Map<Integer, PendingPort> queue)
+    {
+        List<PortChange> disconnects = new ArrayList<PortChange>();
+        List<PortChange> connects = new ArrayList<PortChange>();
+        for (Map.Entry<Integer, PendingPort> entry : queue.entrySet())
+        {
+            int inputPort = entry.getKey();
+            PendingPort port = entry.getValue();
+            if (port.reset)
+            {
+                disconnects.add(PortChange.disconnect(inputPort));
+            }
+            for (Map.Entry<Integer, PortChange.Action> egress : port.egress.entrySet())
+            {
+                if (egress.getValue() == PortChange.Action.CONNECT)
+                {
+                    connects.add(PortChange.connect(inputPort, egress.getKey()));
+                }
+                else
+                {
+                    disconnects.add(PortChange.disconnect(inputPort, egress.getKey()));
+                }
+            }
+        }
+        disconnects.addAll(connects);
+        return disconnects;
+    }
+
+
+    /**
+     * Pipeline thread: move the net effect of the queue to the outbox as one batch, then send what the outbox holds.
+     * Changes submitted meanwhile are queued for the next batch.
+     */
+    private void flush()
+    {
+        List<PortChange> changes;
+        boolean accepted;
+        synchronized (this)
+        {
+            changes = netChanges(pending);
+            pending = new LinkedHashMap<Integer, PendingPort>();
+            flushScheduled = false;
+            accepted = outbox.size() < MAX_OUTBOX;
+            if (accepted && !changes.isEmpty())
+            {
+                outbox.addLast(new Batch(UUID.randomUUID().toString(), changes));
+            }
+        }
+        if (!accepted)
+        {
+            listener.commandFailed("Switch unavailable with " + MAX_OUTBOX + " batches already waiting; "
+                    + changes.size() + " change(s) dropped.");
+        }
+
+        //
+        // While the Switch Service is unavailable, leave sending to the scheduled retry.
+        //
+        if (!unavailable)
+        {
+            drain();
+        }
+    }
+
+
+    /**
+     * Pipeline thread: send the outbox, oldest first, until it is empty or the Switch Service is unavailable.
+     */
+    private void drain()
+    {
+        SwitchConfiguration switchConfiguration = null;
+        while (true)
+        {
+            Batch batch;
+            synchronized (this)
+            {
+                batch = outbox.peekFirst();
+            }
+            if (batch == null)
+            {
+                break;
+            }
+
+            try
+            {
+                switchConfiguration = send(batch);
+                if (unavailable)
+                {
+                    System.out.println("Switch available again");
+                    unavailable = false;
+                }
+            }
+            catch (SwitchUnavailableException exception)
+            {
+                //
+                // Keep the batch, and try again later under the same Request ID.
+                //
+                if (!unavailable)
+                {
+                    unavailable = true;
+                    listener.commandFailed("Switch unavailable (" + exception.getMessage() + "); "
+                            + getOutstandingChanges().size() + " change(s) will be sent when it returns.");
+                }
+                scheduleRetry();
+                break;
+            }
+            catch (Exception exception)
+            {
+                System.err.println("Exception: " + exception.getMessage());
+                listener.commandFailed(String.valueOf(exception.getMessage()));
+
+                //
+                // Resynchronize with whatever the Switch actually has.
+                //
+                try
+                {
+                    switchConfiguration = switchService.getConfiguration();
+                }
+                catch (Exception refreshException)
+                {
+                    System.err.println("Exception: " + refreshException.getMessage());
+                }
+            }
+            synchronized (this)
+            {
+                outbox.removeFirst();
+            }
+        }
+        if (switchConfiguration != null)
+        {
+            listener.configurationChanged(switchConfiguration);
+        }
+    }
+
+
+    private void scheduleRetry()
+    {
+        if (retryScheduled)
+        {
+            return;
+        }
+        retryScheduled = true;
+        executor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                retryScheduled = false;
+                drain();
+            }
+        }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * A batch of one goes through the matching single-change call (these are safe to repeat anyway); anything larger
+     * is one applyChanges call under the batch's Request ID.
+     */
+    private SwitchConfiguration send(Batch batch) throws Exception
+    {
+        if (batch.changes.size() == 1)
+        {
+            PortChange change = batch.changes.get(0);
+            if (change.getAction() == PortChange.Action.CONNECT)
+            {
+                return switchService.connect(change.getInputPort(), change.getOutputPort());
+            }
+            if (change.getOutputPort() == 0)
+            {
+                return switchService.disconnect(change.getInputPort());
+            }
+            return switchService.disconnect(change.getInputPort(), change.getOutputPort());
+        }
+        return switchService.applyChanges(batch.requestId, batch.changes);
+    }
+}
@@ -0,0 +1,157 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchUnavailableException;
+
+
+/**
+ * The last Switch Configuration seen, kept on disk so that a restart only has to ask the Switch Service whether it is
+ * still current, rather than fetching it all again.
+ * 
+ * A cache that cannot be read or written is reported and otherwise ignored; the Switch Service is always the
+ * authority.
+ */
+public class ConfigurationCache
+{
+    private final File file;
+
+    /**
+     * Epoch and version of the Switch Configuration last saved, so that re-saving an unchanged one costs nothing.
+     * Guarded by this.
+     */
+    private long savedEpoch;
+    private long savedVersion;
+
+
+    /**
+     * Cache in the user's home directory ({@code ~/.switchsimulator/configuration.ser}).
+     */
+    public ConfigurationCache()
+    {
+        this(new File(new File(System.getProperty("user.home"), ".switchsimulator"), "configuration.ser"));
+    }
+
+
+    /**
+     * @param file - Where to keep the cached Switch Configuration.
+     */
+    public ConfigurationCache(File file)
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Fetch the current Switch Configuration, revalidating the cached one if there is one: if the Switch Service
+     * reports it unchanged (same epoch and version), the cached copy is used and nothing more is transferred. A copy
+     * cached from an earlier run of the Switch Service never matches, whatever its version. If the Switch Service is
+     * unavailable, the cached copy is used as it is (the client catches up once it returns).
+     * 
+     * @param switchService - Switch Service.
+     * 
+     * @return Current Switch Configuration (or the last one seen, if the Switch Service is unavailable).
+     */
+    public SwitchConfiguration fetch(SwitchServiceApi switchService) throws Exception
+    {
+        SwitchConfiguration cached = load();
+        if (cached != null)
+        {
+            SwitchConfiguration changed;
+            try
+            {
+                changed = switchService.getConfigurationIfChanged(cached.getEpoch(), cached.getVersion());
+            }
+            catch (SwitchUnavailableException exception)
+            {
+                System.err.println("Switch unavailable (" + exception.getMessage()
+                        + "), using the last Switch Configuration seen");
+                return cached;
+            }
+            if (changed == null)
+            {
+                System.out.println("Using cached Switch Configuration (version " + cached.getVersion() + ")");
+                synchronized (this)
+                {
+                    savedEpoch = cached.getEpoch();
+                    savedVersion = cached.getVersion();
+                }
+                return cached;
+            }
+            save(changed);
+            return changed;
+        }
+        SwitchConfiguration current = switchService.getConfiguration();
+        save(current);
+        return current;
+    }
+
+
+    /**
+     * @return The cached Switch Configuration, or null if there is none (or it cannot be read).
+     */
+    public SwitchConfiguration load()
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new FileInputStream(file)))
+        {
+            return (SwitchConfiguration) input.readObject();
+        }
+        catch (Exception exception)
+        {
+            System.err.println("Unable to read " + file + ": " + exception);
+            return null;
+        }
+    }
+
+
+    /**
+     * Cache a Switch Configuration. The file is replaced in one step, so a crash mid-write cannot leave it corrupt.
+     * 
+     * @param switchConfiguration - Switch Configuration to cache.
+     */
+    public synchronized void save(SwitchConfiguration switchConfiguration)
+    {
+        //
+        // Failsafe.
+        //
+        if (switchConfiguration == null
+                || (switchConfiguration.getEpoch() == savedEpoch && switchConfiguration.getVersion() == savedVersion))
+        {
+            return;
+        }
+
+        try
+        {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new Exception("Unable to create " + directory);
+            }
+            File temporary = new File(directory, file.getName() + ".tmp");
+            try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(temporary)))
+            {
+                output.writeObject(switchConfiguration);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            savedEpoch = switchConfiguration.getEpoch();
+            savedVersion = switchConfiguration.getVersion();
+        }
+        catch (Exception exception)
+        {
+            System.err.println("Unable to write " + file + ": " + exception);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package manatee2.prototype.switchsimulator.client;
+
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+
+
+/**
+ * Keeps a client up to date with changes it did not make itself: other clients' Port Changes, scheduled changes, and
+ * the Switch being resized.
+ * 
+ * Rather than polling, it long-polls the Switch Service ({@link SwitchServiceApi#awaitConfigurationChange}), which
+ * answers as soon as the configuration moves on from the epoch and version the client already has. Each new Switch
+ * Configuration is reported to a Listener on the watcher's own thread. If the Switch Service is unavailable the
+ * watcher backs off and carries on.
+ */
+public class ConfigurationWatcher
+{
+    /**
+     * Longest a single wait is left open on the Switch Service.
+     */
+    private static final long WAIT_MILLIS = 30000;
+
+    /**
+     * Pause before waiting again after a failure.
+     */
+    private static final long RETRY_MILLIS = 2000;
+
+    /**
+     * Receives each new Switch Configuration (on the watcher's thread).
+     */
+    public interface Listener
+    {
+        void configurationChanged(SwitchConfiguration switchConfiguration);
+    }
+
+    private final SwitchServiceApi switchService;
+    private final Listener listener;
+    private final Thread thread;
+
+    /**
+     * Epoch and version of the Switch Configuration last reported (or the one the client started with). Only the
+     * watcher's thread changes them.
+     */
+    private volatile long epoch;
+    private volatile long version;
+    private volatile boolean running = true;
+
+
+    /**
+     * Start watching.
+     * 
+     * @param switchService - Switch Service to watch.
+     * @param epoch - Epoch of the Switch Configuration the client already has.
+     * @param version - Version of the Switch Configuration the client already has.
+     * @param listener - Receives each new Switch Configuration.
+     */
+    public ConfigurationWatcher(SwitchServiceApi switchService, long epoch, long version, Listener listener)
+    {
+        this.switchService = switchService;
+        this.epoch = epoch;
+        this.version = version;
+        this.listener = listener;
+        //
+        // The watcher spends nearly all its time blocked in the long poll, so a virtual thread is all it needs.
+        //
+        this.thread = Thread.ofVirtual().name("ConfigurationWatcher").start(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                watch();
+            }
+        });
+    }
+
+
+    /**
+     * Stop watching; a wait under way is abandoned.
+     */
+    public void shutdown()
+    {
+        running = false;
+        thread.interrupt();
+    }
+
+
+    private void watch()
+    {
+        while (running)
+        {
+            try
+            {
+                SwitchConfiguration switchConfiguration =
+                        switchService.awaitConfigurationChange(epoch, version, WAIT_MILLIS);
+                if (switchConfiguration != null && running)
+                {
+                    epoch = switchConfiguration.getEpoch();
+                    version = switchConfiguration.getVersion();
+                    listener.configurationChanged(switchConfiguration);
+                }
+            }
+            catch (InterruptedException exception)
+            {
+                return;
+            }
+            catch (Exception exception)
+            {
+                if (!running)
+                {
+                    return;
+                }
+                System.err.println("Unable to watch the Switch Configuration: " + exception.getMessage());
+                try
+                {
+                    Thread.sleep(RETRY_MILLIS);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+
+
+/**
+ * Reconstructs past Switch Configurations off the GUI thread while the operator scrubs through history.
+ * 
+ * Only the latest position asked for is ever fetched: positions requested while a fetch is under way replace one
+ * another, so dragging the slider never builds a backlog. Each result is compared with the last one passed on, and
+ * only the Ingress Ports whose groups differ are reported, so the grid re-pairs a handful of buttons per step rather
+ * than all of them.
+ * 
+ * One instance serves one visit to history; results are reported to a Listener on the replay's own thread.
+ */
+public class HistoryReplay
+{
+    /**
+     * Receives the replayed state (on the replay's thread).
+     */
+    public interface Listener
+    {
+        /**
+         * @param changedGroups - New group of each Ingress Port that changed since the last call (empty if it is now
+         *        unmapped).
+         */
+        void pairingsChanged(Map<Integer, BitSet> changedGroups);
+
+
+        /**
+         * @param message - Why the state could not be reconstructed.
+         */
+        void replayFailed(String message);
+    }
+
+    private final SwitchServiceApi switchService;
+    private final Listener listener;
+    private final ExecutorService executor;
+
+    /**
+     * Groups as last passed on. Only used on the replay's thread.
+     */
+    private Map<Integer, BitSet> shown;
+
+    /**
+     * Latest position asked for, and whether a fetch is queued for it. Guarded by this.
+     */
+    private long requestedTime;
+    private boolean queued;
+
+
+    /**
+     * @param switchService - Switch Service to replay from.
+     * @param current - Switch Configuration on display when the replay starts.
+     * @param listener - Receives the changes to the display.
+     */
+    public HistoryReplay(SwitchServiceApi switchService, SwitchConfiguration current, Listener listener)
+    {
+        this.switchService = switchService;
+        this.listener = listener;
+        this.shown = new HashMap<Integer, BitSet>(current.getPortMap());
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "HistoryReplay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Show the Switch as it was at a past instant. May be called from any thread.
+     * 
+     * @param time - Instant (milliseconds since the epoch).
+     */
+    public void scrubTo(long time)
+    {
+        synchronized (this)
+        {
+            requestedTime = time;
+            if (queued)
+            {
+                return;
+            }
+            queued = true;
+        }
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                replay();
+            }
+        });
+    }
+
+
+    /**
+     * Stop replaying; anything still under way is abandoned.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Fetch the latest position asked for, and pass on what differs from the last one.
+     */
+    private void replay()
+    {
+        long time;
+        synchronized (this)
+        {
+            time = requestedTime;
+            queued = false;
+        }
+
+        SwitchConfiguration configuration;
+        try
+        {
+            configuration = switchService.getConfigurationAt(time);
+        }
+        catch (Exception exception)
+        {
+            listener.replayFailed("Unable to replay history: " + exception.getMessage());
+            return;
+        }
+
+        //
+        // Before the history starts there is nothing to show.
+        //
+        Map<Integer, BitSet> groups = configuration == null || configuration.getPortMap() == null
+                ? new HashMap<Integer, BitSet>()
+                : configuration.getPortMap();
+
+        Set<Integer> inputPorts = new HashSet<Integer>(shown.keySet());
+        inputPorts.addAll(groups.keySet());
+        Map<Integer, BitSet> changedGroups = new HashMap<Integer, BitSet>();
+        for (Integer inputPort : inputPorts)
+        {
+            BitSet group = groups.get(inputPort);
+            if (group == null)
+            {
+                group = new BitSet();
+            }
+            BitSet previous = shown.get(inputPort);
+            if (!group.equals(previous == null ? new BitSet() : previous))
+            {
+                changedGroups.put(inputPort, group);
+            }
+        }
+        shown = groups;
+        if (!changedGroups.isEmpty())
+        {
+            listener.pairingsChanged(changedGroups);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+
+/**
+ * Non-modal log of errors and warnings, shown below the Switch.
+ * 
+ * Reporting never blocks: each line of a message becomes (or refreshes) one entry. Lines about the same Port are
+ * aggregated into a single entry (showing the latest text and how many times it has happened) for as long as they
+ * keep recurring within AGGREGATE_MILLIS of each other, so a burst of failures on one Port cannot flood the log. Must
+ * only be used on the GUI thread.
+ */
+public final class NotificationPanel extends VBox
+{
+    /**
+     * Most entries kept; the oldest go first.
+     */
+    private static final int MAX_ENTRIES = 200;
+
+    /**
+     * A recurrence within this long of the last one is folded into the same entry.
+     */
+    private static final long AGGREGATE_MILLIS = 30000;
+
+    /**
+     * First Port a line is about, e.g. "Egress Port 5" or "Input-Port 7".
+     */
+    private static final Pattern PORT_PATTERN =
+            Pattern.compile("(Ingress|Egress|Input|Output)[ -]Port (\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * One entry in the log.
+     */
+    private static class Entry
+    {
+        final String key;
+        String title;
+        String text;
+        long lastMillis;
+        int count;
+
+
+        Entry(String key)
+        {
+            this.key = key;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return new SimpleDateFormat("HH:mm:ss").format(new Date(lastMillis)) + "  " + title + ": " + text
+                    + (count > 1 ? "  (x" + count + ")" : "");
+        }
+    }
+
+    private final ListView<Entry> listView = new ListView<Entry>();
+    private final Label summaryLabel = new Label();
+
+    /**
+     * Entries by aggregation key.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private int numReported;
+
+
+    public NotificationPanel()
+    {
+        getStyleClass().add("notificationPanel");
+        setSpacing(2);
+
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent event)
+            {
+                clear();
+            }
+        });
+        HBox header = new HBox(10, new Label("Notifications"), summaryLabel, clearButton);
+        header.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(summaryLabel, Priority.ALWAYS);
+        summaryLabel.setMaxWidth(Double.MAX_VALUE);
+
+        listView.setPrefHeight(100);
+        listView.setFocusTraversable(false);
+        getChildren().addAll(header, listView);
+        updateSummary();
+    }
+
+
+    /**
+     * Log a message.
+     * 
+     * @param title - What failed, e.g. "Server Error".
+     * @param message - Message body; each line is logged (and aggregated) separately.
+     */
+    public void report(String title, String message)
+    {
+        long now = System.currentTimeMillis();
+        for (String line : String.valueOf(message).split("\n"))
+        {
+            line = line.trim();
+            if (line.isEmpty())
+            {
+                continue;
+            }
+            numReported++;
+
+            //
+            // Aggregate by Port ("Input" is "Ingress", "Output" is "Egress"), otherwise by the text itself.
+            //
+            String key = title + '\n' + line;
+            Matcher matcher = PORT_PATTERN.matcher(line);
+            if (matcher.find())
+            {
+                String direction = matcher.group(1).toLowerCase();
+                boolean ingress = direction.equals("ingress") || direction.equals("input");
+                key = (ingress ? "Ingress Port " : "Egress Port ") + matcher.group(2);
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.lastMillis <= AGGREGATE_MILLIS)
+            {
+                listView.getItems().remove(entry);
+                entry.count++;
+            }
+            else
+            {
+                if (entry != null)
+                {
+                    listView.getItems().remove(entry);
+                }
+                entry = new Entry(key);
+                entry.count = 1;
+                entries.put(key, entry);
+            }
+            entry.title = title;
+            entry.text = line;
+            entry.lastMillis = now;
+
+            //
+            // Newest first.
+            //
+            listView.getItems().add(0, entry);
+            if (listView.getItems().size() > MAX_ENTRIES)
+            {
+                Entry oldest = listView.getItems().remove(listView.getItems().size() - 1);
+                entries.remove(oldest.key);
+            }
+        }
+        updateSummary();
+    }
+
+
+    /**
+     * Empty the log.
+     */
+    public void clear()
+    {
+        listView.getItems().clear();
+        entries.clear();
+        numReported = 0;
+        updateSummary();
+    }
+
+
+    private void updateSummary()
+    {
+        summaryLabel.setText(numReported == 0 ? "" : numReported + " reported, " + listView.getItems().size()
+                + " distinct");
+    }
+}
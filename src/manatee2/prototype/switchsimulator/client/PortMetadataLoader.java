@@ -0,0 +1,162 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+
+
+/**
+ * Fetches Port metadata in the background, a page at a time, after the grid is already up.
+ * 
+ * Pages are fetched Ingress first, in Port order, and each is reported to a Listener as soon as it arrives, so the
+ * names fill in while the operator is already working. A page is only fetched again once the metadata version moves
+ * on, the Switch Service restarts (a new epoch) or the Switch grows; results for a version that has since been
+ * superseded are dropped.
+ */
+public class PortMetadataLoader
+{
+    /**
+     * Ports per page.
+     */
+    static final int PAGE_SIZE = 256;
+
+    /**
+     * Receives each page (on the loader's thread).
+     */
+    public interface Listener
+    {
+        void pageLoaded(PortMetadata page);
+    }
+
+    private final SwitchServiceApi switchService;
+    private final Listener listener;
+    private final ExecutorService executor;
+
+    /**
+     * Epoch and metadata version being loaded, and the pages ("I17"/"E257" for their first Port) loaded at them.
+     * Guarded by this.
+     */
+    private long epoch;
+    private long version = -1;
+    private final Set<String> loadedPages = new HashSet<String>();
+
+
+    /**
+     * @param switchService - Switch Service to fetch from.
+     * @param listener - Receives the pages.
+     */
+    public PortMetadataLoader(SwitchServiceApi switchService, Listener listener)
+    {
+        this.switchService = switchService;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "PortMetadata");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Make sure every page of a geometry is loaded at an epoch and metadata version, fetching in the background
+     * whichever are not. May be called from any thread, as often as the Switch Configuration changes.
+     * 
+     * @param numInputPorts - Number of Ingress Ports.
+     * @param numOutputPorts - Number of Egress Ports.
+     * @param epoch - Epoch of the Switch Configuration.
+     * @param metadataVersion - Metadata version of the Switch Configuration.
+     */
+    public void load(final int numInputPorts, final int numOutputPorts, final long epoch, final long metadataVersion)
+    {
+        synchronized (this)
+        {
+            if (!isCurrent(epoch, metadataVersion))
+            {
+                this.epoch = epoch;
+                version = metadataVersion;
+                loadedPages.clear();
+            }
+        }
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loadSide(true, numInputPorts, epoch, metadataVersion);
+                loadSide(false, numOutputPorts, epoch, metadataVersion);
+            }
+        });
+    }
+
+
+    /**
+     * Stop loading; a fetch under way is abandoned.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    private void loadSide(boolean ingress, int numPorts, long epoch, long metadataVersion)
+    {
+        for (int firstPort = 1; firstPort <= numPorts; firstPort += PAGE_SIZE)
+        {
+            String key = (ingress ? "I" : "E") + firstPort;
+            synchronized (this)
+            {
+                if (!isCurrent(epoch, metadataVersion))
+                {
+                    return;
+                }
+                if (loadedPages.contains(key))
+                {
+                    continue;
+                }
+            }
+
+            PortMetadata page;
+            try
+            {
+                page = switchService.getPortMetadata(ingress, firstPort, PAGE_SIZE);
+            }
+            catch (Exception exception)
+            {
+                //
+                // Leave the rest for the next load, when the Switch Configuration next changes.
+                //
+                System.err.println("Unable to fetch Port metadata: " + exception.getMessage());
+                return;
+            }
+
+            synchronized (this)
+            {
+                if (!isCurrent(epoch, metadataVersion))
+                {
+                    return;
+                }
+                loadedPages.add(key);
+            }
+            listener.pageLoaded(page);
+        }
+    }
+
+
+    /**
+     * @return True if the pages being loaded are at an epoch and metadata version. Called with this held.
+     */
+    private boolean isCurrent(long epoch, long metadataVersion)
+    {
+        return epoch == this.epoch && metadataVersion == version;
+    }
+}
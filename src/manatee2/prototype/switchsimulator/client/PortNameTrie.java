@@ -0,0 +1,237 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * Prefix index of Port names, for finding Ports as a name is typed.
+ * 
+ * A Port is recorded only at the node where its name (or a word of it) ends, so the index grows with the number of
+ * names rather than with their length; looking up a prefix walks one step per character to its node, then merges the
+ * Ports recorded below it. Names are matched case-insensitively, from the start of the name or of any word in it
+ * ("upl" finds "NYC uplink 3").
+ */
+public class PortNameTrie
+{
+    /**
+     * Most Port Numbers a set holds as a sorted array before it switches to a BitSet.
+     */
+    private static final int SPARSE_LIMIT = 32;
+
+    private static class Node
+    {
+        /**
+         * Children, sorted by their next character. Most nodes have one, so plain arrays rather than a map.
+         */
+        char[] labels;
+        Node[] children;
+        int numChildren;
+
+        /**
+         * Ingress and Egress Ports whose name (or a word of it) ends here, or null if none.
+         */
+        PortSet ingress;
+        PortSet egress;
+    }
+
+    /**
+     * Set of Port Numbers: a sorted array while it is small (most names end at a node of their own), a BitSet once it
+     * is not.
+     */
+    private static class PortSet
+    {
+        private int[] ports = new int[2];
+        private int size;
+        private BitSet bits;
+
+
+        void add(int port)
+        {
+            if (bits != null)
+            {
+                bits.set(port);
+                return;
+            }
+            int index = Arrays.binarySearch(ports, 0, size, port);
+            if (index >= 0)
+            {
+                return;
+            }
+            if (size == SPARSE_LIMIT)
+            {
+                bits = new BitSet();
+                for (int i = 0; i < size; i++)
+                {
+                    bits.set(ports[i]);
+                }
+                bits.set(port);
+                ports = null;
+                return;
+            }
+            if (size == ports.length)
+            {
+                ports = Arrays.copyOf(ports, Math.min(size * 2, SPARSE_LIMIT));
+            }
+            index = -index - 1;
+            System.arraycopy(ports, index, ports, index + 1, size - index);
+            ports[index] = port;
+            size++;
+        }
+
+
+        void addTo(BitSet result)
+        {
+            if (bits != null)
+            {
+                result.or(bits);
+                return;
+            }
+            for (int i = 0; i < size; i++)
+            {
+                result.set(ports[i]);
+            }
+        }
+    }
+
+    private Node root = new Node();
+
+
+    /**
+     * Index a Port's name.
+     * 
+     * @param ingress - Whether it is an Ingress (rather than Egress) Port.
+     * @param port - Port Number.
+     * @param name - Name of the Port.
+     */
+    public void put(boolean ingress, int port, String name)
+    {
+        String key = name.trim().toLowerCase();
+        for (int start = 0; start < key.length(); start++)
+        {
+            if (start == 0 || (Character.isWhitespace(key.charAt(start - 1))
+                    && !Character.isWhitespace(key.charAt(start))))
+            {
+                insert(ingress, port, key, start);
+            }
+        }
+    }
+
+
+    /**
+     * Forget every name.
+     */
+    public void clear()
+    {
+        root = new Node();
+    }
+
+
+    /**
+     * Find the Ports with a name (or a word in it) starting with a prefix.
+     * 
+     * @param ingress - Whether to look among Ingress (rather than Egress) Ports.
+     * @param prefix - Start of the name.
+     * 
+     * @return Matching Port Numbers (a copy the caller may modify).
+     */
+    public BitSet find(boolean ingress, String prefix)
+    {
+        String key = prefix.trim().toLowerCase();
+        Node node = root;
+        for (int index = 0; index < key.length() && node != null; index++)
+        {
+            node = child(node, key.charAt(index));
+        }
+        BitSet result = new BitSet();
+        if (node != null && node != root)
+        {
+            collect(node, ingress, result);
+        }
+        return result;
+    }
+
+
+    private void insert(boolean ingress, int port, String key, int start)
+    {
+        Node node = root;
+        for (int index = start; index < key.length(); index++)
+        {
+            Node child = child(node, key.charAt(index));
+            if (child == null)
+            {
+                child = addChild(node, key.charAt(index));
+            }
+            node = child;
+        }
+        if (ingress)
+        {
+            if (node.ingress == null)
+            {
+                node.ingress = new PortSet();
+            }
+            node.ingress.add(port);
+        }
+        else
+        {
+            if (node.egress == null)
+            {
+                node.egress = new PortSet();
+            }
+            node.egress.add(port);
+        }
+    }
+
+
+    /**
+     * Merge the Ports recorded at a node and every node below it.
+     */
+    private void collect(Node node, boolean ingress, BitSet result)
+    {
+        PortSet ports = ingress ? node.ingress : node.egress;
+        if (ports != null)
+        {
+            ports.addTo(result);
+        }
+        for (int index = 0; index < node.numChildren; index++)
+        {
+            collect(node.children[index], ingress, result);
+        }
+    }
+
+
+    /**
+     * @return The child of a node for a character, or null if there is none.
+     */
+    private static Node child(Node node, char label)
+    {
+        int index = node.numChildren == 0 ? -1 : Arrays.binarySearch(node.labels, 0, node.numChildren, label);
+        return index < 0 ? null : node.children[index];
+    }
+
+
+    /**
+     * Add a (new) child to a node for a character.
+     */
+    private static Node addChild(Node node, char label)
+    {
+        if (node.numChildren == 0)
+        {
+            node.labels = new char[1];
+            node.children = new Node[1];
+        }
+        else if (node.numChildren == node.labels.length)
+        {
+            node.labels = Arrays.copyOf(node.labels, node.numChildren * 2);
+            node.children = Arrays.copyOf(node.children, node.numChildren * 2);
+        }
+        int index = -Arrays.binarySearch(node.labels, 0, node.numChildren, label) - 1;
+        System.arraycopy(node.labels, index, node.labels, index + 1, node.numChildren - index);
+        System.arraycopy(node.children, index, node.children, index + 1, node.numChildren - index);
+        node.labels[index] = label;
+        Node child = new Node();
+        node.children[index] = child;
+        node.numChildren++;
+        return child;
+    }
+}
@@ -0,0 +1,208 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.BitSet;
+
+
+/**
+ * Filters the Ports of the Switch by a search query.
+ * 
+ * <pre>
+ * query      := term*
+ * term       := "ingress" | "egress"              (only that side)
+ *             | "connected" | "unconnected"
+ *             | number [ "-" number ] ( "," number [ "-" number ] )*
+ *             | word                              (start of a Port name)
+ * </pre>
+ * 
+ * Examples: {@code 12}, {@code 1-16,33}, {@code egress unconnected}, {@code ingress connected 1-64}, {@code nyc up}.
+ * 
+ * Port Numbers and ranges add to one another, as do the words of a name (which are matched as a phrase); the kinds of
+ * term narrow one another. Every term is evaluated as a set operation on BitSets, so a query over thousands of Ports
+ * costs a few hundred word operations.
+ */
+public class PortSearch
+{
+    /**
+     * Ports matching a query.
+     */
+    public static class Matches
+    {
+        private final BitSet ingress;
+        private final BitSet egress;
+
+
+        Matches(BitSet ingress, BitSet egress)
+        {
+            this.ingress = ingress;
+            this.egress = egress;
+        }
+
+
+        /**
+         * @return Matching Ingress Port Numbers.
+         */
+        public BitSet getIngress()
+        {
+            return ingress;
+        }
+
+
+        /**
+         * @return Matching Egress Port Numbers.
+         */
+        public BitSet getEgress()
+        {
+            return egress;
+        }
+    }
+
+
+    private PortSearch()
+    {
+    }
+
+
+    /**
+     * Evaluate a query.
+     * 
+     * @param query - Query text.
+     * @param numInputPorts - Number of Ingress Ports.
+     * @param numOutputPorts - Number of Egress Ports.
+     * @param connectedIngress - Ingress Ports feeding at least one Egress Port.
+     * @param connectedEgress - Egress Ports fed by an Ingress Port.
+     * @param names - Index of Port names.
+     * 
+     * @return Matching Ports, or null if the query is blank (nothing is being searched for).
+     * 
+     * @throws Exception If a Port Number or range is malformed.
+     */
+    public static Matches search(String query, int numInputPorts, int numOutputPorts, BitSet connectedIngress,
+            BitSet connectedEgress, PortNameTrie names) throws Exception
+    {
+        String[] terms = query.trim().split("\\s+");
+        if (terms.length == 0 || terms[0].isEmpty())
+        {
+            return null;
+        }
+
+        boolean ingressOnly = false;
+        boolean egressOnly = false;
+        Boolean connected = null;
+        BitSet ports = null;
+        StringBuilder name = new StringBuilder();
+        for (String term : terms)
+        {
+            if (term.equalsIgnoreCase("ingress"))
+            {
+                ingressOnly = true;
+            }
+            else if (term.equalsIgnoreCase("egress"))
+            {
+                egressOnly = true;
+            }
+            else if (term.equalsIgnoreCase("connected"))
+            {
+                connected = Boolean.TRUE;
+            }
+            else if (term.equalsIgnoreCase("unconnected"))
+            {
+                connected = Boolean.FALSE;
+            }
+            else if (Character.isDigit(term.charAt(0)))
+            {
+                if (ports == null)
+                {
+                    ports = new BitSet();
+                }
+                addPorts(ports, term, Math.max(numInputPorts, numOutputPorts));
+            }
+            else
+            {
+                name.append(name.length() > 0 ? " " : "").append(term);
+            }
+        }
+
+        //
+        // "ingress egress" is the same as neither.
+        //
+        boolean searchIngress = ingressOnly || !egressOnly;
+        boolean searchEgress = egressOnly || !ingressOnly;
+        return new Matches(
+                searchIngress ? narrow(numInputPorts, connected, connectedIngress, ports, name, names, true)
+                        : new BitSet(),
+                searchEgress ? narrow(numOutputPorts, connected, connectedEgress, ports, name, names, false)
+                        : new BitSet());
+    }
+
+
+    /**
+     * Narrow one side of the Switch down by every term.
+     */
+    private static BitSet narrow(int numPorts, Boolean connected, BitSet connectedPorts, BitSet ports,
+            StringBuilder name, PortNameTrie names, boolean ingress)
+    {
+        BitSet matches = new BitSet(numPorts + 1);
+        matches.set(1, numPorts + 1);
+        if (connected != null)
+        {
+            if (connected)
+            {
+                matches.and(connectedPorts);
+            }
+            else
+            {
+                matches.andNot(connectedPorts);
+            }
+        }
+        if (ports != null)
+        {
+            matches.and(ports);
+        }
+        if (name.length() > 0)
+        {
+            matches.and(names.find(ingress, name.toString()));
+        }
+        return matches;
+    }
+
+
+    /**
+     * Add a comma-separated list of Port Numbers and ranges (clipped to the largest Port) to a set.
+     */
+    private static void addPorts(BitSet ports, String term, int maxPort) throws Exception
+    {
+        for (String item : term.split(",", -1))
+        {
+            int dash = item.indexOf('-', 1);
+            int first = parsePort(dash < 0 ? item : item.substring(0, dash), term);
+            int last = dash < 0 ? first : parsePort(item.substring(dash + 1), term);
+            if (last < first)
+            {
+                int swap = first;
+                first = last;
+                last = swap;
+            }
+            if (first <= maxPort)
+            {
+                ports.set(first, Math.min(last, maxPort) + 1);
+            }
+        }
+    }
+
+
+    private static int parsePort(String text, String term) throws Exception
+    {
+        if (text.isEmpty() || text.length() > 9)
+        {
+            throw new Exception("Invalid Port Number or range '" + term + "'");
+        }
+        for (int index = 0; index < text.length(); index++)
+        {
+            if (!Character.isDigit(text.charAt(index)))
+            {
+                throw new Exception("Invalid Port Number or range '" + term + "'");
+            }
+        }
+        return Integer.parseInt(text);
+    }
+}
@@ -0,0 +1,75 @@
+package manatee2.prototype.switchsimulator.client;
+
+import javafx.application.Platform;
+
+
+/**
+ * Collapses updates posted from any thread into at most one GUI pulse.
+ * 
+ * The first update posted schedules a single {@link Platform#runLater(Runnable)}; updates posted before it runs are
+ * merged into the one waiting (by default the latest wins), so however many arrive the GUI is refreshed once.
+ * 
+ * @param <T> - Update type.
+ */
+public abstract class RefreshCoalescer<T>
+{
+    /**
+     * Update waiting for the next pulse, or null if no pulse is scheduled. Guarded by this.
+     */
+    private T waiting;
+
+
+    /**
+     * Post an update. May be called from any thread.
+     * 
+     * @param update - Update (not null).
+     */
+    public void post(T update)
+    {
+        synchronized (this)
+        {
+            if (waiting != null)
+            {
+                waiting = merge(waiting, update);
+                return;
+            }
+            waiting = update;
+        }
+        Platform.runLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                T update;
+                synchronized (RefreshCoalescer.this)
+                {
+                    update = waiting;
+                    waiting = null;
+                }
+                refresh(update);
+            }
+        });
+    }
+
+
+    /**
+     * Combine an update still waiting with a newer one.
+     * 
+     * @param waiting - Update not yet delivered.
+     * @param update - Newer update.
+     * 
+     * @return The update to deliver instead; by default the newer one.
+     */
+    protected T merge(T waiting, T update)
+    {
+        return update;
+    }
+
+
+    /**
+     * Apply an update, on the GUI thread.
+     * 
+     * @param update - Latest (merged) update.
+     */
+    protected abstract void refresh(T update);
+}
@@ -1,11 +1,21 @@
 package manatee2.prototype.switchsimulator.client;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import javafx.event.EventHandler;
 import javafx.scene.control.Button;
+import javafx.scene.control.Tooltip;
+import javafx.stage.WindowEvent;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
 
 
 /**
- * A single Switch Button corresponding to an Ingress/Egress Port. Each Ingress Switch Button may be paired with a
- * corresponding Egress Switch Button; and visa-versa.
+ * A single Switch Button corresponding to an Ingress/Egress Port. Each Ingress Switch Button may be paired with any
+ * number of Egress Switch Buttons (multicast); each Egress Switch Button is paired with at most one Ingress Switch
+ * Button.
  */
 public class SwitchButton extends Button
 {
@@ -15,15 +25,60 @@ public class SwitchButton extends Button
     private int portNumber;
 
     /**
-     * Corresponding Port to-which this Port is mapped. Null if unmapped.
+     * Corresponding Ports to-which this Port is mapped, in Port order. Empty if unmapped.
+     */
+    private final List<SwitchButton> pairedPorts = new ArrayList<SwitchButton>(1);
+
+    /**
+     * Port Numbers of the paired Ports, for constant-time membership tests on large groups.
+     */
+    private final BitSet pairedPortNumbers = new BitSet();
+
+    /**
+     * Most recent traffic counters for this Port.
+     */
+    private long packets;
+    private long bytes;
+    private long drops;
+    private double packetsPerSecond;
+
+    /**
+     * Traffic heat level (0 = idle, up to NUM_TRAFFIC_LEVELS - 1 = busiest), shown via a style class.
      */
-    private SwitchButton pairedPort;
+    private int trafficLevel;
+
+    /**
+     * Page of metadata (name, description, ...) holding this Port, or null until it is loaded. Buttons share their
+     * page rather than each copying its strings.
+     */
+    private PortMetadata metadata;
+
+    /**
+     * Number of distinct traffic heat levels.
+     */
+    static final int NUM_TRAFFIC_LEVELS = 5;
 
 
     SwitchButton(int portNumber)
     {
         this.portNumber = portNumber;
-        this.pairedPort = null;
+        this.trafficLevel = 0;
+        getStyleClass().add("trafficLevel0");
+
+        //
+        // The Tooltip text is only built when it is about to be shown.
+        //
+        final Tooltip tooltip = new Tooltip();
+        tooltip.setOnShowing(new EventHandler<WindowEvent>()
+        {
+            @Override
+            public void handle(WindowEvent event)
+            {
+                tooltip.setText(describe() + String.format("Port %d%nPackets: %,d (%,.0f/s)%nBytes: %,d%nDrops: %,d",
+                        SwitchButton.this.portNumber, packets, packetsPerSecond, bytes, drops));
+            }
+        });
+        setTooltip(tooltip);
     }
 
 
@@ -33,14 +88,161 @@ public class SwitchButton extends Button
     }
 
 
+    /**
+     * @return First (lowest-numbered) Port to-which this Port is mapped; for an Egress Port, the only one. Null if
+     *         unmapped.
+     */
     public SwitchButton getPairedPort()
     {
-        return pairedPort;
+        return pairedPorts.isEmpty() ? null : pairedPorts.get(0);
     }
 
 
-    public void setPairedPort(SwitchButton pairedPort)
+    /**
+     * @return Every Port to-which this Port is mapped.
+     */
+    public List<SwitchButton> getPairedPorts()
+    {
+        return Collections.unmodifiableList(pairedPorts);
+    }
+
+
+    /**
+     * @return True if the given Port is one of the Ports to-which this Port is mapped.
+     */
+    public boolean isPairedWith(SwitchButton switchButton)
     {
-        this.pairedPort = pairedPort;
+        if (switchButton == null || !pairedPortNumbers.get(switchButton.getPortNumber()))
+        {
+            return false;
+        }
+
+        //
+        // Ingress and Egress Port Numbers overlap, so confirm against the shorter of the two lists (an Egress Port's
+        // list never holds more than one entry).
+        //
+        if (pairedPorts.size() <= switchButton.pairedPorts.size())
+        {
+            return pairedPorts.contains(switchButton);
+        }
+        return switchButton.pairedPorts.contains(this);
+    }
+
+
+    public void addPairedPort(SwitchButton pairedPort)
+    {
+        pairedPorts.add(pairedPort);
+        pairedPortNumbers.set(pairedPort.getPortNumber());
+    }
+
+
+    public void removePairedPort(SwitchButton pairedPort)
+    {
+        if (pairedPorts.remove(pairedPort))
+        {
+            pairedPortNumbers.clear(pairedPort.getPortNumber());
+        }
+    }
+
+
+    public void clearPairedPorts()
+    {
+        pairedPorts.clear();
+        pairedPortNumbers.clear();
+    }
+
+
+    /**
+     * @return Name of the Port, or null if it has none (or its metadata is not loaded yet).
+     */
+    public String getName()
+    {
+        return metadata == null ? null : metadata.getName(portNumber);
+    }
+
+
+    /**
+     * Show this Port's metadata: its name under its number, and whether it is administratively down.
+     * 
+     * @param metadata - Page of metadata holding this Port.
+     */
+    public void setMetadata(PortMetadata metadata)
+    {
+        this.metadata = metadata;
+        String name = getName();
+        setText(name == null ? "" + portNumber : portNumber + "\n" + name);
+        setStyleClass("switchButtonNamed", name != null);
+        setStyleClass("switchButtonAdminDown", !metadata.isAdminUp(portNumber));
+    }
+
+
+    /**
+     * @return The tooltip's metadata lines (empty if none).
+     */
+    private String describe()
+    {
+        if (metadata == null)
+        {
+            return "";
+        }
+        StringBuilder lines = new StringBuilder();
+        if (metadata.getName(portNumber) != null)
+        {
+            lines.append(metadata.getName(portNumber)).append('\n');
+        }
+        if (metadata.getDescription(portNumber) != null)
+        {
+            lines.append(metadata.getDescription(portNumber)).append('\n');
+        }
+        if (!metadata.getTags(portNumber).isEmpty())
+        {
+            lines.append("Tags: ").append(String.join(", ", metadata.getTags(portNumber))).append('\n');
+        }
+        if (!metadata.isAdminUp(portNumber))
+        {
+            lines.append("Administratively DOWN\n");
+        }
+        return lines.toString();
+    }
+
+
+    private void setStyleClass(String styleClass, boolean present)
+    {
+        if (present && !getStyleClass().contains(styleClass))
+        {
+            getStyleClass().add(styleClass);
+        }
+        else if (!present)
+        {
+            getStyleClass().remove(styleClass);
+        }
+    }
+
+
+    /**
+     * Record this Port's traffic counters and show its heat level.
+     * 
+     * @param packets - Cumulative packets.
+     * @param bytes - Cumulative bytes.
+     * @param drops - Cumulative drops.
+     * @param packetsPerSecond - Current packet rate.
+     * @param trafficLevel - Heat level, 0 to NUM_TRAFFIC_LEVELS - 1.
+     */
+    public void setTraffic(long packets, long bytes, long drops, double packetsPerSecond, int trafficLevel)
+    {
+        this.packets = packets;
+        this.bytes = bytes;
+        this.drops = drops;
+        this.packetsPerSecond = packetsPerSecond;
+
+        //
+        // Only touch the style classes when the level actually changes, to keep CSS passes cheap.
+        //
+        if (trafficLevel != this.trafficLevel)
+        {
+            getStyleClass().remove("trafficLevel" + this.trafficLevel);
+            getStyleClass().add("trafficLevel" + trafficLevel);
+            this.trafficLevel = trafficLevel;
+        }
     }
 }
@@ -0,0 +1,131 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchValidator;
+
+
+/**
+ * Headless (no GUI) patching of the Switch.
+ * 
+ * Each command (see {@link CommandParser}) is compiled into a single batch, checked locally, then sent to the Switch
+ * Service in one call. Commands are taken from the command-line arguments if any are given (e.g.
+ * {@code SwitchCommandLine "connect 1-16 -> 33-48"}), otherwise one per line from standard input. "resize 64 128"
+ * changes the number of Ingress and Egress Ports, "show" prints the current mapping, and "quit" exits.
+ */
+public class SwitchCommandLine
+{
+    /**
+     * Entry point.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        SwitchServiceApi switchService = SwitchConnection.create();
+        SwitchConfiguration switchConfiguration = switchService.getConfiguration();
+
+        boolean ok = true;
+        if (args.length > 0)
+        {
+            StringBuilder command = new StringBuilder();
+            for (String arg : args)
+            {
+                command.append(arg).append(' ');
+            }
+            ok = execute(switchService, switchConfiguration, command.toString().trim()) != null;
+        }
+        else
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+                if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit"))
+                {
+                    break;
+                }
+                if (line.equalsIgnoreCase("show"))
+                {
+                    switchConfiguration = switchService.getConfiguration();
+                    print(switchConfiguration);
+                    continue;
+                }
+                SwitchConfiguration newConfiguration = execute(switchService, switchConfiguration, line);
+                if (newConfiguration == null)
+                {
+                    ok = false;
+                }
+                else
+                {
+                    switchConfiguration = newConfiguration;
+                }
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+
+    /**
+     * Compile, check and apply a single command.
+     * 
+     * @return New Switch Configuration, or null if the command failed (the reason has been reported).
+     */
+    private static SwitchConfiguration execute(SwitchServiceApi switchService, SwitchConfiguration switchConfiguration,
+            String command)
+    {
+        try
+        {
+            int[] geometry = CommandParser.parseResize(command);
+            if (geometry != null)
+            {
+                SwitchConfiguration newConfiguration = switchService.resize(geometry[0], geometry[1]);
+                System.out.println("OK: " + newConfiguration.getNumInputPorts() + " Ingress x "
+                        + newConfiguration.getNumOutputPorts() + " Egress");
+                return newConfiguration;
+            }
+            List<PortChange> changes = CommandParser.parse(command, switchConfiguration.getNumInputPorts());
+            List<String> violations =
+                    SwitchValidator.forConfiguration(switchConfiguration).validateChanges(changes);
+            if (!violations.isEmpty())
+            {
+                System.err.println(SwitchValidator.toMessage(violations));
+                return null;
+            }
+            SwitchConfiguration newConfiguration = switchService.applyChanges(changes);
+            System.out.println("OK: " + changes.size() + " change(s)");
+            return newConfiguration;
+        }
+        catch (Exception exception)
+        {
+            System.err.println("Error: " + exception.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Print the mapping, one Ingress Port per line.
+     */
+    private static void print(SwitchConfiguration switchConfiguration)
+    {
+        System.out.println(switchConfiguration.getNumInputPorts() + " Ingress x "
+                + switchConfiguration.getNumOutputPorts() + " Egress");
+        for (Map.Entry<Integer, BitSet> entry : new TreeMap<Integer, BitSet>(switchConfiguration.getPortMap())
+                .entrySet())
+        {
+            System.out.println("  " + entry.getKey() + " -> " + entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import manatee2.prototype.switchsimulator.server.SwitchService;
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchUnavailableException;
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
+
+
+/**
+ * Client's connection to the Switch Service, which survives losing it.
+ * 
+ * The connection is made on first use. If the Switch Service becomes unavailable, the request is retried on a fresh
+ * connection after an exponentially growing delay with random jitter (so that many clients losing the Switch at once
+ * do not all come back at the same instant), up to MAX_ATTEMPTS times. Only requests that are safe to replay are
+ * retried: a batch is sent with a Request ID that is reused for every retry, so it is applied at most once; scheduling
+ * is never retried.
+ * 
+ * The same client identity is used on every connection, so reservations survive a reconnect.
+ */
+public class SwitchConnection implements SwitchServiceApi
+{
+    /**
+     * Most times a request is tried before giving up with a SwitchUnavailableException.
+     */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Delay before the first retry; it doubles with each retry, up to the maximum.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * Makes a new connection to the Switch Service.
+     */
+    public interface Connector
+    {
+        /**
+         * @param clientId - Identity under-which this client locks and reserves Ports.
+         * 
+         * @return New connection.
+         * 
+         * @throws SwitchUnavailableException If the Switch Service cannot be reached.
+         */
+        SwitchServiceApi connect(String clientId) throws Exception;
+    }
+
+    /**
+     * A request to the Switch Service.
+     */
+    private interface Call<T>
+    {
+        T call(SwitchServiceApi switchService) throws Exception;
+    }
+
+    private final String clientId;
+    private final Connector connector;
+    private final Random random = new Random();
+
+    /**
+     * Current connection, or null if there is none. Guarded by this.
+     */
+    private SwitchServiceApi switchService;
+
+
+    /**
+     * @param clientId - Identity under-which this client locks and reserves Ports.
+     * @param connector - Makes connections to the Switch Service.
+     */
+    public SwitchConnection(String clientId, Connector connector)
+    {
+        this.clientId = clientId;
+        this.connector = connector;
+    }
+
+
+    /**
+     * Create a connection to the Switch Service for a new client.
+     * 
+     * @return New (not yet connected) connection.
+     */
+    public static SwitchConnection create()
+    {
+        String clientId = "console-" + UUID.randomUUID().toString().substring(0, 8);
+        return new SwitchConnection(clientId, new Connector()
+        {
+            @Override
+            public SwitchServiceApi connect(String clientId) throws Exception
+            {
+                return new SwitchService(clientId);
+            }
+        });
+    }
+
+
+    /**
+     * Make a request, reconnecting and retrying (with backoff) while the Switch Service is unavailable.
+     * 
+     * @param call - The request.
+     * @param replayable - Whether the request may be sent again if it is unknown whether the first one arrived.
+     */
+    private <T> T call(Call<T> call, boolean replayable) throws Exception
+    {
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1;; attempt++)
+        {
+            SwitchServiceApi connection = null;
+            try
+            {
+                connection = getConnection();
+                return call.call(connection);
+            }
+            catch (SwitchUnavailableException exception)
+            {
+                dropConnection(connection);
+                if (!replayable || attempt >= MAX_ATTEMPTS)
+                {
+                    throw exception;
+                }
+
+                //
+                // "Equal jitter": wait at least half the backoff, plus a random part of the other half.
+                //
+                long delayMillis = backoffMillis / 2 + (long) (random.nextDouble() * (backoffMillis / 2));
+                System.err.println("Switch unavailable (" + exception.getMessage() + "), retry " + attempt + " in "
+                        + delayMillis + "ms");
+                try
+                {
+                    Thread.sleep(delayMillis);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw exception;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+
+    private synchronized SwitchServiceApi getConnection() throws Exception
+    {
+        if (switchService == null)
+        {
+            switchService = connector.connect(clientId);
+        }
+        return switchService;
+    }
+
+
+    /**
+     * Discard a failed connection (unless another thread has already replaced it).
+     */
+    private synchronized void dropConnection(SwitchServiceApi connection)
+    {
+        if (switchService == connection)
+        {
+            switchService = null;
+        }
+    }
+
+
+    @Override
+    public String getClientId()
+    {
+        return clientId;
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfiguration() throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getConfiguration();
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfigurationIfChanged(final long epoch, final long version) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getConfigurationIfChanged(epoch, version);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration awaitConfigurationChange(final long epoch, final long version,
+            final long timeoutMillis) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.awaitConfigurationChange(epoch, version, timeoutMillis);
+            }
+        }, true);
+    }
+
+
+    /**
+     * Resizing to a given geometry is idempotent, so it is safe to replay.
+     */
+    @Override
+    public SwitchConfiguration resize(final int numInputPorts, final int numOutputPorts) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.resize(numInputPorts, numOutputPorts);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public PortMetadata getPortMetadata(final boolean ingress, final int firstPort, final int maxPorts)
+            throws Exception
+    {
+        return call(new Call<PortMetadata>()
+        {
+            @Override
+            public PortMetadata call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getPortMetadata(ingress, firstPort, maxPorts);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public void setPortMetadata(final boolean ingress, final int port, final String name, final String description,
+            final List<String> tags, final boolean adminUp) throws Exception
+    {
+        call(new Call<Void>()
+        {
+            @Override
+            public Void call(SwitchServiceApi switchService) throws Exception
+            {
+                switchService.setPortMetadata(ingress, port, name, description, tags, adminUp);
+                return null;
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration connect(final int inputPort, final int outputPort) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.connect(inputPort, outputPort);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(final int inputPort) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.disconnect(inputPort);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(final int inputPort, final int outputPort) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.disconnect(inputPort, outputPort);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration connectGroup(final int inputPort, final int[] outputPorts) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.connectGroup(inputPort, outputPorts);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnectAll() throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.disconnectAll();
+            }
+        }, true);
+    }
+
+
+    /**
+     * Apply a batch of Port Changes, under a new Request ID so that it is safe to retry.
+     */
+    @Override
+    public SwitchConfiguration applyChanges(List<PortChange> changes) throws Exception
+    {
+        return applyChanges(UUID.randomUUID().toString(), changes);
+    }
+
+
+    @Override
+    public SwitchConfiguration applyChanges(final String requestId, final List<PortChange> changes) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.applyChanges(requestId, changes);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public List<String> validateChanges(final List<PortChange> changes) throws Exception
+    {
+        return call(new Call<List<String>>()
+        {
+            @Override
+            public List<String> call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.validateChanges(changes);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public List<AuditEvent> queryAudit(final int inputPort, final int outputPort, final long startTime,
+            final long endTime, final int maxEvents) throws Exception
+    {
+        return call(new Call<List<AuditEvent>>()
+        {
+            @Override
+            public List<AuditEvent> call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.queryAudit(inputPort, outputPort, startTime, endTime, maxEvents);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfigurationAt(final long time) throws Exception
+    {
+        return call(new Call<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getConfigurationAt(time);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public long getHistoryStart() throws Exception
+    {
+        return call(new Call<Long>()
+        {
+            @Override
+            public Long call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getHistoryStart();
+            }
+        }, true);
+    }
+
+
+    @Override
+    public void reservePorts(final int[] inputPorts, final int[] outputPorts, final long leaseMillis) throws Exception
+    {
+        call(new Call<Void>()
+        {
+            @Override
+            public Void call(SwitchServiceApi switchService) throws Exception
+            {
+                switchService.reservePorts(inputPorts, outputPorts, leaseMillis);
+                return null;
+            }
+        }, true);
+    }
+
+
+    @Override
+    public void releasePorts(final int[] inputPorts, final int[] outputPorts) throws Exception
+    {
+        call(new Call<Void>()
+        {
+            @Override
+            public Void call(SwitchServiceApi switchService) throws Exception
+            {
+                switchService.releasePorts(inputPorts, outputPorts);
+                return null;
+            }
+        }, true);
+    }
+
+
+    @Override
+    public long scheduleConnect(final int inputPort, final int outputPort, final long startTime, final long endTime)
+            throws Exception
+    {
+        return call(new Call<Long>()
+        {
+            @Override
+            public Long call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.scheduleConnect(inputPort, outputPort, startTime, endTime);
+            }
+        }, false);
+    }
+
+
+    @Override
+    public long scheduleDisconnect(final int inputPort, final long startTime) throws Exception
+    {
+        return call(new Call<Long>()
+        {
+            @Override
+            public Long call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.scheduleDisconnect(inputPort, startTime);
+            }
+        }, false);
+    }
+
+
+    @Override
+    public boolean cancelSchedule(final long scheduleId) throws Exception
+    {
+        return call(new Call<Boolean>()
+        {
+            @Override
+            public Boolean call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.cancelSchedule(scheduleId);
+            }
+        }, true);
+    }
+
+
+    @Override
+    public int getNumScheduled() throws Exception
+    {
+        return call(new Call<Integer>()
+        {
+            @Override
+            public Integer call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getNumScheduled();
+            }
+        }, true);
+    }
+
+
+    @Override
+    public void startTraffic(final long framesPerSecond) throws Exception
+    {
+        call(new Call<Void>()
+        {
+            @Override
+            public Void call(SwitchServiceApi switchService) throws Exception
+            {
+                switchService.startTraffic(framesPerSecond);
+                return null;
+            }
+        }, true);
+    }
+
+
+    @Override
+    public void stopTraffic() throws Exception
+    {
+        call(new Call<Void>()
+        {
+            @Override
+            public Void call(SwitchServiceApi switchService) throws Exception
+            {
+                switchService.stopTraffic();
+                return null;
+            }
+        }, true);
+    }
+
+
+    @Override
+    public TrafficStatistics getTrafficStatistics() throws Exception
+    {
+        return call(new Call<TrafficStatistics>()
+        {
+            @Override
+            public TrafficStatistics call(SwitchServiceApi switchService) throws Exception
+            {
+                return switchService.getTrafficStatistics();
+            }
+        }, true);
+    }
+}
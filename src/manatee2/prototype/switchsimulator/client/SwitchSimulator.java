@@ -1,25 +1,59 @@
 package manatee2.prototype.switchsimulator.client;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
+import javafx.geometry.Bounds;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
+import javafx.scene.control.Slider;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
 import javafx.stage.Stage;
-import manatee2.prototype.switchsimulator.server.SwitchService;
+import javafx.util.Duration;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
 import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchValidator;
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
 
 
 public class SwitchSimulator extends Application
@@ -27,18 +61,38 @@ public class SwitchSimulator extends Application
     /**
      * The number of Ingress and Egress ports must be divisible by 8.
      */
-    private static final int NUM_COLUMNS = 8;
+    private static final int NUM_COLUMNS = SwitchValidator.PORT_GROUP_SIZE;
+
+    /**
+     * Offered load when simulated traffic is started.
+     */
+    private static final long TRAFFIC_FRAMES_PER_SECOND = 4000000;
+
+    /**
+     * How long the Command Pipeline waits for further clicks before sending their net effect.
+     */
+    private static final long COMMAND_WINDOW_MILLIS = 150;
 
     /**
      * Interface to the Switch Service.
      */
-    private SwitchService switchService;
+    private SwitchServiceApi switchService;
 
     /**
      * Current Switch Configuration.
      */
     private SwitchConfiguration switchConfiguration;
 
+    /**
+     * Last Switch Configuration seen, kept on disk for a fast restart.
+     */
+    private ConfigurationCache configurationCache;
+
+    /**
+     * Checks changes against the Current Switch Configuration before they are sent to the Switch Service.
+     */
+    private SwitchValidator switchValidator;
+
     /**
      * Ingress Buttons.
      */
@@ -74,9 +128,130 @@ public class SwitchSimulator extends Application
      */
     private Button disconnectAllButton;
 
+    /**
+     * Control Button used to start/stop simulated traffic.
+     */
+    private Button trafficButton;
+
+    /**
+     * Grids holding the Ingress/Egress buttons, in Port order.
+     */
+    private GridPane ingressGrid;
+    private GridPane egressGrid;
+
+    /**
+     * Search/filter bar, and the Ports matching it (null when it is blank). The match state last shown on the
+     * buttons is kept so that a new search only restyles the buttons whose state changed.
+     */
+    private TextField searchField;
+    private PortSearch.Matches searchMatches;
+    private PortSearch.Matches shownMatches;
+
+    /**
+     * Index of Port names for the search bar, filled in as their metadata is loaded.
+     */
+    private final PortNameTrie portNames = new PortNameTrie();
+
+    /**
+     * Transparent layer over the grids on-which the connections of the matching Ports are drawn.
+     */
+    private Canvas connectionOverlay;
+
+    /**
+     * Audit trail window (created when first opened).
+     */
+    private AuditBrowser auditBrowser;
+
+    /**
+     * History bar: switches the grid between the live Switch and a past instant chosen with the slider.
+     */
+    private ToggleButton historyButton;
+    private Slider historySlider;
+    private Label historyLabel;
+
+    /**
+     * Replay of the current visit to history (null while showing the live Switch), and the coalescer feeding its
+     * changes to the grid. A new coalescer is made for every visit, so stragglers from an earlier one are ignored.
+     */
+    private HistoryReplay historyReplay;
+    private RefreshCoalescer<Map<Integer, BitSet>> pairingsRefresh;
+
+    /**
+     * Command console, e.g. "connect 1-16 -> 33-48" (see {@link CommandParser}).
+     */
+    private TextField commandField;
+
+    /**
+     * Non-modal log of errors (modal popups are only used for fatal start-up failures).
+     */
+    private NotificationPanel notificationPanel;
+
+    /**
+     * Sends Port Changes to the Switch Service in the background, coalescing rapid clicks.
+     */
+    private CommandPipeline commandPipeline;
+
+    /**
+     * Collapse the Command Pipeline's results into one GUI pulse each.
+     */
+    private RefreshCoalescer<SwitchConfiguration> configurationRefresh;
+    private RefreshCoalescer<String> errorRefresh;
+
+    /**
+     * Brings in changes made elsewhere (other clients, the scheduler, a resize of the Switch) as they happen.
+     */
+    private ConfigurationWatcher configurationWatcher;
+
+    /**
+     * Fetches the Ports' metadata a page at a time once the grid is up; the pages reach the GUI one pulse at a time.
+     * The epoch and metadata version the names in the search index belong to.
+     */
+    private PortMetadataLoader metadataLoader;
+    private RefreshCoalescer<List<PortMetadata>> metadataRefresh;
+    private long shownMetadataEpoch;
+    private long shownMetadataVersion;
+
+    /**
+     * Runs the Switch Service calls the GUI makes outside the Command Pipeline, one at a time, so a slow or
+     * reconnecting server never stalls the GUI thread.
+     */
+    private ExecutorService backgroundExecutor;
+
+    /**
+     * Polls the traffic counters while simulated traffic is running. A poll is skipped while the previous one is
+     * still being fetched; the counters reach the GUI one pulse at a time.
+     */
+    private Timeline trafficTimeline;
+    private final AtomicBoolean trafficFetching = new AtomicBoolean();
+    private RefreshCoalescer<TrafficStatistics> trafficRefresh;
+
+    /**
+     * Previous traffic counters, used to compute rates.
+     */
+    private TrafficStatistics previousTrafficStatistics;
+
 
     // =========================================================================
 
+    public SwitchSimulator()
+    {
+        // Connects to the Switch Service on start-up.
+    }
+
+
+    /**
+     * GUI over a given Switch Service, e.g. a synthetic one for benchmarking.
+     * 
+     * @param switchService - Switch Service.
+     * @param configurationCache - Where to cache the Switch Configuration.
+     */
+    SwitchSimulator(SwitchServiceApi switchService, ConfigurationCache configurationCache)
+    {
+        this.switchService = switchService;
+        this.configurationCache = configurationCache;
+    }
+
+
     /**
      * Entry point.
      */
@@ -121,14 +296,53 @@ public class SwitchSimulator extends Application
     @Override
     public void stop()
     {
+        shutdown();
         Platform.exit();
         System.exit(0);
     }
 
 
+    /**
+     * Stop the background work (Command Pipeline, Configuration Watcher, metadata loading, history replay, traffic
+     * polling and the Switch Service calls under way).
+     */
+    void shutdown()
+    {
+        if (backgroundExecutor != null)
+        {
+            backgroundExecutor.shutdownNow();
+        }
+        if (commandPipeline != null)
+        {
+            commandPipeline.shutdown();
+        }
+        if (configurationWatcher != null)
+        {
+            configurationWatcher.shutdown();
+        }
+        if (metadataLoader != null)
+        {
+            metadataLoader.shutdown();
+        }
+        if (historyReplay != null)
+        {
+            historyReplay.shutdown();
+        }
+        if (trafficTimeline != null)
+        {
+            trafficTimeline.stop();
+        }
+    }
+
+
     // =========================================================================
 
-    private void setup(Stage primaryStage) throws Exception
+    /**
+     * Build the GUI onto the Stage.
+     * 
+     * @param primaryStage - Stage.
+     */
+    void setup(Stage primaryStage) throws Exception
     {
         //
         // Put a title on the window.
@@ -152,14 +366,21 @@ public class SwitchSimulator extends Application
         primaryStage.show();
 
         //
-        // Establish the connection to the Switch Service.
+        // Establish the connection to the Switch Service (unless one was given).
         //
-        switchService = new SwitchService();
+        if (switchService == null)
+        {
+            switchService = SwitchConnection.create();
+        }
 
         //
-        // Determine the initial Switch Configuration.
+        // Determine the initial Switch Configuration (only transferred if the cached one is out of date).
         //
-        switchConfiguration = switchService.getConfiguration();
+        if (configurationCache == null)
+        {
+            configurationCache = new ConfigurationCache();
+        }
+        switchConfiguration = configurationCache.fetch(switchService);
 
         //
         // Failsafe.
@@ -173,24 +394,143 @@ public class SwitchSimulator extends Application
             Platform.exit();
             System.exit(1);
         }
-        if (switchConfiguration.getNumInputPorts() < 0 || switchConfiguration.getNumInputPorts() % NUM_COLUMNS != 0)
+        List<String> geometryViolations = SwitchValidator.validateGeometry(
+                switchConfiguration.getNumInputPorts(),
+                switchConfiguration.getNumOutputPorts());
+        if (!geometryViolations.isEmpty())
         {
             primaryStage.hide();
             popupErrorMessage(
                     "Invalid Switch Configuration",
-                    "Invalid Number of Ingress Ports (" + switchConfiguration.getNumInputPorts() + ").");
+                    SwitchValidator.toMessage(geometryViolations));
             Platform.exit();
             System.exit(1);
         }
-        if (switchConfiguration.getNumOutputPorts() < 0 || switchConfiguration.getNumOutputPorts() % NUM_COLUMNS != 0)
+
+        //
+        // Route Port Changes through the Command Pipeline; its results reach the GUI one pulse at a time.
+        //
+        configurationRefresh = new RefreshCoalescer<SwitchConfiguration>()
         {
-            primaryStage.hide();
-            popupErrorMessage(
-                    "Invalid Switch Configuration",
-                    "Invalid Number of Egress Ports (" + switchConfiguration.getNumOutputPorts() + ").");
-            Platform.exit();
-            System.exit(1);
-        }
+            /**
+             * The Command Pipeline and the Configuration Watcher both post, so keep the newer of the two.
+             */
+            @Override
+            protected SwitchConfiguration merge(SwitchConfiguration waiting, SwitchConfiguration update)
+            {
+                //
+                // Versions only compare within an epoch; one from a restarted Switch Service is the newer.
+                //
+                if (update.getEpoch() != waiting.getEpoch())
+                {
+                    return update;
+                }
+                return update.getVersion() >= waiting.getVersion() ? update : waiting;
+            }
+
+
+            @Override
+            protected void refresh(SwitchConfiguration update)
+            {
+                //
+                // Nothing to redraw if it is the version already shown. While history is on display, the live
+                // Switch Configuration is only kept, to be redrawn on returning to it.
+                //
+                if (update.getEpoch() == switchConfiguration.getEpoch()
+                        && update.getVersion() == switchConfiguration.getVersion())
+                {
+                    return;
+                }
+                switchConfiguration = update;
+                if (historyReplay == null)
+                {
+                    establishPortMapping();
+                }
+            }
+        };
+        errorRefresh = new RefreshCoalescer<String>()
+        {
+            @Override
+            protected String merge(String waiting, String update)
+            {
+                return waiting + "\n" + update;
+            }
+
+
+            @Override
+            protected void refresh(String update)
+            {
+                notificationPanel.report("Server Error", update);
+            }
+        };
+        trafficRefresh = new RefreshCoalescer<TrafficStatistics>()
+        {
+            @Override
+            protected void refresh(TrafficStatistics update)
+            {
+                showTraffic(update);
+            }
+        };
+        backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "SwitchSimulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        commandPipeline = new CommandPipeline(switchService, COMMAND_WINDOW_MILLIS, new CommandPipeline.Listener()
+        {
+            @Override
+            public void configurationChanged(SwitchConfiguration switchConfiguration)
+            {
+                configurationCache.save(switchConfiguration);
+                configurationRefresh.post(switchConfiguration);
+            }
+
+
+            @Override
+            public void commandFailed(String message)
+            {
+                errorRefresh.post(message);
+            }
+        });
+        configurationWatcher = new ConfigurationWatcher(switchService, switchConfiguration.getEpoch(),
+                switchConfiguration.getVersion(), new ConfigurationWatcher.Listener()
+                {
+                    @Override
+                    public void configurationChanged(SwitchConfiguration switchConfiguration)
+                    {
+                        configurationCache.save(switchConfiguration);
+                        configurationRefresh.post(switchConfiguration);
+                    }
+                });
+        metadataRefresh = new RefreshCoalescer<List<PortMetadata>>()
+        {
+            @Override
+            protected List<PortMetadata> merge(List<PortMetadata> waiting, List<PortMetadata> update)
+            {
+                waiting.addAll(update);
+                return waiting;
+            }
+
+
+            @Override
+            protected void refresh(List<PortMetadata> update)
+            {
+                applyMetadata(update);
+            }
+        };
+        metadataLoader = new PortMetadataLoader(switchService, new PortMetadataLoader.Listener()
+        {
+            @Override
+            public void pageLoaded(PortMetadata page)
+            {
+                metadataRefresh.post(new ArrayList<PortMetadata>(Collections.singletonList(page)));
+            }
+        });
 
         //
         // Create the Root Node.
@@ -200,6 +540,45 @@ public class SwitchSimulator extends Application
         rootNode.setSpacing(5);
         rootNode.getStyleClass().add("mainPanel");
 
+        //
+        // Add the Search bar.
+        //
+        searchField = new TextField();
+        searchField.setPromptText("Search: 12 | 1-16,33 | connected | unconnected | ingress | egress | name");
+        searchField.getStyleClass().add("commandField");
+        searchField.textProperty().addListener(new ChangeListener<String>()
+        {
+            @Override
+            public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue)
+            {
+                search();
+            }
+        });
+        rootNode.getChildren().add(searchField);
+
+        //
+        // The grids share a pane with the Connection overlay, which is drawn over them.
+        //
+        VBox gridsBox = new VBox();
+        gridsBox.setSpacing(5);
+        connectionOverlay = new Canvas();
+        connectionOverlay.setMouseTransparent(true);
+        connectionOverlay.widthProperty().bind(gridsBox.widthProperty());
+        connectionOverlay.heightProperty().bind(gridsBox.heightProperty());
+        ChangeListener<Number> overlayResized = new ChangeListener<Number>()
+        {
+            @Override
+            public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue)
+            {
+                drawConnections();
+            }
+        };
+        connectionOverlay.widthProperty().addListener(overlayResized);
+        connectionOverlay.heightProperty().addListener(overlayResized);
+        StackPane gridsPane = new StackPane(gridsBox, connectionOverlay);
+        gridsPane.setAlignment(Pos.TOP_LEFT);
+        rootNode.getChildren().add(gridsPane);
+
         //
         // Add the title for the Ingress Grid.
         //
@@ -207,113 +586,17 @@ public class SwitchSimulator extends Application
         ingressLabel.getStyleClass().add("gridLabel");
         BorderPane ingressPane = new BorderPane();
         ingressPane.setCenter(ingressLabel);
-        rootNode.getChildren().add(ingressPane);
+        gridsBox.getChildren().add(ingressPane);
 
         //
-        // Add the Ingress Grid.
+        // Add the Ingress Grid. Both grids are filled in (and later grown or shrunk) by resizeGrids.
         //
-        int numInputButtons = switchConfiguration.getNumInputPorts();
-        ingressButtons = new SwitchButton[numInputButtons];
-        int numInputRows = switchConfiguration.getNumInputPorts() / NUM_COLUMNS;
-        GridPane inputGrid = new GridPane();
-        for (int rowIndex = 0; rowIndex < numInputRows; rowIndex++)
-        {
-            for (int columnIndex = 0; columnIndex < NUM_COLUMNS; columnIndex++)
-            {
-
-                int buttonNumber = (rowIndex * NUM_COLUMNS) + columnIndex + 1;
-                SwitchButton switchButton = new SwitchButton(buttonNumber);
-                switchButton.setText("" + buttonNumber);
-                switchButton.getStyleClass().add("switchButton");
-                switchButton.setOnMouseEntered(new EventHandler<Event>()
-                {
-                    @Override
-                    public void handle(Event event)
-                    {
-                        if (switchButton.getPairedPort() != null)
-                        {
-                            switchButton.getStyleClass().add("switchButtonHighlighted");
-                            switchButton.getPairedPort().getStyleClass().add("switchButtonHighlighted");
-                        }
-                    }
-                });
-                switchButton.setOnMouseExited(new EventHandler<Event>()
-                {
-                    @Override
-                    public void handle(Event event)
-                    {
-                        if (switchButton.getPairedPort() != null)
-                        {
-                            if (switchButton != currentIngressButton)
-                            {
-                                switchButton.getStyleClass().remove("switchButtonHighlighted");
-                            }
-                            if (switchButton.getPairedPort() != currentEgressButton)
-                            {
-                                switchButton.getPairedPort().getStyleClass().remove("switchButtonHighlighted");
-                            }
-                        }
-                    }
-                });
-                switchButton.setOnAction(new EventHandler<ActionEvent>()
-                {
-                    @Override
-                    public void handle(ActionEvent event)
-                    {
-                        //
-                        // Handle a De-Select.
-                        //
-                        if (currentIngressButton == switchButton)
-                        {
-                            currentIngressButton = null;
-                            if (switchButton.getPairedPort() != null
-                                    && switchButton.getPairedPort() == currentEgressButton)
-                            {
-                                currentEgressButton = null;
-                            }
-                        }
-
-                        //
-                        // Handle a Select.
-                        //
-                        else
-                        {
-                            //
-                            // Select it.
-                            //
-                            currentIngressButton = switchButton;
-
-                            //
-                            // If it is paired, select the mate.
-                            //
-                            if (switchButton.getPairedPort() != null)
-                            {
-                                currentEgressButton =
-                                        egressButtons[switchButton.getPairedPort().getPortNumber() - 1];
-                            }
-
-                            //
-                            // Un-select the previously-paired Output port.
-                            //
-                            else if (currentEgressButton != null
-                                    && currentEgressButton.getPairedPort() != null
-                                    && currentEgressButton.getPairedPort() != switchButton)
-                            {
-                                currentEgressButton = null;
-                            }
-                        }
-
-                        //
-                        // Update the button colors.
-                        //
-                        colorCodeAllButtons();
-                    }
-                });
-                ingressButtons[buttonNumber - 1] = switchButton;
-                inputGrid.add(switchButton, columnIndex, rowIndex);
-            }
-        }
-        rootNode.getChildren().add(inputGrid);
+        ingressGrid = new GridPane();
+        ingressButtons = new SwitchButton[0];
+        egressGrid = new GridPane();
+        egressButtons = new SwitchButton[0];
+        resizeGrids(switchConfiguration.getNumInputPorts(), switchConfiguration.getNumOutputPorts());
+        gridsBox.getChildren().add(ingressGrid);
 
         //
         // Add the title for the Egress grid.
@@ -322,113 +605,12 @@ public class SwitchSimulator extends Application
         egressLabel.getStyleClass().add("gridLabel");
         BorderPane egressPane = new BorderPane();
         egressPane.setCenter(egressLabel);
-        rootNode.getChildren().add(egressPane);
+        gridsBox.getChildren().add(egressPane);
 
         //
         // Add the Egress grid.
         //
-        int numOutputButtons = switchConfiguration.getNumOutputPorts();
-        egressButtons = new SwitchButton[numOutputButtons];
-        int numOutputRows = switchConfiguration.getNumOutputPorts() / NUM_COLUMNS;
-        GridPane outputGrid = new GridPane();
-        for (int rowIndex = 0; rowIndex < numOutputRows; rowIndex++)
-        {
-            for (int columnIndex = 0; columnIndex < NUM_COLUMNS; columnIndex++)
-            {
-
-                int buttonNumber = (rowIndex * NUM_COLUMNS) + columnIndex + 1;
-                SwitchButton switchButton = new SwitchButton(buttonNumber);
-                switchButton.setText("" + buttonNumber);
-                switchButton.getStyleClass().add("switchButton");
-                switchButton.setOnMouseEntered(new EventHandler<Event>()
-                {
-                    @Override
-                    public void handle(Event event)
-                    {
-                        if (switchButton.getPairedPort() != null)
-                        {
-                            switchButton.getStyleClass().add("switchButtonHighlighted");
-                            switchButton.getPairedPort().getStyleClass().add("switchButtonHighlighted");
-                        }
-                    }
-                });
-                switchButton.setOnMouseExited(new EventHandler<Event>()
-                {
-                    @Override
-                    public void handle(Event event)
-                    {
-                        if (switchButton.getPairedPort() != null)
-                        {
-                            if (switchButton != currentIngressButton)
-                            {
-                                switchButton.getStyleClass().remove("switchButtonHighlighted");
-                            }
-                            if (switchButton.getPairedPort() != currentEgressButton)
-                            {
-                                switchButton.getPairedPort().getStyleClass().remove("switchButtonHighlighted");
-                            }
-                        }
-                    }
-                });
-                switchButton.setOnAction(new EventHandler<ActionEvent>()
-                {
-                    @Override
-                    public void handle(ActionEvent event)
-                    {
-                        //
-                        // Handle a De-Select.
-                        //
-                        if (currentEgressButton == switchButton)
-                        {
-                            currentEgressButton = null;
-                            if (switchButton.getPairedPort() != null
-                                    && switchButton.getPairedPort() == currentIngressButton)
-                            {
-                                currentIngressButton = null;
-                            }
-                        }
-
-                        //
-                        // Handle a Select.
-                        //
-                        else
-                        {
-                            //
-                            // Select it.
-                            //
-                            currentEgressButton = switchButton;
-
-                            //
-                            // If it is paired, select the mate.
-                            //
-                            if (switchButton.getPairedPort() != null)
-                            {
-                                currentIngressButton =
-                                        ingressButtons[switchButton.getPairedPort().getPortNumber() - 1];
-                            }
-
-                            //
-                            // Un-select the previously-paired Output port.
-                            //
-                            else if (currentIngressButton != null
-                                    && currentIngressButton.getPairedPort() != null
-                                    && currentIngressButton.getPairedPort() != switchButton)
-                            {
-                                currentIngressButton = null;
-                            }
-                        }
-
-                        //
-                        // Update the button colors.
-                        //
-                        colorCodeAllButtons();
-                    }
-                });
-                egressButtons[buttonNumber - 1] = switchButton;
-                outputGrid.add(switchButton, columnIndex, rowIndex);
-            }
-        }
-        rootNode.getChildren().add(outputGrid);
+        gridsBox.getChildren().add(egressGrid);
 
         //
         // Add a visual separator.
@@ -459,25 +641,8 @@ public class SwitchSimulator extends Application
                     return;
                 }
 
-                //
-                // Perform the Connect.
-                //
-                try
-                {
-                    switchConfiguration =
-                            switchService.connect(currentIngressButton.getPortNumber(),
-                                    currentEgressButton.getPortNumber());
-                }
-                catch (Exception exception)
-                {
-                    popupErrorMessage("Server Error", exception.getMessage());
-                    System.err.println("Exception: " + exception.getMessage());
-                    exception.printStackTrace(System.err);
-                    return;
-                }
-                currentIngressButton = null;
-                currentEgressButton = null;
-                establishPortMapping();
+                submitChanges("Invalid Connection", Collections.singletonList(
+                        PortChange.connect(currentIngressButton.getPortNumber(), currentEgressButton.getPortNumber())));
             }
         });
         disconnectButton = new Button("Disconnect");
@@ -497,22 +662,18 @@ public class SwitchSimulator extends Application
                 }
 
                 //
-                // Perform the Disconnect.
+                // Disconnect just the selected member of a multicast group, otherwise the whole group.
                 //
-                try
+                if (currentIngressButton.isPairedWith(currentEgressButton))
                 {
-                    switchConfiguration = switchService.disconnect(currentIngressButton.getPortNumber());
+                    submitChanges("Invalid Disconnection", Collections.singletonList(PortChange.disconnect(
+                            currentIngressButton.getPortNumber(), currentEgressButton.getPortNumber())));
                 }
-                catch (Exception exception)
+                else
                 {
-                    popupErrorMessage("Server Error", exception.getMessage());
-                    System.err.println("Exception: " + exception.getMessage());
-                    exception.printStackTrace(System.err);
-                    return;
+                    submitChanges("Invalid Disconnection",
+                            Collections.singletonList(PortChange.disconnect(currentIngressButton.getPortNumber())));
                 }
-                currentIngressButton = null;
-                currentEgressButton = null;
-                establishPortMapping();
             }
         });
         disconnectAllButton = new Button("Disconnect All");
@@ -520,61 +681,893 @@ public class SwitchSimulator extends Application
         disconnectAllButton.setOnAction(new EventHandler<ActionEvent>()
         {
             @Override
-            public void handle(ActionEvent arg0)
+            public void handle(ActionEvent arg0)
+            {
+                List<PortChange> changes = new ArrayList<PortChange>();
+                for (int inputPort = 1; inputPort <= switchConfiguration.getNumInputPorts(); inputPort++)
+                {
+                    changes.add(PortChange.disconnect(inputPort));
+                }
+                submitChanges("Invalid Disconnection", changes);
+            }
+        });
+        trafficButton = new Button("Start Traffic");
+        trafficButton.getStyleClass().add("controlButton");
+        trafficButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent arg0)
+            {
+                toggleTraffic();
+            }
+        });
+        Button auditButton = new Button("Audit Log");
+        auditButton.getStyleClass().add("controlButton");
+        auditButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent arg0)
+            {
+                if (auditBrowser == null)
+                {
+                    auditBrowser = new AuditBrowser(switchService, primaryStage);
+                }
+                auditBrowser.show();
+            }
+        });
+        buttonPanel.getChildren().addAll(connectButton, disconnectButton, disconnectAllButton, trafficButton,
+                auditButton);
+        rootNode.getChildren().add(buttonPanel);
+
+        //
+        // Add the History bar.
+        //
+        historyButton = new ToggleButton("History");
+        historyButton.getStyleClass().add("controlButton");
+        historyButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent arg0)
+            {
+                if (historyButton.isSelected())
+                {
+                    enterHistory();
+                }
+                else
+                {
+                    leaveHistory();
+                }
+            }
+        });
+        historySlider = new Slider();
+        historySlider.setDisable(true);
+        HBox.setHgrow(historySlider, Priority.ALWAYS);
+        historySlider.valueProperty().addListener(new ChangeListener<Number>()
+        {
+            @Override
+            public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue)
+            {
+                if (historyReplay != null)
+                {
+                    long time = newValue.longValue();
+                    historyLabel.setText(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time)));
+                    historyReplay.scrubTo(time);
+                }
+            }
+        });
+        historyLabel = new Label("Live");
+        historyLabel.getStyleClass().add("historyLabel");
+        HBox historyPanel = new HBox(10, historyButton, historySlider, historyLabel);
+        historyPanel.setAlignment(Pos.CENTER_LEFT);
+        rootNode.getChildren().add(historyPanel);
+
+        //
+        // Add the Command console.
+        //
+        commandField = new TextField();
+        commandField.setPromptText("connect 1-16 -> 33-48 | disconnect 5,7,9 | disconnect all | resize 64 128");
+        commandField.getStyleClass().add("commandField");
+        commandField.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent arg0)
+            {
+                executeCommand(commandField.getText());
+            }
+        });
+        rootNode.getChildren().add(commandField);
+
+        //
+        // Add the Notification log.
+        //
+        notificationPanel = new NotificationPanel();
+        rootNode.getChildren().add(notificationPanel);
+
+        //
+        // Establish the initial Switch Port Mapping.
+        //
+        establishPortMapping();
+
+        //
+        // Create the Scene.
+        //
+        Scene mainScene = new Scene(rootNode);
+
+        //
+        // Set the Scene's Cascading Style Sheet (CSS).
+        //
+        mainScene.getStylesheets().add(getClass().getResource("SwitchSimulator.css").toExternalForm());
+
+        //
+        // Ctrl+L (Cmd+L) jumps to the Command console.
+        //
+        mainScene.getAccelerators().put(new KeyCodeCombination(KeyCode.L, KeyCombination.SHORTCUT_DOWN),
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        commandField.requestFocus();
+                        commandField.selectAll();
+                    }
+                });
+
+        //
+        // Ctrl+F (Cmd+F) jumps to the Search bar.
+        //
+        mainScene.getAccelerators().put(new KeyCodeCombination(KeyCode.F, KeyCombination.SHORTCUT_DOWN),
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        searchField.requestFocus();
+                        searchField.selectAll();
+                    }
+                });
+
+        //
+        // Set the Scene onto the Stage.
+        //
+        primaryStage.setScene(mainScene);
+
+        //
+        // Auto-size the Stage to fit.
+        //
+        primaryStage.sizeToScene();
+        primaryStage.setResizable(false);
+    }
+
+
+    /**
+     * Grow or shrink the Ingress and Egress grids to a new geometry, e.g. after a line card is added to or removed from
+     * the Switch. Existing buttons are kept as they are (with their pairings, selection and traffic); only buttons for
+     * Ports that appeared are created, and only those for Ports that went away are removed, from the end of the grid.
+     * 
+     * @param numInputPorts - New number of Ingress Ports.
+     * @param numOutputPorts - New number of Egress Ports.
+     */
+    private void resizeGrids(int numInputPorts, int numOutputPorts)
+    {
+        clearSearchStyles();
+        ingressButtons = resizeGrid(ingressGrid, ingressButtons, numInputPorts, true);
+        egressButtons = resizeGrid(egressGrid, egressButtons, numOutputPorts, false);
+    }
+
+
+    private SwitchButton[] resizeGrid(GridPane grid, SwitchButton[] buttons, int numPorts, boolean ingress)
+    {
+        if (numPorts == buttons.length)
+        {
+            return buttons;
+        }
+
+        //
+        // Shrink: drop the buttons at the end (the grid holds them in Port order), and every reference to them.
+        //
+        for (int port = numPorts + 1; port <= buttons.length; port++)
+        {
+            SwitchButton switchButton = buttons[port - 1];
+            if (switchButton == currentIngressButton)
+            {
+                currentIngressButton = null;
+            }
+            if (switchButton == currentEgressButton)
+            {
+                currentEgressButton = null;
+            }
+            for (SwitchButton pairedPort : switchButton.getPairedPorts())
+            {
+                pairedPort.removePairedPort(switchButton);
+            }
+            switchButton.clearPairedPorts();
+        }
+        if (numPorts < buttons.length)
+        {
+            grid.getChildren().remove(numPorts, buttons.length);
+        }
+
+        //
+        // Grow: add buttons for the new Ports.
+        //
+        SwitchButton[] resized = Arrays.copyOf(buttons, numPorts);
+        for (int port = buttons.length + 1; port <= numPorts; port++)
+        {
+            SwitchButton switchButton = ingress ? createIngressButton(port) : createEgressButton(port);
+            resized[port - 1] = switchButton;
+            grid.add(switchButton, (port - 1) % NUM_COLUMNS, (port - 1) / NUM_COLUMNS);
+        }
+        return resized;
+    }
+
+
+    /**
+     * @param buttonNumber - Ingress Port Number.
+     * 
+     * @return Button for the Ingress Port.
+     */
+    private SwitchButton createIngressButton(int buttonNumber)
+    {
+        SwitchButton switchButton = new SwitchButton(buttonNumber);
+        switchButton.setText("" + buttonNumber);
+        switchButton.getStyleClass().add("switchButton");
+        switchButton.setOnMouseEntered(new EventHandler<Event>()
+        {
+            @Override
+            public void handle(Event event)
+            {
+                highlightGroup(switchButton, true);
+            }
+        });
+        switchButton.setOnMouseExited(new EventHandler<Event>()
+        {
+            @Override
+            public void handle(Event event)
+            {
+                highlightGroup(switchButton, false);
+            }
+        });
+        switchButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent event)
+            {
+                //
+                // Handle a De-Select.
+                //
+                if (currentIngressButton == switchButton)
+                {
+                    currentIngressButton = null;
+                    if (switchButton.isPairedWith(currentEgressButton))
+                    {
+                        currentEgressButton = null;
+                    }
+                }
+
+                //
+                // Handle a Select.
+                //
+                else
+                {
+                    //
+                    // Select it.
+                    //
+                    currentIngressButton = switchButton;
+
+                    //
+                    // If it is paired, select the (first) mate, unless a mate is already selected.
+                    //
+                    if (switchButton.getPairedPort() != null)
+                    {
+                        if (!switchButton.isPairedWith(currentEgressButton))
+                        {
+                            currentEgressButton = switchButton.getPairedPort();
+                        }
+                    }
+
+                    //
+                    // Un-select the previously-paired Output port.
+                    //
+                    else if (currentEgressButton != null
+                            && currentEgressButton.getPairedPort() != null
+                            && currentEgressButton.getPairedPort() != switchButton)
+                    {
+                        currentEgressButton = null;
+                    }
+                }
+
+                //
+                // Update the button colors.
+                //
+                colorCodeAllButtons();
+            }
+        });
+        return switchButton;
+    }
+
+
+    /**
+     * @param buttonNumber - Egress Port Number.
+     * 
+     * @return Button for the Egress Port.
+     */
+    private SwitchButton createEgressButton(int buttonNumber)
+    {
+        SwitchButton switchButton = new SwitchButton(buttonNumber);
+        switchButton.setText("" + buttonNumber);
+        switchButton.getStyleClass().add("switchButton");
+        switchButton.setOnMouseEntered(new EventHandler<Event>()
+        {
+            @Override
+            public void handle(Event event)
+            {
+                highlightGroup(switchButton, true);
+            }
+        });
+        switchButton.setOnMouseExited(new EventHandler<Event>()
+        {
+            @Override
+            public void handle(Event event)
+            {
+                highlightGroup(switchButton, false);
+            }
+        });
+        switchButton.setOnAction(new EventHandler<ActionEvent>()
+        {
+            @Override
+            public void handle(ActionEvent event)
+            {
+                //
+                // Handle a De-Select.
+                //
+                if (currentEgressButton == switchButton)
+                {
+                    currentEgressButton = null;
+                    if (switchButton.getPairedPort() != null
+                            && switchButton.getPairedPort() == currentIngressButton)
+                    {
+                        currentIngressButton = null;
+                    }
+                }
+
+                //
+                // Handle a Select.
+                //
+                else
+                {
+                    //
+                    // Select it.
+                    //
+                    currentEgressButton = switchButton;
+
+                    //
+                    // If it is paired, select the mate. Otherwise keep the selected Ingress port (even if it
+                    // is paired), so that this Egress port can be added to its group.
+                    //
+                    if (switchButton.getPairedPort() != null)
+                    {
+                        currentIngressButton = switchButton.getPairedPort();
+                    }
+                }
+
+                //
+                // Update the button colors.
+                //
+                colorCodeAllButtons();
+            }
+        });
+        return switchButton;
+    }
+
+
+    /**
+     * Compile a console command into one batch, check it locally, then queue it for the Switch Service.
+     * 
+     * @param command - Command text.
+     */
+    private void executeCommand(String command)
+    {
+        if (command == null || command.trim().isEmpty())
+        {
+            return;
+        }
+
+        //
+        // Compile and check it locally before spending a round-trip on it.
+        //
+        List<PortChange> changes;
+        try
+        {
+            int[] geometry = CommandParser.parseResize(command);
+            if (geometry != null)
+            {
+                resizeSwitch(geometry[0], geometry[1]);
+                commandField.clear();
+                return;
+            }
+            changes = CommandParser.parse(command, switchConfiguration.getNumInputPorts());
+        }
+        catch (Exception exception)
+        {
+            notificationPanel.report("Invalid Command", exception.getMessage());
+            return;
+        }
+        if (submitChanges("Invalid Command", changes))
+        {
+            commandField.clear();
+        }
+    }
+
+
+    /**
+     * Ask the Switch Service to resize the Switch, in the background. Resizes run one at a time, in the order given,
+     * on the same thread as the GUI's other background calls. The grids follow when the new Switch Configuration
+     * arrives, like any other change.
+     * 
+     * @param numInputPorts - New number of Ingress Ports.
+     * @param numOutputPorts - New number of Egress Ports.
+     */
+    private void resizeSwitch(final int numInputPorts, final int numOutputPorts)
+    {
+        List<String> violations = SwitchValidator.validateGeometry(numInputPorts, numOutputPorts);
+        if (!violations.isEmpty())
+        {
+            notificationPanel.report("Invalid Command", SwitchValidator.toMessage(violations));
+            return;
+        }
+        backgroundExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    SwitchConfiguration resized = switchService.resize(numInputPorts, numOutputPorts);
+                    configurationCache.save(resized);
+                    configurationRefresh.post(resized);
+                }
+                catch (Exception exception)
+                {
+                    errorRefresh.post(exception.getMessage());
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Check Port Changes locally, replayed after everything still outstanding in the Command Pipeline, then queue them.
+     * The display catches up when the Switch Service confirms them.
+     * 
+     * @param errorTitle - Notification title should they be rejected.
+     * @param changes - Port Changes, in order.
+     * 
+     * @return True if they were queued.
+     */
+    private boolean submitChanges(String errorTitle, List<PortChange> changes)
+    {
+        List<PortChange> outstanding = commandPipeline.getOutstandingChanges();
+        outstanding.addAll(changes);
+        List<String> violations = switchValidator.validateChanges(outstanding);
+        if (!violations.isEmpty())
+        {
+            notificationPanel.report(errorTitle, SwitchValidator.toMessage(violations));
+            return false;
+        }
+        commandPipeline.submit(changes);
+        currentIngressButton = null;
+        currentEgressButton = null;
+        colorCodeAllButtons();
+        return true;
+    }
+
+
+    /**
+     * Show the Switch as it was in the past: the grid follows the History slider (from the start of the history to
+     * now) and stops following the live Switch, and changes are disabled until returning to it. The start of the
+     * history is fetched in the background; the History button stays disabled until it arrives.
+     */
+    private void enterHistory()
+    {
+        historyButton.setDisable(true);
+        backgroundExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long historyStart;
+                try
+                {
+                    historyStart = switchService.getHistoryStart();
+                }
+                catch (Exception exception)
+                {
+                    historyStart = 0;
+                    errorRefresh.post(exception.getMessage());
+                }
+                final long start = historyStart;
+                Platform.runLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        historyButton.setDisable(false);
+                        showHistory(start);
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Enable the History slider once the start of the history is known, or give up if nothing has been recorded.
+     * 
+     * @param historyStart - Time of the first recorded change (0 if none or unknown).
+     */
+    private void showHistory(long historyStart)
+    {
+        long now = System.currentTimeMillis();
+        if (historyStart <= 0 || historyStart >= now)
+        {
+            notificationPanel.report("History", "No history has been recorded yet.");
+            historyButton.setSelected(false);
+            return;
+        }
+
+        currentIngressButton = null;
+        currentEgressButton = null;
+        pairingsRefresh = new RefreshCoalescer<Map<Integer, BitSet>>()
+        {
+            @Override
+            protected Map<Integer, BitSet> merge(Map<Integer, BitSet> waiting, Map<Integer, BitSet> update)
+            {
+                waiting.putAll(update);
+                return waiting;
+            }
+
+
+            @Override
+            protected void refresh(Map<Integer, BitSet> update)
+            {
+                //
+                // Ignore stragglers from an earlier visit.
+                //
+                if (pairingsRefresh == this)
+                {
+                    applyPairings(update);
+                }
+            }
+        };
+        final RefreshCoalescer<Map<Integer, BitSet>> refresh = pairingsRefresh;
+        historyReplay = new HistoryReplay(switchService, switchConfiguration, new HistoryReplay.Listener()
+        {
+            @Override
+            public void pairingsChanged(Map<Integer, BitSet> changedGroups)
+            {
+                refresh.post(changedGroups);
+            }
+
+
+            @Override
+            public void replayFailed(String message)
+            {
+                errorRefresh.post(message);
+            }
+        });
+
+        disconnectAllButton.setDisable(true);
+        commandField.setDisable(true);
+        historySlider.setMin(historyStart);
+        historySlider.setMax(now);
+        historySlider.setValue(now);
+        historySlider.setDisable(false);
+        historyLabel.setText(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(now)));
+        colorCodeAllButtons();
+    }
+
+
+    /**
+     * Return to the live Switch.
+     */
+    private void leaveHistory()
+    {
+        historyReplay.shutdown();
+        historyReplay = null;
+        pairingsRefresh = null;
+
+        historySlider.setDisable(true);
+        historyLabel.setText("Live");
+        disconnectAllButton.setDisable(false);
+        commandField.setDisable(false);
+        establishPortMapping();
+    }
+
+
+    /**
+     * Re-pair just the Ingress Ports whose groups changed (and the Egress Ports they gained or lost), leaving the rest
+     * of the grid alone.
+     * 
+     * @param changedGroups - New group of each changed Ingress Port (empty if unmapped).
+     */
+    private void applyPairings(Map<Integer, BitSet> changedGroups)
+    {
+        List<SwitchButton> touchedIngress = new ArrayList<SwitchButton>();
+        List<SwitchButton> touchedEgress = new ArrayList<SwitchButton>();
+
+        //
+        // Detach every changed group first, then attach the new ones, so an Egress Port that moved between two of
+        // them ends up with the right Ingress Port whatever the order.
+        //
+        for (Integer input : changedGroups.keySet())
+        {
+            if (input < 1 || input > ingressButtons.length)
+            {
+                continue;
+            }
+            SwitchButton ingressButton = ingressButtons[input - 1];
+            for (SwitchButton egressButton : ingressButton.getPairedPorts())
+            {
+                egressButton.clearPairedPorts();
+                touchedEgress.add(egressButton);
+            }
+            ingressButton.clearPairedPorts();
+            touchedIngress.add(ingressButton);
+        }
+        for (Map.Entry<Integer, BitSet> entry : changedGroups.entrySet())
+        {
+            int input = entry.getKey();
+            if (input < 1 || input > ingressButtons.length)
+            {
+                continue;
+            }
+            BitSet outputs = entry.getValue();
+            for (int output = outputs.nextSetBit(1); output > 0; output = outputs.nextSetBit(output + 1))
+            {
+                //
+                // Failsafe.
+                //
+                if (output > egressButtons.length || egressButtons[output - 1].getPairedPort() != null)
+                {
+                    continue;
+                }
+                ingressButtons[input - 1].addPairedPort(egressButtons[output - 1]);
+                egressButtons[output - 1].addPairedPort(ingressButtons[input - 1]);
+                touchedEgress.add(egressButtons[output - 1]);
+            }
+        }
+
+        for (SwitchButton switchButton : touchedIngress)
+        {
+            colorCodeButton(switchButton, currentIngressButton);
+        }
+        for (SwitchButton switchButton : touchedEgress)
+        {
+            colorCodeButton(switchButton, currentEgressButton);
+        }
+        search();
+    }
+
+
+    /**
+     * Start or stop simulated traffic, and the polling of its counters. The Switch Service is called in the
+     * background; the button stays disabled until it answers.
+     */
+    private void toggleTraffic()
+    {
+        trafficButton.setDisable(true);
+        if (trafficTimeline == null)
+        {
+            backgroundExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        switchService.startTraffic(TRAFFIC_FRAMES_PER_SECOND);
+                    }
+                    catch (Exception exception)
+                    {
+                        trafficFailed(exception);
+                        return;
+                    }
+                    Platform.runLater(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            previousTrafficStatistics = null;
+                            trafficTimeline = new Timeline(new KeyFrame(Duration.seconds(1),
+                                    new EventHandler<ActionEvent>()
+                                    {
+                                        @Override
+                                        public void handle(ActionEvent event)
+                                        {
+                                            fetchTraffic();
+                                        }
+                                    }));
+                            trafficTimeline.setCycleCount(Timeline.INDEFINITE);
+                            trafficTimeline.play();
+                            trafficButton.setText("Stop Traffic");
+                            trafficButton.setDisable(false);
+                        }
+                    });
+                }
+            });
+        }
+        else
+        {
+            trafficTimeline.stop();
+            trafficTimeline = null;
+            backgroundExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        switchService.stopTraffic();
+                        trafficRefresh.post(switchService.getTrafficStatistics());
+                    }
+                    catch (Exception exception)
+                    {
+                        trafficFailed(exception);
+                        return;
+                    }
+                    Platform.runLater(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            trafficButton.setText("Start Traffic");
+                            trafficButton.setDisable(false);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Report a failure to start or stop traffic, and give the button back. Called from the background.
+     */
+    private void trafficFailed(Exception exception)
+    {
+        System.err.println("Exception: " + exception.getMessage());
+        exception.printStackTrace(System.err);
+        errorRefresh.post(exception.getMessage());
+        Platform.runLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                trafficButton.setText(trafficTimeline == null ? "Start Traffic" : "Stop Traffic");
+                trafficButton.setDisable(false);
+            }
+        });
+    }
+
+
+    /**
+     * Fetch the traffic counters in the background, unless the previous poll is still under way.
+     */
+    private void fetchTraffic()
+    {
+        if (!trafficFetching.compareAndSet(false, true))
+        {
+            return;
+        }
+        backgroundExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
             {
-                //
-                // Perform the Disconnect.
-                //
                 try
                 {
-                    switchConfiguration = switchService.disconnectAll();
+                    trafficRefresh.post(switchService.getTrafficStatistics());
                 }
                 catch (Exception exception)
                 {
-                    popupErrorMessage("Server Error", exception.getMessage());
-                    System.err.println("Exception: " + exception.getMessage());
-                    exception.printStackTrace(System.err);
-                    return;
+                    System.err.println("Unable to fetch traffic statistics: " + exception.getMessage());
+                }
+                finally
+                {
+                    trafficFetching.set(false);
                 }
-
-                currentIngressButton = null;
-                currentEgressButton = null;
-                establishPortMapping();
             }
         });
-        buttonPanel.getChildren().addAll(connectButton, disconnectButton, disconnectAllButton);
-        rootNode.getChildren().add(buttonPanel);
+    }
 
-        //
-        // Establish the initial Switch Port Mapping.
-        //
-        establishPortMapping();
 
+    /**
+     * Show traffic counters on the Switch buttons as a throughput heat-map.
+     * 
+     * @param statistics - Traffic counters.
+     */
+    private void showTraffic(TrafficStatistics statistics)
+    {
         //
-        // Create the Scene.
+        // Rates are relative to the previous poll.
         //
-        Scene mainScene = new Scene(rootNode);
+        TrafficStatistics previous = previousTrafficStatistics;
+        double seconds = previous == null ? 0 : (statistics.getTimestamp() - previous.getTimestamp()) / 1000.0;
+        double[] ingressRates = rates(statistics.getIngressPackets(),
+                previous == null ? null : previous.getIngressPackets(), seconds);
+        double[] egressRates = rates(statistics.getEgressPackets(),
+                previous == null ? null : previous.getEgressPackets(), seconds);
+        previousTrafficStatistics = statistics;
 
         //
-        // Set the Scene's Cascading Style Sheet (CSS).
+        // Heat levels are relative to the busiest Port.
         //
-        mainScene.getStylesheets().add(getClass().getResource("SwitchSimulator.css").toExternalForm());
+        double maxRate = 0;
+        for (double rate : ingressRates)
+        {
+            maxRate = Math.max(maxRate, rate);
+        }
+        for (double rate : egressRates)
+        {
+            maxRate = Math.max(maxRate, rate);
+        }
 
-        //
-        // Set the Scene onto the Stage.
-        //
-        primaryStage.setScene(mainScene);
+        for (int port = 1; port < ingressRates.length && port <= ingressButtons.length; port++)
+        {
+            ingressButtons[port - 1].setTraffic(
+                    statistics.getIngressPackets()[port],
+                    statistics.getIngressBytes()[port],
+                    statistics.getIngressDrops()[port],
+                    ingressRates[port],
+                    trafficLevel(ingressRates[port], maxRate));
+        }
+        for (int port = 1; port < egressRates.length && port <= egressButtons.length; port++)
+        {
+            egressButtons[port - 1].setTraffic(
+                    statistics.getEgressPackets()[port],
+                    statistics.getEgressBytes()[port],
+                    statistics.getEgressDrops()[port],
+                    egressRates[port],
+                    trafficLevel(egressRates[port], maxRate));
+        }
+    }
 
-        //
-        // Auto-size the Stage to fit.
-        //
-        primaryStage.sizeToScene();
-        primaryStage.setResizable(false);
+
+    /**
+     * Per-Port rate between two cumulative counter snapshots.
+     */
+    private static double[] rates(long[] current, long[] previous, double seconds)
+    {
+        double[] rates = new double[current.length];
+        if (previous == null || previous.length != current.length || seconds <= 0)
+        {
+            return rates;
+        }
+        for (int port = 0; port < current.length; port++)
+        {
+            rates[port] = (current[port] - previous[port]) / seconds;
+        }
+        return rates;
+    }
+
+
+    /**
+     * Map a rate onto a heat level: 0 when idle, otherwise 1 to NUM_TRAFFIC_LEVELS - 1 in proportion to the maximum.
+     */
+    private static int trafficLevel(double rate, double maxRate)
+    {
+        if (rate <= 0 || maxRate <= 0)
+        {
+            return 0;
+        }
+        int levels = SwitchButton.NUM_TRAFFIC_LEVELS - 1;
+        return Math.min(levels, 1 + (int) ((levels - 1) * rate / maxRate));
     }
 
 
     /**
-     * Displays a popup error message.
+     * Displays a popup error message, and waits for it to be dismissed. Only for fatal start-up failures; everything
+     * else goes to the Notification Panel, which never blocks.
      * 
      * @param title - Window title.
      * @param contextText - Message body.
@@ -606,7 +1599,7 @@ public class SwitchSimulator extends Application
     /**
      * Join the Ingress/Egress buttons based on the Current Switch Configuration.
      */
-    private void establishPortMapping()
+    void establishPortMapping()
     {
         //
         // Failsafe.
@@ -632,16 +1625,42 @@ public class SwitchSimulator extends Application
             return;
         }
 
+        //
+        // Follow a change in the Switch's geometry (e.g. a line card added or removed), if it is a valid one.
+        //
+        if ((switchConfiguration.getNumInputPorts() != ingressButtons.length
+                || switchConfiguration.getNumOutputPorts() != egressButtons.length)
+                && SwitchValidator.validateGeometry(switchConfiguration.getNumInputPorts(),
+                        switchConfiguration.getNumOutputPorts()).isEmpty())
+        {
+            System.out.println("Switch resized from " + ingressButtons.length + "x" + egressButtons.length + " to "
+                    + switchConfiguration.getNumInputPorts() + "x" + switchConfiguration.getNumOutputPorts());
+            resizeGrids(switchConfiguration.getNumInputPorts(), switchConfiguration.getNumOutputPorts());
+            if (ingressGrid.getScene() != null && ingressGrid.getScene().getWindow() != null)
+            {
+                ingressGrid.getScene().getWindow().sizeToScene();
+            }
+        }
+
+        //
+        // Report everything wrong with the mapping at once; the offending entries are skipped below.
+        //
+        for (String violation : SwitchValidator.validateConfiguration(switchConfiguration))
+        {
+            System.err.println(violation);
+        }
+        switchValidator = SwitchValidator.forConfiguration(switchConfiguration);
+
         //
         // First, clear the existing mapping.
         //
         for (SwitchButton switchButton : ingressButtons)
         {
-            switchButton.setPairedPort(null);
+            switchButton.clearPairedPorts();
         }
         for (SwitchButton switchButton : egressButtons)
         {
-            switchButton.setPairedPort(null);
+            switchButton.clearPairedPorts();
         }
 
         //
@@ -649,41 +1668,304 @@ public class SwitchSimulator extends Application
         //
         for (Integer input : switchConfiguration.getPortMap().keySet())
         {
-            int output = switchConfiguration.getPortMap().get(input);
+            BitSet outputs = switchConfiguration.getPortMap().get(input);
 
             //
-            // Failsafe.
+            // Failsafe (already reported above).
             //
-            if (input < 1 || input > switchConfiguration.getNumInputPorts())
+            if (input < 1 || input > ingressButtons.length || outputs == null)
             {
-                System.err.println("Invalid Input mapping: " + input);
                 continue;
             }
-            if (output < 1 || output > switchConfiguration.getNumOutputPorts())
+
+            for (int output = outputs.nextSetBit(1); output > 0; output = outputs.nextSetBit(output + 1))
             {
-                System.err.println("Invalid Output mapping: " + output);
-                continue;
+                //
+                // Failsafe (already reported above).
+                //
+                if (output > egressButtons.length || egressButtons[output - 1].getPairedPort() != null)
+                {
+                    continue;
+                }
+
+                //
+                // Bind the Ingress and Egress Ports.
+                //
+                ingressButtons[input - 1].addPairedPort(egressButtons[output - 1]);
+                egressButtons[output - 1].addPairedPort(ingressButtons[input - 1]);
             }
+        }
+
+        //
+        // Color-code each of the buttons.
+        //
+        colorCodeAllButtons();
+
+        //
+        // Fetch any metadata not yet loaded (all of it, if it changed), in the background.
+        //
+        if (metadataLoader != null)
+        {
+            metadataLoader.load(switchConfiguration.getNumInputPorts(), switchConfiguration.getNumOutputPorts(),
+                    switchConfiguration.getEpoch(), switchConfiguration.getMetadataVersion());
+        }
 
+        //
+        // The connections have changed, so may the search results.
+        //
+        search();
+    }
+
+
+    /**
+     * Show pages of Port metadata on the buttons, and index the Ports' names for the Search bar.
+     * 
+     * @param pages - Pages, in the order they arrived.
+     */
+    private void applyMetadata(List<PortMetadata> pages)
+    {
+        for (PortMetadata page : pages)
+        {
             //
-            // Bind the Ingress and Egress Ports.
+            // Names from an earlier version may since have changed, so the index starts again.
             //
-            ingressButtons[input - 1].setPairedPort(egressButtons[output - 1]);
-            egressButtons[output - 1].setPairedPort(ingressButtons[input - 1]);
+            if (page.getEpoch() != shownMetadataEpoch || page.getVersion() != shownMetadataVersion)
+            {
+                portNames.clear();
+                shownMetadataEpoch = page.getEpoch();
+                shownMetadataVersion = page.getVersion();
+            }
+
+            SwitchButton[] buttons = page.isIngress() ? ingressButtons : egressButtons;
+            int lastPort = Math.min(page.getFirstPort() + page.getNumPorts() - 1, buttons.length);
+            for (int port = page.getFirstPort(); port <= lastPort; port++)
+            {
+                buttons[port - 1].setMetadata(page);
+                if (page.getName(port) != null)
+                {
+                    portNames.put(page.isIngress(), port, page.getName(port));
+                }
+            }
         }
+        search();
+    }
 
+
+    /**
+     * Run the Search bar's query, restyle the buttons whose match state changed, and draw the connections of the
+     * matching Ports. An incomplete Port range leaves the previous results up while it is being typed.
+     */
+    private void search()
+    {
         //
-        // Color-code each of the buttons.
+        // Failsafe.
         //
-        colorCodeAllButtons();
+        if (searchField == null)
+        {
+            return;
+        }
+
+        BitSet connectedIngress = new BitSet(ingressButtons.length + 1);
+        for (SwitchButton switchButton : ingressButtons)
+        {
+            if (switchButton.getPairedPort() != null)
+            {
+                connectedIngress.set(switchButton.getPortNumber());
+            }
+        }
+        BitSet connectedEgress = new BitSet(egressButtons.length + 1);
+        for (SwitchButton switchButton : egressButtons)
+        {
+            if (switchButton.getPairedPort() != null)
+            {
+                connectedEgress.set(switchButton.getPortNumber());
+            }
+        }
+        try
+        {
+            searchMatches = PortSearch.search(searchField.getText(), ingressButtons.length, egressButtons.length,
+                    connectedIngress, connectedEgress, portNames);
+            searchField.getStyleClass().remove("searchFieldInvalid");
+        }
+        catch (Exception exception)
+        {
+            if (!searchField.getStyleClass().contains("searchFieldInvalid"))
+            {
+                searchField.getStyleClass().add("searchFieldInvalid");
+            }
+            return;
+        }
+
+        styleMatches(ingressButtons, shownMatches == null ? null : shownMatches.getIngress(),
+                searchMatches == null ? null : searchMatches.getIngress());
+        styleMatches(egressButtons, shownMatches == null ? null : shownMatches.getEgress(),
+                searchMatches == null ? null : searchMatches.getEgress());
+        shownMatches = searchMatches;
+        drawConnections();
+    }
+
+
+    /**
+     * Mark matching buttons and dim the rest, touching only the buttons whose state differs from what is shown.
+     * 
+     * @param buttons - Ingress or Egress buttons.
+     * @param shown - Port Numbers currently marked as matching (null if no search is shown).
+     * @param matches - Port Numbers now matching (null if no search).
+     */
+    private static void styleMatches(SwitchButton[] buttons, BitSet shown, BitSet matches)
+    {
+        if (shown == null && matches == null)
+        {
+            return;
+        }
+        if (shown == null || matches == null)
+        {
+            for (SwitchButton switchButton : buttons)
+            {
+                styleMatch(switchButton, matches != null, matches != null && matches.get(switchButton.getPortNumber()));
+            }
+            return;
+        }
+        BitSet changed = (BitSet) shown.clone();
+        changed.xor(matches);
+        for (int port = changed.nextSetBit(1); port > 0 && port <= buttons.length; port = changed.nextSetBit(port + 1))
+        {
+            styleMatch(buttons[port - 1], true, matches.get(port));
+        }
+    }
+
+
+    private static void styleMatch(SwitchButton switchButton, boolean searching, boolean matched)
+    {
+        setStyleClass(switchButton, "switchButtonMatched", searching && matched);
+        setStyleClass(switchButton, "switchButtonFilteredOut", searching && !matched);
+    }
+
+
+    private static void setStyleClass(SwitchButton switchButton, String styleClass, boolean present)
+    {
+        if (present && !switchButton.getStyleClass().contains(styleClass))
+        {
+            switchButton.getStyleClass().add(styleClass);
+        }
+        else if (!present)
+        {
+            switchButton.getStyleClass().remove(styleClass);
+        }
+    }
+
+
+    /**
+     * Take the search styling off every button, e.g. before the grids are resized (new buttons start unstyled, so
+     * the next search must restyle them all).
+     */
+    private void clearSearchStyles()
+    {
+        for (SwitchButton switchButton : ingressButtons)
+        {
+            styleMatch(switchButton, false, false);
+        }
+        for (SwitchButton switchButton : egressButtons)
+        {
+            styleMatch(switchButton, false, false);
+        }
+        shownMatches = null;
+    }
+
+
+    /**
+     * Draw a line from each matching Ingress Port to every Egress Port it feeds, and to each matching Egress Port from
+     * the Ingress Port feeding it. Only the matching connections are drawn, so the cost follows the result, not the
+     * size of the Switch.
+     */
+    private void drawConnections()
+    {
+        GraphicsContext graphics = connectionOverlay.getGraphicsContext2D();
+        graphics.clearRect(0, 0, connectionOverlay.getWidth(), connectionOverlay.getHeight());
+        if (searchMatches == null)
+        {
+            return;
+        }
+
+        graphics.setStroke(Color.rgb(31, 78, 156, 0.7));
+        graphics.setLineWidth(2);
+        BitSet ingressMatches = searchMatches.getIngress();
+        for (int inputPort = ingressMatches.nextSetBit(1); inputPort > 0 && inputPort <= ingressButtons.length;
+                inputPort = ingressMatches.nextSetBit(inputPort + 1))
+        {
+            for (SwitchButton egressButton : ingressButtons[inputPort - 1].getPairedPorts())
+            {
+                drawConnection(graphics, ingressButtons[inputPort - 1], egressButton);
+            }
+        }
+        BitSet egressMatches = searchMatches.getEgress();
+        for (int outputPort = egressMatches.nextSetBit(1); outputPort > 0 && outputPort <= egressButtons.length;
+                outputPort = egressMatches.nextSetBit(outputPort + 1))
+        {
+            SwitchButton ingressButton = egressButtons[outputPort - 1].getPairedPort();
+            if (ingressButton != null && !ingressMatches.get(ingressButton.getPortNumber()))
+            {
+                drawConnection(graphics, ingressButton, egressButtons[outputPort - 1]);
+            }
+        }
+    }
+
+
+    /**
+     * Draw one connection, from the bottom of the Ingress button to the top of the Egress button.
+     */
+    private void drawConnection(GraphicsContext graphics, SwitchButton ingressButton, SwitchButton egressButton)
+    {
+        Bounds from = connectionOverlay.sceneToLocal(ingressButton.localToScene(ingressButton.getBoundsInLocal()));
+        Bounds to = connectionOverlay.sceneToLocal(egressButton.localToScene(egressButton.getBoundsInLocal()));
+        graphics.strokeLine(from.getMinX() + from.getWidth() / 2, from.getMaxY(),
+                to.getMinX() + to.getWidth() / 2, to.getMinY());
+    }
+
+
+    /**
+     * Highlight (or un-highlight) a whole multicast group: the Ingress button and every Egress button it feeds. The
+     * currently-selected buttons keep their highlight.
+     * 
+     * @param switchButton - Any Ingress/Egress button in the group.
+     * @param highlight - True to highlight, false to un-highlight.
+     */
+    private void highlightGroup(SwitchButton switchButton, boolean highlight)
+    {
+        boolean ingress = switchButton.getPortNumber() <= ingressButtons.length
+                && ingressButtons[switchButton.getPortNumber() - 1] == switchButton;
+        SwitchButton ingressButton = ingress ? switchButton : switchButton.getPairedPort();
+        if (ingressButton == null || ingressButton.getPairedPort() == null)
+        {
+            return;
+        }
+
+        highlightButton(ingressButton, highlight || ingressButton == currentIngressButton);
+        for (SwitchButton egressButton : ingressButton.getPairedPorts())
+        {
+            highlightButton(egressButton, highlight || egressButton == currentEgressButton);
+        }
+    }
+
+
+    private static void highlightButton(SwitchButton switchButton, boolean highlight)
+    {
+        if (highlight && !switchButton.getStyleClass().contains("switchButtonHighlighted"))
+        {
+            switchButton.getStyleClass().add("switchButtonHighlighted");
+        }
+        else if (!highlight)
+        {
+            switchButton.getStyleClass().remove("switchButtonHighlighted");
+        }
     }
 
 
     /**
      * Color-code all the Switch buttons based on whether they are selected/highlighted/etc and Enable/Disable the
-     * Control Buttons (Connect/Disconnect/DisconnectAll).
+     * Control Buttons (Connect/Disconnect/DisconnectAll). Changes are disabled while history is on display.
      */
-    private void colorCodeAllButtons()
+    void colorCodeAllButtons()
     {
         //
         // Color-Code the Ingress and Egress buttons.
@@ -700,11 +1982,11 @@ public class SwitchSimulator extends Application
         //
         // Enable/Disable the Connect/Disconnect buttons.
         //
-        if (currentIngressButton != null && currentEgressButton != null)
+        if (historyReplay == null && currentIngressButton != null && currentEgressButton != null)
         {
             boolean connecting = false;
             boolean disconnecting = false;
-            if (currentIngressButton.getPairedPort() == currentEgressButton)
+            if (currentIngressButton.isPairedWith(currentEgressButton))
             {
                 disconnecting = true;
             }
@@ -723,6 +2005,44 @@ public class SwitchSimulator extends Application
     }
 
 
+    /**
+     * @return Ingress/Egress buttons and Control Buttons, for driving the GUI headless (see SwitchSimulatorBenchmark).
+     */
+    SwitchButton[] getIngressButtons()
+    {
+        return ingressButtons;
+    }
+
+
+    SwitchButton[] getEgressButtons()
+    {
+        return egressButtons;
+    }
+
+
+    Button getConnectButton()
+    {
+        return connectButton;
+    }
+
+
+    Button getDisconnectAllButton()
+    {
+        return disconnectAllButton;
+    }
+
+
+    /**
+     * Deselect the Ingress/Egress buttons.
+     */
+    void clearSelection()
+    {
+        currentIngressButton = null;
+        currentEgressButton = null;
+        colorCodeAllButtons();
+    }
+
+
     /**
      * Color-code a single Switch button based on whether it is selected/highlighted/etc.
      * 
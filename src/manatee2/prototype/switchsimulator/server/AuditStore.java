@@ -0,0 +1,1043 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+
+
+/**
+ * Append-only audit trail of every Port Change, kept on disk.
+ * 
+ * Events are written to segment files of SEGMENT_EVENTS events each, as compact length-prefixed binary records; a
+ * record torn by a crash is dropped when the store is next opened. In memory the store keeps only indexes: each
+ * event's timestamp and file offset, and, for every Port, the (ascending) sequence numbers of the events that involve
+ * it. Timestamps never decrease along the trail, so a time range is a binary search, and a Port (or a pair of Ports)
+ * within a time range is a binary search into its posting list (or a merge of two). A query reads only the events it
+ * returns.
+ * 
+ * Once a segment is full, its share of those indexes is saved next to it (a segment never changes after that). Opening
+ * the store loads the saved indexes, so it only has to read the records of the last, partly filled segment however
+ * many million events the trail holds; a segment whose saved index is missing or does not match it is read in full
+ * instead, and its index saved again.
+ * 
+ * The store also keeps snapshots of the whole Port Map: one whenever the Switch starts (or its state is otherwise
+ * declared, see checkpoint), and one every SNAPSHOT_INTERVAL events after that. The Port Map at any past instant is
+ * the latest snapshot taken by then, with the events since replayed on top, so reconstructing it reads at most
+ * SNAPSHOT_INTERVAL events however long the trail is.
+ */
+class AuditStore
+{
+    /**
+     * Events per segment file.
+     */
+    static final int SEGMENT_EVENTS = 65536;
+
+    /**
+     * Most events between snapshots of the Port Map.
+     */
+    static final int SNAPSHOT_INTERVAL = 4096;
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String SNAPSHOT_FILE = "snapshots.dat";
+
+    /**
+     * Ascending sequence numbers of the events involving one Port.
+     */
+    private static class Postings
+    {
+        int[] sequences = new int[4];
+        int size;
+
+
+        void add(int sequence)
+        {
+            //
+            // An event may name the same Port twice (e.g. as target and as group member).
+            //
+            if (size > 0 && sequences[size - 1] == sequence)
+            {
+                return;
+            }
+            if (size == sequences.length)
+            {
+                sequences = Arrays.copyOf(sequences, size * 2);
+            }
+            sequences[size++] = sequence;
+        }
+
+
+        /**
+         * @return Index of the last sequence number at or before the given one, or -1.
+         */
+        int lastAtOrBefore(int sequence)
+        {
+            int index = Arrays.binarySearch(sequences, 0, size, sequence);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    private final File directory;
+
+    /**
+     * Largest Port Number indexed. A rejected change may name any Port Number at all; it is kept in the trail, but
+     * only Ports the Switch could have are given a posting list (so a bogus one cannot blow up the index).
+     */
+    private final int maxPorts;
+
+    /**
+     * Serializes access to the trail. Thousands of requests may finish at once and queue up to append, so they queue
+     * on a lock, which virtual threads park on, rather than a monitor, which would hold on to their carriers.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Per-event index, by sequence number. Guarded by lock, as is everything below.
+     */
+    private long[] timestamps = new long[1024];
+    private long[] offsets = new long[1024];
+    private int numEvents;
+
+    /**
+     * Per-Port posting lists, by Port Number (null if the Port has no events).
+     */
+    private Postings[] ingressPostings = new Postings[0];
+    private Postings[] egressPostings = new Postings[0];
+
+    /**
+     * Current segment being appended to.
+     */
+    private DataOutputStream writer;
+    private int writerSegment = -1;
+    private long writerOffset;
+
+    /**
+     * Index entries of the current segment so far, in the form they are saved in once it is full (see
+     * saveSegmentIndex).
+     */
+    private final ByteArrayOutputStream segmentIndex = new ByteArrayOutputStream(65536);
+    private final DataOutputStream segmentIndexWriter = new DataOutputStream(segmentIndex);
+
+    private final Map<Integer, RandomAccessFile> readers = new HashMap<Integer, RandomAccessFile>();
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+
+    /**
+     * Per-snapshot index: the sequence number of the first event after it, when it was taken, and its file offset.
+     * Both the sequence numbers and the timestamps ascend.
+     */
+    private int[] snapshotSequences = new int[16];
+    private long[] snapshotTimestamps = new long[16];
+    private long[] snapshotOffsets = new long[16];
+    private int numSnapshots;
+
+    private DataOutputStream snapshotWriter;
+    private long snapshotWriterOffset;
+    private RandomAccessFile snapshotReader;
+
+    /**
+     * Switch state as of the end of the trail, kept up to date from the events appended; unknown (null) until the
+     * first checkpoint of this run.
+     */
+    private Map<Integer, BitSet> portMap;
+    private int numInputPorts;
+    private int numOutputPorts;
+
+
+    /**
+     * Open (or create) the audit trail in a directory, re-indexing whatever is already there.
+     * 
+     * @param directory - Where the segment files live.
+     * @param maxPorts - Largest Port Number to index.
+     */
+    AuditStore(File directory, int maxPorts) throws IOException
+    {
+        this.directory = directory;
+        this.maxPorts = maxPorts;
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create " + directory);
+        }
+        recover();
+    }
+
+
+    /**
+     * Open the audit trail in a directory or, failing that, in a temporary one (so the Switch still runs, although
+     * its trail will not outlive it).
+     * 
+     * @param directory - Preferred directory.
+     * @param maxPorts - Largest Port Number to index.
+     * 
+     * @return Audit Store.
+     */
+    static AuditStore open(File directory, int maxPorts)
+    {
+        try
+        {
+            return new AuditStore(directory, maxPorts);
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Unable to open the audit trail in " + directory + ": " + exception.getMessage());
+        }
+        try
+        {
+            File temporary = Files.createTempDirectory("switchsimulator-audit").toFile();
+            System.err.println("Keeping the audit trail in " + temporary + " instead");
+            return new AuditStore(temporary, maxPorts);
+        }
+        catch (IOException exception)
+        {
+            throw new IllegalStateException("Unable to open an audit trail", exception);
+        }
+    }
+
+
+    /**
+     * @return Number of events in the trail.
+     */
+    int getNumEvents()
+    {
+        lock.lock();
+        try
+        {
+            return numEvents;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Append events, in order. Each is given the next sequence number, and a timestamp of now (or of the previous
+     * event, if the clock has gone backwards). They are flushed to disk before returning.
+     * 
+     * @param events - Events to append.
+     */
+    void append(List<AuditEvent> events) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (events.isEmpty())
+            {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (AuditEvent event : events)
+            {
+                event.setSequence(numEvents);
+                event.setTimestamp(numEvents == 0 ? now : Math.max(now, timestamps[numEvents - 1]));
+
+                int segment = numEvents / SEGMENT_EVENTS;
+                if (segment != writerSegment)
+                {
+                    openWriter(segment);
+                }
+
+                recordBuffer.reset();
+                encode(event, new DataOutputStream(recordBuffer));
+                long offset = writerOffset;
+                writer.writeInt(recordBuffer.size());
+                recordBuffer.writeTo(writer);
+                writerOffset += 4 + recordBuffer.size();
+
+                //
+                // Only index the event once its record is written, so the offsets always match the bytes.
+                //
+                index(event, offset, 4 + recordBuffer.size());
+
+                //
+                // Keep the Port Map up to date: a successful event leaves its Ingress Port feeding its "after" group.
+                //
+                if (portMap != null && event.isSucceeded())
+                {
+                    if (event.getAfter().isEmpty())
+                    {
+                        portMap.remove(event.getChange().getInputPort());
+                    }
+                    else
+                    {
+                        portMap.put(event.getChange().getInputPort(), (BitSet) event.getAfter().clone());
+                    }
+                }
+            }
+            writer.flush();
+
+            int lastSnapshot = numSnapshots == 0 ? 0 : snapshotSequences[numSnapshots - 1];
+            if (portMap != null && numEvents - lastSnapshot >= SNAPSHOT_INTERVAL)
+            {
+                writeSnapshot(timestamps[numEvents - 1]);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Declare the Switch's whole state as of now, e.g. when it starts up (it does not remember its Port Map across
+     * restarts, although the trail does). A snapshot of it is written, and from then on the store tracks the state
+     * itself from the events appended.
+     * 
+     * @param numInputPorts - Number of Ingress Ports.
+     * @param numOutputPorts - Number of Egress Ports.
+     * @param portMap - Group of Egress Ports each mapped Ingress Port feeds.
+     */
+    void checkpoint(int numInputPorts, int numOutputPorts, Map<Integer, BitSet> portMap)
+            throws IOException
+    {
+        lock.lock();
+        try
+        {
+            this.numInputPorts = numInputPorts;
+            this.numOutputPorts = numOutputPorts;
+            this.portMap = new HashMap<Integer, BitSet>();
+            for (Map.Entry<Integer, BitSet> entry : portMap.entrySet())
+            {
+                this.portMap.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            }
+
+            long now = System.currentTimeMillis();
+            if (numEvents > 0)
+            {
+                now = Math.max(now, timestamps[numEvents - 1]);
+            }
+            if (numSnapshots > 0)
+            {
+                now = Math.max(now, snapshotTimestamps[numSnapshots - 1]);
+            }
+            writeSnapshot(now);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return Time of the earliest state that can be reconstructed (milliseconds since the epoch), or zero if none.
+     */
+    long getHistoryStart()
+    {
+        lock.lock();
+        try
+        {
+            return numSnapshots == 0 ? 0 : snapshotTimestamps[0];
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Reconstruct the Switch Configuration as it was at a past instant: the latest snapshot taken by then, with the
+     * successful events since replayed on top.
+     * 
+     * @param time - Instant (milliseconds since the epoch).
+     * 
+     * @return Switch Configuration (version zero, as it is not a live one), or null if the trail does not go back that
+     *         far.
+     */
+    SwitchConfiguration configurationAt(long time) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            //
+            // Latest snapshot taken at or before the time.
+            //
+            int low = 0;
+            int high = numSnapshots;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (snapshotTimestamps[middle] <= time)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            int snapshot = low - 1;
+            if (snapshot < 0)
+            {
+                return null;
+            }
+
+            if (snapshotReader == null)
+            {
+                snapshotReader = new RandomAccessFile(new File(directory, SNAPSHOT_FILE), "r");
+            }
+            snapshotReader.seek(snapshotOffsets[snapshot]);
+            byte[] record = new byte[snapshotReader.readInt()];
+            snapshotReader.readFully(record);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+            input.readInt();
+            input.readLong();
+            int numInputs = input.readInt();
+            int numOutputs = input.readInt();
+            Map<Integer, BitSet> groups = new HashMap<Integer, BitSet>();
+            for (int numGroups = input.readInt(); numGroups > 0; numGroups--)
+            {
+                int inputPort = input.readInt();
+                groups.put(inputPort, readBitSet(input));
+            }
+
+            //
+            // Replay the events since, up to the time. Events after a later snapshot (e.g. from after a restart) are
+            // always later than the time, as that snapshot was not chosen.
+            //
+            int last = firstAtOrAfter(time + 1) - 1;
+            for (AuditEvent event : readRange(snapshotSequences[snapshot], last))
+            {
+                if (!event.isSucceeded())
+                {
+                    continue;
+                }
+                if (event.getAfter().isEmpty())
+                {
+                    groups.remove(event.getChange().getInputPort());
+                }
+                else
+                {
+                    groups.put(event.getChange().getInputPort(), event.getAfter());
+                }
+            }
+            return new SwitchConfiguration(numInputs, numOutputs, groups, 0);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Find events, newest first.
+     * 
+     * @param inputPort - Only events involving this Ingress Port (zero for any).
+     * @param outputPort - Only events involving this Egress Port (zero for any).
+     * @param startTime - Only events at or after this time (milliseconds since the epoch; zero for no limit).
+     * @param endTime - Only events at or before this time (milliseconds since the epoch; zero for no limit).
+     * @param maxEvents - Most events to return.
+     * 
+     * @return Matching events, newest first.
+     */
+    List<AuditEvent> query(int inputPort, int outputPort, long startTime, long endTime, int maxEvents)
+            throws IOException
+    {
+        lock.lock();
+        try
+        {
+            List<AuditEvent> events = new ArrayList<AuditEvent>();
+            int first = firstAtOrAfter(startTime);
+            int last = endTime <= 0 ? numEvents - 1 : firstAtOrAfter(endTime + 1) - 1;
+
+            Postings ingress = inputPort > 0 ? postings(ingressPostings, inputPort) : null;
+            Postings egress = outputPort > 0 ? postings(egressPostings, outputPort) : null;
+            if ((inputPort > 0 && ingress == null) || (outputPort > 0 && egress == null))
+            {
+                return events;
+            }
+
+            if (ingress == null && egress == null)
+            {
+                for (int sequence = last; sequence >= first && events.size() < maxEvents; sequence--)
+                {
+                    events.add(read(sequence));
+                }
+            }
+            else if (ingress == null || egress == null)
+            {
+                Postings postings = ingress != null ? ingress : egress;
+                for (int index = postings.lastAtOrBefore(last);
+                        index >= 0 && postings.sequences[index] >= first && events.size() < maxEvents;
+                        index--)
+                {
+                    events.add(read(postings.sequences[index]));
+                }
+            }
+            else
+            {
+                //
+                // Both Ports: walk the two posting lists backwards together, keeping the sequence numbers in both.
+                //
+                int ingressIndex = ingress.lastAtOrBefore(last);
+                int egressIndex = egress.lastAtOrBefore(last);
+                while (ingressIndex >= 0 && egressIndex >= 0 && events.size() < maxEvents)
+                {
+                    int ingressSequence = ingress.sequences[ingressIndex];
+                    int egressSequence = egress.sequences[egressIndex];
+                    if (ingressSequence < first || egressSequence < first)
+                    {
+                        break;
+                    }
+                    if (ingressSequence == egressSequence)
+                    {
+                        events.add(read(ingressSequence));
+                        ingressIndex--;
+                        egressIndex--;
+                    }
+                    else if (ingressSequence > egressSequence)
+                    {
+                        ingressIndex--;
+                    }
+                    else
+                    {
+                        egressIndex--;
+                    }
+                }
+            }
+            return events;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Re-index the segments already on disk, truncating a record torn by a crash.
+     */
+    private void recover() throws IOException
+    {
+        for (int segment = 0;; segment++)
+        {
+            File file = segmentFile(segment);
+            if (!file.isFile())
+            {
+                break;
+            }
+            if (loadSegmentIndex(segment))
+            {
+                continue;
+            }
+
+            long validLength = 0;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+            {
+                while (true)
+                {
+                    int length;
+                    byte[] record;
+                    try
+                    {
+                        length = input.readInt();
+                        if (length < 0 || length > file.length() - validLength - 4)
+                        {
+                            break;
+                        }
+                        record = new byte[length];
+                        input.readFully(record);
+                    }
+                    catch (EOFException exception)
+                    {
+                        break;
+                    }
+                    AuditEvent event = decode(numEvents, record);
+                    index(event, validLength, 4 + length);
+                    validLength += 4 + length;
+                }
+            }
+
+            if (validLength < file.length())
+            {
+                System.err.println("Dropping a torn record at the end of " + file);
+                try (RandomAccessFile truncate = new RandomAccessFile(file, "rw"))
+                {
+                    truncate.setLength(validLength);
+                }
+            }
+            if (numEvents < (segment + 1) * SEGMENT_EVENTS)
+            {
+                //
+                // A short segment must be the last one.
+                //
+                if (segmentFile(segment + 1).exists())
+                {
+                    System.err.println("Audit trail segment " + file + " is incomplete; ignoring later segments");
+                }
+                break;
+            }
+        }
+        recoverSnapshots();
+        System.out.println("Audit trail: " + numEvents + " event(s), " + numSnapshots + " snapshot(s) in "
+                + directory);
+    }
+
+
+    /**
+     * Re-index the snapshots already on disk, dropping a torn one and any taken after the last event recovered.
+     */
+    private void recoverSnapshots() throws IOException
+    {
+        File file = new File(directory, SNAPSHOT_FILE);
+        long validLength = 0;
+        if (file.isFile())
+        {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+            {
+                while (true)
+                {
+                    int length;
+                    byte[] record;
+                    try
+                    {
+                        length = input.readInt();
+                        if (length < 12 || length > file.length() - validLength - 4)
+                        {
+                            break;
+                        }
+                        record = new byte[length];
+                        input.readFully(record);
+                    }
+                    catch (EOFException exception)
+                    {
+                        break;
+                    }
+                    DataInputStream header = new DataInputStream(new ByteArrayInputStream(record));
+                    int sequence = header.readInt();
+                    long timestamp = header.readLong();
+                    if (sequence > numEvents)
+                    {
+                        break;
+                    }
+                    indexSnapshot(sequence, timestamp, validLength);
+                    validLength += 4 + length;
+                }
+            }
+            if (validLength < file.length())
+            {
+                System.err.println("Dropping snapshots past the end of the audit trail in " + file);
+                try (RandomAccessFile truncate = new RandomAccessFile(file, "rw"))
+                {
+                    truncate.setLength(validLength);
+                }
+            }
+        }
+        snapshotWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+        snapshotWriterOffset = validLength;
+    }
+
+
+    /**
+     * Write a snapshot of the tracked Port Map, taken just after the last event.
+     */
+    private void writeSnapshot(long timestamp) throws IOException
+    {
+        recordBuffer.reset();
+        DataOutputStream output = new DataOutputStream(recordBuffer);
+        output.writeInt(numEvents);
+        output.writeLong(timestamp);
+        output.writeInt(numInputPorts);
+        output.writeInt(numOutputPorts);
+        output.writeInt(portMap.size());
+        for (Map.Entry<Integer, BitSet> entry : portMap.entrySet())
+        {
+            output.writeInt(entry.getKey());
+            writeBitSet(output, entry.getValue());
+        }
+        snapshotWriter.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(snapshotWriter);
+        snapshotWriter.flush();
+
+        indexSnapshot(numEvents, timestamp, snapshotWriterOffset);
+        snapshotWriterOffset += 4 + recordBuffer.size();
+    }
+
+
+    private void indexSnapshot(int sequence, long timestamp, long offset)
+    {
+        if (numSnapshots == snapshotSequences.length)
+        {
+            snapshotSequences = Arrays.copyOf(snapshotSequences, numSnapshots * 2);
+            snapshotTimestamps = Arrays.copyOf(snapshotTimestamps, numSnapshots * 2);
+            snapshotOffsets = Arrays.copyOf(snapshotOffsets, numSnapshots * 2);
+        }
+        snapshotSequences[numSnapshots] = sequence;
+        snapshotTimestamps[numSnapshots] = timestamp;
+        snapshotOffsets[numSnapshots] = offset;
+        numSnapshots++;
+    }
+
+
+    private void openWriter(int segment) throws IOException
+    {
+        if (writer != null)
+        {
+            writer.close();
+        }
+        File file = segmentFile(segment);
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+        writerSegment = segment;
+        writerOffset = file.length();
+    }
+
+
+    private File segmentFile(int segment)
+    {
+        return new File(directory, SEGMENT_PREFIX + String.format("%06d", segment) + SEGMENT_SUFFIX);
+    }
+
+
+    private File indexFile(int segment)
+    {
+        return new File(directory, SEGMENT_PREFIX + String.format("%06d", segment) + INDEX_SUFFIX);
+    }
+
+
+    /**
+     * Add an event to the in-memory indexes, and to the current segment's saved index.
+     * 
+     * @param event - Event.
+     * @param offset - Offset of its record in the segment file.
+     * @param length - Length of its record.
+     */
+    private void index(AuditEvent event, long offset, int length)
+    {
+        //
+        // The Ports involved: the target Ports, and every Egress Port that joined or left the group.
+        //
+        PortChange change = event.getChange();
+        BitSet changed = (BitSet) event.getBefore().clone();
+        changed.xor(event.getAfter());
+        if (change.getOutputPort() > 0 && change.getOutputPort() <= maxPorts)
+        {
+            changed.set(change.getOutputPort());
+        }
+        int[] outputPorts = changed.stream().toArray();
+        indexEntry(event.getTimestamp(), offset, change.getInputPort(), outputPorts);
+
+        try
+        {
+            segmentIndexWriter.writeLong(event.getTimestamp());
+            segmentIndexWriter.writeLong(offset);
+            segmentIndexWriter.writeInt(change.getInputPort());
+            segmentIndexWriter.writeInt(outputPorts.length);
+            for (int outputPort : outputPorts)
+            {
+                segmentIndexWriter.writeInt(outputPort);
+            }
+        }
+        catch (IOException exception)
+        {
+            //
+            // Failsafe (it writes to memory).
+            //
+            throw new IllegalStateException(exception);
+        }
+        if (numEvents % SEGMENT_EVENTS == 0)
+        {
+            saveSegmentIndex(numEvents / SEGMENT_EVENTS - 1, offset + length);
+        }
+    }
+
+
+    /**
+     * Add one event's entry to the in-memory indexes.
+     */
+    private void indexEntry(long timestamp, long offset, int inputPort, int[] outputPorts)
+    {
+        if (numEvents == timestamps.length)
+        {
+            timestamps = Arrays.copyOf(timestamps, numEvents * 2);
+            offsets = Arrays.copyOf(offsets, numEvents * 2);
+        }
+        timestamps[numEvents] = timestamp;
+        offsets[numEvents] = offset;
+        ingressPostings = addPosting(ingressPostings, inputPort, numEvents);
+        for (int outputPort : outputPorts)
+        {
+            egressPostings = addPosting(egressPostings, outputPort, numEvents);
+        }
+        numEvents++;
+    }
+
+
+    /**
+     * Save the index entries of a segment that has just filled up. Failing to is reported, but only costs reading the
+     * segment in full when the store is next opened.
+     * 
+     * @param segment - Segment number.
+     * @param segmentLength - Length of the segment file.
+     */
+    private void saveSegmentIndex(int segment, long segmentLength)
+    {
+        File file = indexFile(segment);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try
+        {
+            try (DataOutputStream output =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 65536)))
+            {
+                output.writeInt(SEGMENT_EVENTS);
+                output.writeLong(segmentLength);
+                segmentIndex.writeTo(output);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Unable to save the index of " + segmentFile(segment) + ": " + exception.getMessage());
+        }
+        segmentIndex.reset();
+    }
+
+
+    /**
+     * Load the saved index entries of a full segment, if it has any that match it.
+     * 
+     * @param segment - Segment number.
+     * 
+     * @return True if they were loaded (otherwise the segment must be read in full).
+     */
+    private boolean loadSegmentIndex(int segment)
+    {
+        File file = indexFile(segment);
+        if (!file.isFile())
+        {
+            return false;
+        }
+
+        //
+        // Read the whole of it before indexing any of it, so that a damaged file leaves nothing half loaded.
+        //
+        long[] segmentTimestamps = new long[SEGMENT_EVENTS];
+        long[] segmentOffsets = new long[SEGMENT_EVENTS];
+        int[] inputPorts = new int[SEGMENT_EVENTS];
+        int[][] outputPorts = new int[SEGMENT_EVENTS][];
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536)))
+        {
+            if (input.readInt() != SEGMENT_EVENTS || input.readLong() != segmentFile(segment).length())
+            {
+                System.err.println("Index " + file + " does not match its segment; re-indexing");
+                return false;
+            }
+            for (int index = 0; index < SEGMENT_EVENTS; index++)
+            {
+                segmentTimestamps[index] = input.readLong();
+                segmentOffsets[index] = input.readLong();
+                inputPorts[index] = input.readInt();
+                int numOutputPorts = input.readInt();
+                if (numOutputPorts < 0 || numOutputPorts > maxPorts)
+                {
+                    throw new IOException("Invalid number of Ports " + numOutputPorts);
+                }
+                outputPorts[index] = new int[numOutputPorts];
+                for (int port = 0; port < numOutputPorts; port++)
+                {
+                    outputPorts[index][port] = input.readInt();
+                }
+            }
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Unable to load index " + file + " (" + exception.getMessage() + "); re-indexing");
+            return false;
+        }
+
+        for (int index = 0; index < SEGMENT_EVENTS; index++)
+        {
+            indexEntry(segmentTimestamps[index], segmentOffsets[index], inputPorts[index], outputPorts[index]);
+        }
+        return true;
+    }
+
+
+    private Postings[] addPosting(Postings[] postings, int port, int sequence)
+    {
+        if (port < 1 || port > maxPorts)
+        {
+            return postings;
+        }
+        if (port >= postings.length)
+        {
+            postings = Arrays.copyOf(postings, Math.max(port + 1, postings.length * 2));
+        }
+        if (postings[port] == null)
+        {
+            postings[port] = new Postings();
+        }
+        postings[port].add(sequence);
+        return postings;
+    }
+
+
+    private static Postings postings(Postings[] postings, int port)
+    {
+        return port < postings.length ? postings[port] : null;
+    }
+
+
+    /**
+     * @return First sequence number at or after the time (numEvents if none).
+     */
+    private int firstAtOrAfter(long time)
+    {
+        int low = 0;
+        int high = numEvents;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < time)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private AuditEvent read(int sequence) throws IOException
+    {
+        int segment = sequence / SEGMENT_EVENTS;
+        RandomAccessFile reader = readers.get(segment);
+        if (reader == null)
+        {
+            reader = new RandomAccessFile(segmentFile(segment), "r");
+            readers.put(segment, reader);
+        }
+        reader.seek(offsets[sequence]);
+        byte[] record = new byte[reader.readInt()];
+        reader.readFully(record);
+        return decode(sequence, record);
+    }
+
+
+    /**
+     * Read a run of consecutive events, with one read per segment rather than one per event.
+     * 
+     * @return Events first to last (inclusive), in order.
+     */
+    private List<AuditEvent> readRange(int first, int last) throws IOException
+    {
+        List<AuditEvent> events = new ArrayList<AuditEvent>(Math.max(0, last - first + 1));
+        int sequence = first;
+        while (sequence <= last)
+        {
+            int segment = sequence / SEGMENT_EVENTS;
+            int segmentLast = Math.min(last, (segment + 1) * SEGMENT_EVENTS - 1);
+            long end = segmentLast + 1 < numEvents && (segmentLast + 1) / SEGMENT_EVENTS == segment
+                    ? offsets[segmentLast + 1]
+                    : segment == writerSegment ? writerOffset : segmentFile(segment).length();
+
+            RandomAccessFile reader = readers.get(segment);
+            if (reader == null)
+            {
+                reader = new RandomAccessFile(segmentFile(segment), "r");
+                readers.put(segment, reader);
+            }
+            byte[] bytes = new byte[(int) (end - offsets[sequence])];
+            reader.seek(offsets[sequence]);
+            reader.readFully(bytes);
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (; sequence <= segmentLast; sequence++)
+            {
+                byte[] record = new byte[input.readInt()];
+                input.readFully(record);
+                events.add(decode(sequence, record));
+            }
+        }
+        return events;
+    }
+
+
+    private static void encode(AuditEvent event, DataOutputStream output) throws IOException
+    {
+        PortChange change = event.getChange();
+        output.writeLong(event.getTimestamp());
+        output.writeUTF(event.getClientId());
+        output.writeUTF(event.getOperation());
+        output.writeByte(change.getAction().ordinal());
+        output.writeInt(change.getInputPort());
+        output.writeInt(change.getOutputPort());
+        writeBitSet(output, event.getBefore());
+        writeBitSet(output, event.getAfter());
+        output.writeBoolean(event.getFailure() != null);
+        if (event.getFailure() != null)
+        {
+            output.writeUTF(event.getFailure());
+        }
+    }
+
+
+    private static AuditEvent decode(int sequence, byte[] record) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        long timestamp = input.readLong();
+        String clientId = input.readUTF();
+        String operation = input.readUTF();
+        PortChange.Action action = PortChange.Action.values()[input.readByte()];
+        int inputPort = input.readInt();
+        int outputPort = input.readInt();
+        BitSet before = readBitSet(input);
+        BitSet after = readBitSet(input);
+        String failure = input.readBoolean() ? input.readUTF() : null;
+        PortChange change = action == PortChange.Action.CONNECT
+                ? PortChange.connect(inputPort, outputPort)
+                : PortChange.disconnect(inputPort, outputPort);
+        return new AuditEvent(sequence, timestamp, clientId, operation, change, before, after, failure);
+    }
+
+
+    private static void writeBitSet(DataOutputStream output, BitSet bits) throws IOException
+    {
+        long[] words = bits.toLongArray();
+        output.writeShort(words.length);
+        for (long word : words)
+        {
+            output.writeLong(word);
+        }
+    }
+
+
+    private static BitSet readBitSet(DataInputStream input) throws IOException
+    {
+        long[] words = new long[input.readUnsignedShort()];
+        for (int index = 0; index < words.length; index++)
+        {
+            words[index] = input.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+}
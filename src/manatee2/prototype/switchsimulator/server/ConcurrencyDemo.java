@@ -0,0 +1,187 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchValidator;
+
+
+/**
+ * Demonstration of the Switch Service's execution model: thousands of simulated commands in flight at once, each on a
+ * virtual thread of its own, carried by a handful of platform threads.
+ * 
+ * It resizes (and clears) the Switch to one Ingress and one Egress Port per command, then has NUM_CLIENTS clients send
+ * every command at once through the Switch Service API, each from a virtual thread of the client's. Command n taps
+ * Ingress Port n to Egress Port n and releases it again, as one applyChanges batch: it holds its Ports for the whole
+ * simulated hardware delay, so with a platform thread per request the Switch Service would need as many threads as
+ * commands, but it leaves the Port Map (and so the Switch Configuration each reply carries) empty. It reports the
+ * elapsed time (one hardware delay plus the processing, not one per command), the most commands in flight at once,
+ * and the most platform threads the process had meanwhile.
+ * 
+ * The audit trail goes to a temporary directory unless {@code -Dswitchsimulator.auditDirectory} is given.
+ */
+public class ConcurrencyDemo
+{
+    private static final int DEFAULT_NUM_COMMANDS = 10000;
+
+    /**
+     * Clients the commands are shared among.
+     */
+    private static final int NUM_CLIENTS = 100;
+
+
+    /**
+     * Outcome of the run.
+     */
+    private static class Run
+    {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        long elapsedMillis;
+        int peakPlatformThreads;
+    }
+
+
+    /**
+     * Entry point.
+     * 
+     * @param args - Number of commands (a multiple of 8, at most SwitchService.MAX_PORTS), or none for 10,000.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int numCommands = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_COMMANDS;
+        if (!SwitchValidator.validateGeometry(numCommands, numCommands).isEmpty()
+                || numCommands > SwitchService.MAX_PORTS)
+        {
+            System.err.println("Invalid number of commands: " + numCommands);
+            System.exit(1);
+        }
+        if (System.getProperty(SwitchService.AUDIT_DIRECTORY_PROPERTY) == null)
+        {
+            System.setProperty(SwitchService.AUDIT_DIRECTORY_PROPERTY,
+                    Files.createTempDirectory("switchsimulator-demo").toString());
+        }
+
+        //
+        // Start from an empty Port Map, so that no command conflicts with the initial mapping.
+        //
+        System.out.println("Resizing the Switch to " + numCommands + "x" + numCommands);
+        SwitchServiceApi[] clients = connect();
+        clients[0].resize(numCommands, numCommands);
+        clients[0].disconnectAll();
+
+        Run run = run(clients, numCommands);
+
+        System.out.println();
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors() + ", hardware delay: "
+                + SwitchService.HARDWARE_DELAY_MILLIS + " ms");
+        System.out.println(String.format("%d commands from %d clients in %d ms, at most %d in flight, %d failed, at"
+                + " most %d platform thread(s)", numCommands, clients.length, run.elapsedMillis,
+                run.maxInFlight.get(), run.failures.get(), run.peakPlatformThreads));
+        System.exit(run.failures.get() == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * Connect the clients to the Switch Service, all at once (each connection takes a hardware delay).
+     * 
+     * @return Clients.
+     */
+    private static SwitchServiceApi[] connect() throws Exception
+    {
+        final SwitchServiceApi[] clients = new SwitchServiceApi[NUM_CLIENTS];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int client = 0; client < NUM_CLIENTS; client++)
+            {
+                final int index = client;
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            clients[index] = new SwitchService("demo-" + index);
+                        }
+                        catch (Exception exception)
+                        {
+                            System.err.println("Client " + index + " failed to connect: " + exception.getMessage());
+                        }
+                    }
+                });
+            }
+        }
+        for (SwitchServiceApi client : clients)
+        {
+            if (client == null)
+            {
+                throw new Exception("Unable to connect every client");
+            }
+        }
+        return clients;
+    }
+
+
+    /**
+     * Send one command per Port pair, every one at once, and wait for them all.
+     * 
+     * @param clients - Clients to share the commands among.
+     * @param numCommands - Number of commands.
+     * 
+     * @return What happened.
+     */
+    private static Run run(final SwitchServiceApi[] clients, int numCommands)
+    {
+        final Run run = new Run();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+
+        //
+        // Closing the executor waits for every command, so the block is the run's scope.
+        //
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int command = 1; command <= numCommands; command++)
+            {
+                final int port = command;
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        int inFlight = run.inFlight.incrementAndGet();
+                        int max = run.maxInFlight.get();
+                        while (inFlight > max && !run.maxInFlight.compareAndSet(max, inFlight))
+                        {
+                            max = run.maxInFlight.get();
+                        }
+                        try
+                        {
+                            clients[port % clients.length].applyChanges(
+                                    Arrays.asList(PortChange.connect(port, port), PortChange.disconnect(port, port)));
+                        }
+                        catch (Exception exception)
+                        {
+                            System.err.println("Command on Port " + port + " failed: " + exception.getMessage());
+                            run.failures.incrementAndGet();
+                        }
+                        run.inFlight.decrementAndGet();
+                    }
+                });
+            }
+        }
+        run.elapsedMillis = (System.nanoTime() - start) / 1000000;
+        run.peakPlatformThreads = threads.getPeakThreadCount();
+        return run;
+    }
+}
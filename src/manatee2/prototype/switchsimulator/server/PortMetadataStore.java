@@ -0,0 +1,196 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
+
+
+/**
+ * Metadata (name, description, tags, admin state) of every Port of the Switch.
+ * 
+ * Each detail is a column: an int per Port referring to a shared pool of distinct strings, plus a bit per Port for
+ * the admin state. Memory therefore grows by a few ints per Port however many Ports share a description or tags, and
+ * a page is cut from the columns without visiting any Port outside it. Each pooled string counts the column entries
+ * referring to it, and leaves the pool (its slot to be reused) once the last of them is changed or cleared, so the
+ * pool only ever holds strings in use.
+ */
+class PortMetadataStore
+{
+    /**
+     * Columns of one side of the Switch, indexed by Port Number.
+     */
+    private static class Side
+    {
+        final int[] names;
+        final int[] descriptions;
+        final int[] tags;
+        final BitSet adminDown = new BitSet();
+
+        Side(int maxPorts)
+        {
+            names = new int[maxPorts + 1];
+            descriptions = new int[maxPorts + 1];
+            tags = new int[maxPorts + 1];
+        }
+    }
+
+    private final Side ingress;
+    private final Side egress;
+
+    /**
+     * Distinct strings, their indexes, and the number of column entries referring to each. Index 0 stands for "none";
+     * freed indexes (null strings) are reused first. Guarded by this, as are the columns.
+     */
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private int[] references = new int[16];
+    private final ArrayDeque<Integer> freeIndexes = new ArrayDeque<Integer>();
+
+
+    /**
+     * @param maxPorts - Largest Port Number on either side.
+     */
+    PortMetadataStore(int maxPorts)
+    {
+        ingress = new Side(maxPorts);
+        egress = new Side(maxPorts);
+        strings.add(null);
+    }
+
+
+    /**
+     * Set a Port's details.
+     * 
+     * @param isIngress - Whether it is an Ingress (rather than Egress) Port.
+     * @param port - Port Number.
+     * @param name - Name, or null if none.
+     * @param description - Description, or null if none.
+     * @param tagList - Tags (empty if none).
+     * @param adminUp - Whether the Port is administratively up.
+     */
+    synchronized void set(boolean isIngress, int port, String name, String description, List<String> tagList,
+            boolean adminUp)
+    {
+        Side side = isIngress ? ingress : egress;
+
+        //
+        // Intern the new details before releasing the old ones, so a detail that is unchanged keeps its slot.
+        //
+        int newName = intern(name);
+        int newDescription = intern(description);
+        int newTags = intern(PortMetadata.joinTags(tagList));
+        release(side.names[port]);
+        release(side.descriptions[port]);
+        release(side.tags[port]);
+        side.names[port] = newName;
+        side.descriptions[port] = newDescription;
+        side.tags[port] = newTags;
+        side.adminDown.set(port, !adminUp);
+    }
+
+
+    /**
+     * Forget the details of a range of Ports, e.g. ones removed from the Switch.
+     * 
+     * @param isIngress - Whether they are Ingress (rather than Egress) Ports.
+     * @param firstPort - First Port Number.
+     * @param lastPort - Last Port Number (inclusive).
+     */
+    synchronized void clear(boolean isIngress, int firstPort, int lastPort)
+    {
+        Side side = isIngress ? ingress : egress;
+        for (int port = firstPort; port <= lastPort; port++)
+        {
+            release(side.names[port]);
+            release(side.descriptions[port]);
+            release(side.tags[port]);
+            side.names[port] = 0;
+            side.descriptions[port] = 0;
+            side.tags[port] = 0;
+        }
+        if (firstPort <= lastPort)
+        {
+            side.adminDown.clear(firstPort, lastPort + 1);
+        }
+    }
+
+
+    /**
+     * Cut a page of metadata.
+     * 
+     * @param isIngress - Whether to take Ingress (rather than Egress) Ports.
+     * @param firstPort - First Port Number of the page.
+     * @param numPorts - Number of Ports on the page.
+     * @param version - Metadata version to stamp on the page.
+     * 
+     * @return The page.
+     */
+    synchronized PortMetadata page(boolean isIngress, int firstPort, int numPorts, long version)
+    {
+        Side side = isIngress ? ingress : egress;
+        PortMetadata page = new PortMetadata(isIngress, firstPort, numPorts, version);
+        for (int port = firstPort; port < firstPort + numPorts; port++)
+        {
+            if (side.names[port] != 0 || side.descriptions[port] != 0 || side.tags[port] != 0
+                    || side.adminDown.get(port))
+            {
+                String joinedTags = strings.get(side.tags[port]);
+                page.setPort(port, strings.get(side.names[port]), strings.get(side.descriptions[port]),
+                        joinedTags == null ? null : Arrays.asList(joinedTags.split(",")),
+                        !side.adminDown.get(port));
+            }
+        }
+        return page;
+    }
+
+
+    private int intern(String string)
+    {
+        if (string == null)
+        {
+            return 0;
+        }
+        Integer index = stringIndex.get(string);
+        if (index == null)
+        {
+            index = freeIndexes.poll();
+            if (index == null)
+            {
+                index = strings.size();
+                strings.add(string);
+                if (index == references.length)
+                {
+                    references = Arrays.copyOf(references, index * 2);
+                }
+            }
+            else
+            {
+                strings.set(index, string);
+            }
+            stringIndex.put(string, index);
+        }
+        references[index]++;
+        return index;
+    }
+
+
+    /**
+     * Drop a column entry's reference to a pooled string, removing the string once nothing refers to it.
+     */
+    private void release(int index)
+    {
+        if (index == 0 || --references[index] > 0)
+        {
+            return;
+        }
+        stringIndex.remove(strings.get(index));
+        strings.set(index, null);
+        freeIndexes.push(index);
+    }
+}
@@ -0,0 +1,279 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Per-Port ownership for the Switch Service.
+ * 
+ * Each Ingress/Egress Port has its own slot holding an immutable {@link Lease}, which is only ever replaced by a
+ * compare-and-set. There is no service-wide lock: operations on disjoint Ports never touch the same slot, and an
+ * operation that finds one of its Ports held by someone else fails immediately rather than waiting.
+ * 
+ * A Port may be held in two ways, both of which expire on their own so that a vanished client cannot hold a Port
+ * forever:
+ * <ul>
+ * <li>Locked - an operation on the Port is in progress.</li>
+ * <li>Reserved - an operator has claimed the Port; other clients' operations on it are refused.</li>
+ * </ul>
+ */
+class PortReservations
+{
+    /**
+     * Upper bound on how long a single operation may hold its Ports.
+     */
+    static final long OPERATION_LEASE_MILLIS = 30000;
+
+    /**
+     * Upper bound on how long a single reservation lasts before it must be renewed.
+     */
+    static final long MAX_RESERVATION_MILLIS = 8 * 60 * 60 * 1000;
+
+    /**
+     * Who holds a Port, and until when.
+     */
+    private static class Lease
+    {
+        final String owner;
+        final long reservedUntil;
+        final long lockedUntil;
+
+        Lease(String owner, long reservedUntil, long lockedUntil)
+        {
+            this.owner = owner;
+            this.reservedUntil = reservedUntil;
+            this.lockedUntil = lockedUntil;
+        }
+    }
+
+    private final AtomicReferenceArray<Lease> ingressLeases;
+    private final AtomicReferenceArray<Lease> egressLeases;
+
+
+    PortReservations(int numInputPorts, int numOutputPorts)
+    {
+        ingressLeases = new AtomicReferenceArray<Lease>(numInputPorts + 1);
+        egressLeases = new AtomicReferenceArray<Lease>(numOutputPorts + 1);
+    }
+
+
+    /**
+     * Lock Ports for the duration of an operation. Either every Port is locked or none is.
+     * 
+     * @param owner - Client performing the operation.
+     * @param inputPorts - Ingress Port Numbers.
+     * @param outputPorts - Egress Port Numbers.
+     * 
+     * @throws Exception If any Port is reserved by another client or has an operation in progress.
+     */
+    void lock(String owner, int[] inputPorts, int[] outputPorts) throws Exception
+    {
+        acquire(owner, inputPorts, outputPorts, 0);
+    }
+
+
+    /**
+     * Unlock Ports locked by {@link #lock(String, int[], int[])}, leaving any reservation in place.
+     */
+    void unlock(String owner, int[] inputPorts, int[] outputPorts)
+    {
+        for (int port : inputPorts)
+        {
+            unlock(ingressLeases, port, owner);
+        }
+        for (int port : outputPorts)
+        {
+            unlock(egressLeases, port, owner);
+        }
+    }
+
+
+    /**
+     * Reserve (or renew the reservation of) Ports for a client. Either every Port is reserved or none is.
+     * 
+     * @param owner - Client making the reservation.
+     * @param inputPorts - Ingress Port Numbers.
+     * @param outputPorts - Egress Port Numbers.
+     * @param leaseMillis - How long the reservation lasts.
+     * 
+     * @throws Exception If any Port is reserved by another client or has another client's operation in progress.
+     */
+    void reserve(String owner, int[] inputPorts, int[] outputPorts, long leaseMillis) throws Exception
+    {
+        acquire(owner, inputPorts, outputPorts, Math.max(1, Math.min(leaseMillis, MAX_RESERVATION_MILLIS)));
+    }
+
+
+    /**
+     * Release a client's reservation of Ports. Ports reserved by anyone else are left alone.
+     */
+    void release(String owner, int[] inputPorts, int[] outputPorts)
+    {
+        for (int port : inputPorts)
+        {
+            release(ingressLeases, port, owner);
+        }
+        for (int port : outputPorts)
+        {
+            release(egressLeases, port, owner);
+        }
+    }
+
+
+    /**
+     * Determine which client (if any) currently reserves an Ingress Port.
+     * 
+     * @return Owner, or null if unreserved.
+     */
+    String getIngressOwner(int port)
+    {
+        return getOwner(ingressLeases, port);
+    }
+
+
+    /**
+     * Determine which client (if any) currently reserves an Egress Port.
+     * 
+     * @return Owner, or null if unreserved.
+     */
+    String getEgressOwner(int port)
+    {
+        return getOwner(egressLeases, port);
+    }
+
+
+    /**
+     * Lock (reservationMillis == 0) or reserve every Port, rolling back on the first conflict.
+     */
+    private void acquire(String owner, int[] inputPorts, int[] outputPorts, long reservationMillis) throws Exception
+    {
+        Lease[] previousIngress = new Lease[inputPorts.length];
+        Lease[] previousEgress = new Lease[outputPorts.length];
+        int numInputs = 0;
+        int numOutputs = 0;
+        try
+        {
+            for (; numInputs < inputPorts.length; numInputs++)
+            {
+                previousIngress[numInputs] =
+                        acquire(ingressLeases, "Ingress", inputPorts[numInputs], owner, reservationMillis);
+            }
+            for (; numOutputs < outputPorts.length; numOutputs++)
+            {
+                previousEgress[numOutputs] =
+                        acquire(egressLeases, "Egress", outputPorts[numOutputs], owner, reservationMillis);
+            }
+        }
+        catch (Exception exception)
+        {
+            //
+            // Roll back whatever was acquired before the conflict. Nobody else can have changed those Ports since,
+            // because we hold them.
+            //
+            for (int index = 0; index < numInputs; index++)
+            {
+                ingressLeases.set(inputPorts[index], previousIngress[index]);
+            }
+            for (int index = 0; index < numOutputs; index++)
+            {
+                egressLeases.set(outputPorts[index], previousEgress[index]);
+            }
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Lock or reserve a single Port.
+     * 
+     * @return The Lease that was replaced.
+     */
+    private Lease acquire(AtomicReferenceArray<Lease> leases, String direction, int port, String owner,
+            long reservationMillis) throws Exception
+    {
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            Lease current = leases.get(port);
+            boolean reserved = current != null && current.reservedUntil > now;
+            boolean locked = current != null && current.lockedUntil > now;
+
+            //
+            // Fail fast on a conflict.
+            //
+            if (reserved && !current.owner.equals(owner))
+            {
+                throw new Exception(direction + " Port " + port + " is reserved by " + current.owner);
+            }
+            if (locked && (reservationMillis == 0 || !current.owner.equals(owner)))
+            {
+                throw new Exception(direction + " Port " + port + " is busy with an operation by " + current.owner);
+            }
+
+            Lease next;
+            if (reservationMillis == 0)
+            {
+                next = new Lease(owner, reserved ? current.reservedUntil : 0, now + OPERATION_LEASE_MILLIS);
+            }
+            else
+            {
+                next = new Lease(owner, now + reservationMillis, locked ? current.lockedUntil : 0);
+            }
+            if (leases.compareAndSet(port, current, next))
+            {
+                return current;
+            }
+        }
+    }
+
+
+    private void unlock(AtomicReferenceArray<Lease> leases, int port, String owner)
+    {
+        while (true)
+        {
+            Lease current = leases.get(port);
+            if (current == null || current.lockedUntil == 0 || !current.owner.equals(owner))
+            {
+                return;
+            }
+            Lease next = current.reservedUntil > System.currentTimeMillis()
+                    ? new Lease(owner, current.reservedUntil, 0)
+                    : null;
+            if (leases.compareAndSet(port, current, next))
+            {
+                return;
+            }
+        }
+    }
+
+
+    private void release(AtomicReferenceArray<Lease> leases, int port, String owner)
+    {
+        while (true)
+        {
+            Lease current = leases.get(port);
+            if (current == null || current.reservedUntil == 0 || !current.owner.equals(owner))
+            {
+                return;
+            }
+            Lease next = current.lockedUntil > System.currentTimeMillis()
+                    ? new Lease(owner, 0, current.lockedUntil)
+                    : null;
+            if (leases.compareAndSet(port, current, next))
+            {
+                return;
+            }
+        }
+    }
+
+
+    private String getOwner(AtomicReferenceArray<Lease> leases, int port)
+    {
+        Lease current = leases.get(port);
+        if (current == null || current.reservedUntil <= System.currentTimeMillis())
+        {
+            return null;
+        }
+        return current.owner;
+    }
+}
@@ -0,0 +1,88 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Remembers the outcome of recent requests by Request ID, so that a client replaying a request (because it never saw
+ * the reply) gets the original outcome instead of having it applied twice.
+ * 
+ * Only the most recent MAX_REQUESTS are remembered; a replay older than that would be applied again.
+ */
+class RequestLog
+{
+    /**
+     * How many Request IDs to remember.
+     */
+    static final int MAX_REQUESTS = 16384;
+
+    /**
+     * Outcome of one request. Replays arriving while the original is still running wait for it.
+     */
+    static class Outcome
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Exception failure;
+
+
+        /**
+         * Wait for the original request to finish, which may take as long as the hardware delay; a virtual thread
+         * parks on the latch without holding on to its carrier.
+         * 
+         * @throws Exception The original request's failure, if it failed.
+         */
+        void await() throws Exception
+        {
+            done.await();
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+
+
+        void complete(Exception failure)
+        {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Outcomes, oldest first. Guarded by this.
+     */
+    private final Map<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>()
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest)
+        {
+            return size() > MAX_REQUESTS;
+        }
+    };
+
+
+    /**
+     * Start a request, unless it has been seen before.
+     * 
+     * @param requestId - Request ID.
+     * @param outcome - Outcome to record for it.
+     * 
+     * @return The earlier request's Outcome if it is a replay, otherwise null (and the caller must complete the
+     *         Outcome it passed in).
+     */
+    synchronized Outcome begin(String requestId, Outcome outcome)
+    {
+        Outcome original = outcomes.get(requestId);
+        if (original != null)
+        {
+            return original;
+        }
+        outcomes.put(requestId, outcome);
+        return null;
+    }
+}
@@ -0,0 +1,395 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import manatee2.prototype.switchsimulator.shared.PortChange;
+
+
+/**
+ * Schedules Port Changes for a future time using a hashed timer wheel driven by a single thread.
+ * 
+ * Each pending change is a small node linked into the wheel slot for its deadline, so tens of thousands of pending
+ * changes cost only memory. Alongside the wheel, a sorted count of the live (not cancelled) changes due on each tick
+ * tells the thread when to wake: it sleeps until the earliest live change falls due (however far off that is), and
+ * waits indefinitely when nothing is scheduled. Cancelling only updates those counts; the cancelled changes are
+ * dropped when their slot next expires. All changes that fall due on the same tick (or that are overdue when the
+ * thread wakes up) are handed to the Batch Handler as a single batch, in deadline order.
+ * 
+ * If the Batch Handler rejects a change, the rest of its Schedule is cancelled: a time-windowed Connect that could
+ * not be made is not followed by its Disconnect.
+ */
+class SwitchScheduler
+{
+    /**
+     * Resolution of the wheel.
+     */
+    static final long TICK_MILLIS = 100;
+
+    /**
+     * Number of slots in the wheel. Must be a power of 2.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Applies each batch of due Port Changes.
+     */
+    interface BatchHandler
+    {
+        /**
+         * Called before the changes of each batch.
+         * 
+         * @param numChanges - Number of changes in the batch (some of which may yet be skipped).
+         */
+        void beginBatch(int numChanges);
+
+
+        /**
+         * @param owner - Client that scheduled the change.
+         * @param change - Port Change.
+         * 
+         * @return True if the change was applied.
+         */
+        boolean apply(String owner, PortChange change);
+    }
+
+    /**
+     * A single pending change, linked into its wheel slot.
+     */
+    private static class Job
+    {
+        final long scheduleId;
+        final long deadlineTick;
+        final String owner;
+        final PortChange change;
+        Job next;
+
+        /**
+         * Whether it has been taken out of the wheel, due or cancelled.
+         */
+        boolean expired;
+
+        Job(long scheduleId, long deadlineTick, String owner, PortChange change)
+        {
+            this.scheduleId = scheduleId;
+            this.deadlineTick = deadlineTick;
+            this.owner = owner;
+            this.change = change;
+        }
+    }
+
+    /**
+     * The Jobs scheduled under one Schedule ID, and how many of them are still pending.
+     */
+    private static class Schedule
+    {
+        final List<Job> jobs = new ArrayList<Job>(2);
+        int numPending;
+    }
+
+    /**
+     * Orders Jobs by deadline. The sort is stable, so Jobs due on the same tick keep their scheduling order.
+     */
+    private static final Comparator<Job> DEADLINE_ORDER = new Comparator<Job>()
+    {
+        @Override
+        public int compare(Job job1, Job job2)
+        {
+            return Long.compare(job1.deadlineTick, job2.deadlineTick);
+        }
+    };
+
+    private final BatchHandler batchHandler;
+
+    /**
+     * Head and tail of the (FIFO) list of Jobs in each slot.
+     */
+    private final Job[] slotHeads = new Job[WHEEL_SIZE];
+    private final Job[] slotTails = new Job[WHEEL_SIZE];
+
+    /**
+     * Schedules with Jobs pending, by Schedule ID. A Schedule is cancelled by removing its entry; its Jobs are then
+     * discarded lazily when their slot comes around.
+     */
+    private final Map<Long, Schedule> schedules = new HashMap<Long, Schedule>();
+
+    /**
+     * Number of live Jobs (those of Schedules not cancelled) due on each tick, so the first key is when the thread
+     * must next wake up.
+     */
+    private final TreeMap<Long, Integer> liveJobsPerTick = new TreeMap<Long, Integer>();
+
+    private final long startMillis = System.currentTimeMillis();
+    private long nextTick;
+    private long nextScheduleId = 1;
+    private Thread thread;
+
+
+    SwitchScheduler(BatchHandler batchHandler)
+    {
+        this.batchHandler = batchHandler;
+        this.nextTick = currentTick();
+    }
+
+
+    /**
+     * Schedule a set of Port Changes under one Schedule ID.
+     * 
+     * @param owner - Client on whose behalf the changes will be made.
+     * @param changes - Port Changes, each paired with the same-index time in {@code times}.
+     * @param times - Time (milliseconds since the epoch) at which each change is due. Times in the past are due on the
+     *        next tick.
+     * 
+     * @return Schedule ID that may be passed to {@link #cancel(long)}.
+     */
+    synchronized long schedule(String owner, List<PortChange> changes, List<Long> times)
+    {
+        long scheduleId = nextScheduleId++;
+        Schedule schedule = new Schedule();
+        for (int index = 0; index < changes.size(); index++)
+        {
+            long deadlineTick = Math.max(toTick(times.get(index)), nextTick);
+            Job job = new Job(scheduleId, deadlineTick, owner, changes.get(index));
+            int slot = (int) (deadlineTick & (WHEEL_SIZE - 1));
+            if (slotTails[slot] == null)
+            {
+                slotHeads[slot] = job;
+            }
+            else
+            {
+                slotTails[slot].next = job;
+            }
+            slotTails[slot] = job;
+            schedule.jobs.add(job);
+            addLiveJobs(deadlineTick, 1);
+        }
+        schedule.numPending = changes.size();
+        schedules.put(scheduleId, schedule);
+
+        //
+        // Start the thread on first use, otherwise wake it up in case it is idle.
+        //
+        if (thread == null)
+        {
+            thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runWheel();
+                }
+            }, "SwitchScheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return scheduleId;
+    }
+
+
+    /**
+     * Cancel every change that is still pending under the given Schedule ID.
+     * 
+     * @param scheduleId - Schedule ID returned by {@link #schedule(String, List, List)}.
+     * 
+     * @return True if anything was still pending.
+     */
+    synchronized boolean cancel(long scheduleId)
+    {
+        Schedule schedule = schedules.remove(scheduleId);
+        if (schedule == null)
+        {
+            return false;
+        }
+
+        //
+        // Its Jobs stay in the wheel until their slots expire, but no longer count towards when the thread wakes up.
+        //
+        for (Job job : schedule.jobs)
+        {
+            if (!job.expired)
+            {
+                addLiveJobs(job.deadlineTick, -1);
+            }
+        }
+        notifyAll();
+        return true;
+    }
+
+
+    /**
+     * @return Number of Schedules that still have changes pending.
+     */
+    synchronized int getNumPending()
+    {
+        return schedules.size();
+    }
+
+
+    private long currentTick()
+    {
+        return toTick(System.currentTimeMillis());
+    }
+
+
+    private long toTick(long timeMillis)
+    {
+        return (timeMillis - startMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+    }
+
+
+    /**
+     * Count live Jobs in (or, if negative, out of) a tick.
+     */
+    private void addLiveJobs(long tick, int numJobs)
+    {
+        Integer current = liveJobsPerTick.get(tick);
+        int count = (current == null ? 0 : current) + numJobs;
+        if (count == 0)
+        {
+            liveJobsPerTick.remove(tick);
+        }
+        else
+        {
+            liveJobsPerTick.put(tick, count);
+        }
+    }
+
+
+    private void runWheel()
+    {
+        while (true)
+        {
+            List<Job> due = new ArrayList<Job>();
+            synchronized (this)
+            {
+                try
+                {
+                    //
+                    // Sleep until there is something to do.
+                    //
+                    if (liveJobsPerTick.isEmpty())
+                    {
+                        wait();
+                        continue;
+                    }
+                    long now = currentTick();
+                    long dueTick = liveJobsPerTick.firstKey();
+                    if (dueTick > now)
+                    {
+                        wait((dueTick - now) * TICK_MILLIS);
+                        continue;
+                    }
+
+                    //
+                    // Expire every tick up to now. Overdue ticks are merged into the same batch.
+                    //
+                    int numTicks = (int) Math.min(now - nextTick + 1, WHEEL_SIZE);
+                    for (int tick = 0; tick < numTicks; tick++)
+                    {
+                        expireSlot(now, (int) ((nextTick + tick) & (WHEEL_SIZE - 1)), due);
+                    }
+                    nextTick = now + 1;
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+
+            //
+            // Apply the batch outside the lock so that scheduling is never blocked by the Switch.
+            //
+            if (!due.isEmpty())
+            {
+                Collections.sort(due, DEADLINE_ORDER);
+                Set<Long> rejected = new HashSet<Long>();
+                try
+                {
+                    batchHandler.beginBatch(due.size());
+                    for (Job job : due)
+                    {
+                        //
+                        // Once a change is rejected, the rest of its Schedule goes: both what is in this batch and
+                        // what is still in the wheel.
+                        //
+                        if (rejected.contains(job.scheduleId))
+                        {
+                            System.out.println("Skipping " + job.change + ": an earlier change of its schedule failed");
+                            continue;
+                        }
+                        if (!batchHandler.apply(job.owner, job.change))
+                        {
+                            rejected.add(job.scheduleId);
+                            cancel(job.scheduleId);
+                        }
+                    }
+                }
+                catch (RuntimeException exception)
+                {
+                    System.err.println("Scheduled batch failed: " + exception.getMessage());
+                    exception.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Move every Job in the slot that is due at or before the given tick into the list of due Jobs.
+     */
+    private void expireSlot(long now, int slot, List<Job> due)
+    {
+        Job previous = null;
+        Job job = slotHeads[slot];
+        while (job != null)
+        {
+            Job next = job.next;
+            if (job.deadlineTick <= now)
+            {
+                //
+                // Unlink it.
+                //
+                if (previous == null)
+                {
+                    slotHeads[slot] = next;
+                }
+                else
+                {
+                    previous.next = next;
+                }
+                if (slotTails[slot] == job)
+                {
+                    slotTails[slot] = previous;
+                }
+                job.expired = true;
+
+                //
+                // Keep it unless its Schedule was cancelled (which has already stopped counting it).
+                //
+                Schedule schedule = schedules.get(job.scheduleId);
+                if (schedule != null)
+                {
+                    due.add(job);
+                    addLiveJobs(job.deadlineTick, -1);
+                    if (--schedule.numPending == 0)
+                    {
+                        schedules.remove(job.scheduleId);
+                    }
+                }
+            }
+            else
+            {
+                previous = job;
+            }
+            job = next;
+        }
+    }
+}
@@ -1,40 +1,251 @@
 package manatee2.prototype.switchsimulator.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
 import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchValidator;
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
 
 
-public class SwitchService
+/**
+ * Interface to the Switch. Each instance represents one client (operator console); the Switch state itself is shared
+ * by all instances.
+ * 
+ * Every request that may block (a Switch operation, with its simulated hardware delay, or a wait for a change) runs on
+ * a virtual thread of its own, started for it by the Switch Service, while the caller waits for its result; so
+ * thousands of requests can be in flight at once on a handful of platform threads (see {@link ConcurrencyDemo}).
+ * Nothing on a request's path blocks while holding a monitor, so the simulated hardware delay, and every wait,
+ * unmounts the virtual thread rather than pinning its carrier thread.
+ * Requests on disjoint Ports proceed in parallel; only whole-Switch operations (resizing, starting and stopping
+ * traffic, appending to the audit trail) are serialized, by locks of their own.
+ */
+public class SwitchService implements SwitchServiceApi
 {
-    private static final int NUM_INPUT_PORTS = 32;
-    private static final int NUM_OUTPUT_PORTS = 64;
+    private static final int INITIAL_INPUT_PORTS = 32;
+    private static final int INITIAL_OUTPUT_PORTS = 64;
 
-    private static Map<Integer, Integer> portMap = new HashMap<Integer, Integer>();
+    /**
+     * Largest number of Ingress (or Egress) Ports the Switch may be resized to. The Port Map indexes are allocated at
+     * this size up front, so resizing never has to copy (or lock out readers of) them.
+     */
+    static final int MAX_PORTS = 16384;
+
+    /**
+     * Time taken by each command to the Switch hardware (simulated).
+     */
+    static final long HARDWARE_DELAY_MILLIS = 1500;
 
+    /**
+     * System property naming the directory of the audit trail (default {@code ~/.switchsimulator/audit}).
+     */
+    public static final String AUDIT_DIRECTORY_PROPERTY = "switchsimulator.auditDirectory";
 
-    public SwitchService() throws Exception
+    /**
+     * Group of Egress Ports each Ingress Port feeds (null if unmapped), indexed by Ingress Port Number. A group is
+     * never modified once published; changes replace it with a modified copy, so readers need no lock.
+     */
+    private static final AtomicReferenceArray<BitSet> ingressToEgress =
+            new AtomicReferenceArray<BitSet>(MAX_PORTS + 1);
+
+    /**
+     * Ingress Port from-which each Egress Port is fed (zero if unmapped), indexed by Egress Port Number. This reverse
+     * index is what prevents two Ingress Ports from being mapped to the same Egress Port.
+     */
+    private static final AtomicIntegerArray egressToIngress = new AtomicIntegerArray(MAX_PORTS + 1);
+
+    /**
+     * Identifies this run of the service. Every run counts its versions afresh, so a version is only current if it
+     * comes with this epoch: one handed out by an earlier run is never mistaken for a current one, however the
+     * counts line up.
+     */
+    private static final long epoch = UUID.randomUUID().getMostSignificantBits();
+
+    /**
+     * Version of the Port Map, bumped after every change to it.
+     */
+    private static final AtomicLong configurationVersion = new AtomicLong(1);
+
+    /**
+     * Number of Ingress Ports and number of Egress Ports, replaced as a pair (never modified) when the Switch is
+     * resized. Ports beyond them are always unmapped.
+     */
+    private static volatile int[] geometry = { INITIAL_INPUT_PORTS, INITIAL_OUTPUT_PORTS };
+
+    /**
+     * Serializes resizing, and starting or stopping traffic (which must follow the geometry).
+     */
+    private static final ReentrantLock geometryLock = new ReentrantLock();
+
+    /**
+     * Signalled (under its lock) whenever the Port Map or geometry changes, waking clients waiting in
+     * {@link #awaitConfigurationChange(long, long, long)}.
+     */
+    private static final ReentrantLock changeLock = new ReentrantLock();
+    private static final Condition changed = changeLock.newCondition();
+
+    /**
+     * Names, descriptions, tags and admin state of the Ports, and their version (bumped on every change to them).
+     */
+    private static final PortMetadataStore portMetadata = new PortMetadataStore(MAX_PORTS);
+    private static final AtomicLong metadataVersion = new AtomicLong(1);
+
+    /**
+     * Audit trail of every Port Change (and every rejected one).
+     */
+    private static final AuditStore auditStore = AuditStore.open(new File(System.getProperty(
+            AUDIT_DIRECTORY_PROPERTY,
+            new File(new File(System.getProperty("user.home"), ".switchsimulator"), "audit").getPath())), MAX_PORTS);
+
+    /**
+     * Outcomes of recent batches by Request ID, so that a replayed batch is not applied twice.
+     */
+    private static final RequestLog requestLog = new RequestLog();
+
+    /**
+     * Per-Port locks and reservations. Both Port Map indexes may only be written for a Port while holding its lock.
+     */
+    private static final PortReservations reservations = new PortReservations(MAX_PORTS, MAX_PORTS);
+
+    /**
+     * Simulated traffic, forwarded through the live Port Map. Replaced when the Switch is resized. Guarded by
+     * geometryLock, as is the rate it was last started at (zero if stopped).
+     */
+    private static volatile TrafficEngine trafficEngine =
+            new TrafficEngine(INITIAL_INPUT_PORTS, INITIAL_OUTPUT_PORTS, ingressToEgress);
+    private static long trafficFramesPerSecond = 0;
+
+    /**
+     * Validators of batches against the live Port Map indexes, not in use. Validators keep scratch state, so each
+     * check borrows one (see {@link #validate(List)}); pooling them, rather than keeping one per thread, means their
+     * number follows the checks running at once, not the (possibly many thousand virtual) threads that ever ran one.
+     */
+    private static final ConcurrentLinkedQueue<SwitchValidator> validators =
+            new ConcurrentLinkedQueue<SwitchValidator>();
+
+    /**
+     * Runs each request on a virtual thread of its own (see {@link #handle(Callable)}).
+     */
+    private static final ExecutorService requestExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("SwitchService-request-", 1).factory());
+
+    /**
+     * Applies scheduled (timed) Port Changes. Shared by all clients, like the Port Map itself.
+     */
+    private static final SwitchScheduler scheduler = new SwitchScheduler(new SwitchScheduler.BatchHandler()
+    {
+        @Override
+        public void beginBatch(int numChanges)
+        {
+            System.out.println("Applying " + numChanges + " scheduled change(s)");
+            simulateDelay();
+        }
+
+
+        /**
+         * Each scheduled change stands alone, so one conflict does not hold up the rest of the batch.
+         */
+        @Override
+        public boolean apply(String owner, PortChange change)
+        {
+            try
+            {
+                applyLocked(owner, "scheduled", Collections.singletonList(change), false);
+                return true;
+            }
+            catch (Exception exception)
+            {
+                System.err.println("Unable to " + change + ": " + exception.getMessage());
+                return false;
+            }
+        }
+    });
+
+    static
     {
         //
         // Start with a random initial mapping.
         //
-        portMap.put(2, 5);
-        portMap.put(12, 15);
-        portMap.put(22, 25);
-        portMap.put(32, 35);
+        map(2, 5);
+        map(12, 15);
+        map(22, 25);
+        map(32, 35);
+
+        //
+        // Name the Ports in use.
+        //
+        portMetadata.set(true, 2, "NYC uplink 1", "Carrier hand-off, cage 3", Arrays.asList("uplink", "carrier"), true);
+        portMetadata.set(true, 12, "NYC uplink 2", "Carrier hand-off, cage 3", Arrays.asList("uplink", "carrier"),
+                true);
+        portMetadata.set(true, 22, "LON uplink 1", "Transatlantic circuit", Arrays.asList("uplink"), true);
+        portMetadata.set(true, 32, "Test generator", "Lab traffic source", Arrays.asList("test"), true);
+        portMetadata.set(false, 5, "Core A", "Core router A", Arrays.asList("core"), true);
+        portMetadata.set(false, 15, "Core B", "Core router B", Arrays.asList("core"), true);
+        portMetadata.set(false, 25, "Core C", "Core router C", Arrays.asList("core"), true);
+        portMetadata.set(false, 35, "Probe", "Monitoring probe", Arrays.asList("test"), true);
+        portMetadata.set(false, 64, "Spare", "Out of service for maintenance", Arrays.asList("spare"), false);
+
+        //
+        // Mark the start of this run in the audit trail, so that history replay starts from the initial mapping rather
+        // than carrying the previous run's state across the restart.
+        //
+        checkpoint();
+    }
+
+    /**
+     * Identifies this client when locking and reserving Ports.
+     */
+    private final String clientId;
+
+
+    public SwitchService() throws Exception
+    {
+        this("console-" + UUID.randomUUID().toString().substring(0, 8));
+    }
+
+
+    public SwitchService(String clientId) throws Exception
+    {
+        this.clientId = clientId;
 
         //
         // Simulate a delay.
         //
-        try
-        {
-            Thread.sleep(1500);
-        }
-        catch (InterruptedException e)
-        {
-            // Ignore it.
-        }
+        simulateDelay();
+    }
+
+
+    /**
+     * @return Identity under-which this client locks and reserves Ports.
+     */
+    @Override
+    public String getClientId()
+    {
+        return clientId;
     }
 
 
@@ -43,103 +254,438 @@ public class SwitchService
      * 
      * @return Current Switch Configuration.
      */
+    @Override
     public SwitchConfiguration getConfiguration() throws Exception
     {
-        return new SwitchConfiguration(NUM_INPUT_PORTS, NUM_OUTPUT_PORTS, portMap);
+        //
+        // Read the version first: every change it counts is already in the Port Map, so the snapshot is at least as
+        // new as its version says (a newer version later just means one more fetch).
+        //
+        long version = configurationVersion.get();
+        int[] current = geometry;
+        Map<Integer, BitSet> portMap = new HashMap<Integer, BitSet>();
+        for (int inputPort = 1; inputPort <= current[0]; inputPort++)
+        {
+            BitSet outputPorts = ingressToEgress.get(inputPort);
+            if (outputPorts != null && !outputPorts.isEmpty())
+            {
+                portMap.put(inputPort, (BitSet) outputPorts.clone());
+            }
+        }
+        SwitchConfiguration switchConfiguration = new SwitchConfiguration(current[0], current[1], portMap, version);
+        switchConfiguration.setEpoch(epoch);
+        switchConfiguration.setMetadataVersion(metadataVersion.get());
+        return switchConfiguration;
     }
 
 
     /**
-     * Connect an Ingress Port to an Egress Port.
+     * Determine the switch's current configuration, unless the caller already has it.
      * 
-     * @param inputPort - Ingress Port Number.
-     * @param outputPort - Egress Port Number
+     * @param epoch - Epoch of the Switch Configuration the caller has.
+     * @param version - Version of the Switch Configuration the caller has.
      * 
-     * @return Current Switch Configuration.
+     * @return Current Switch Configuration, or null if it is still at that epoch and version ("not modified").
      */
-    public SwitchConfiguration connect(int inputPort, int outputPort) throws Exception
+    @Override
+    public SwitchConfiguration getConfigurationIfChanged(long epoch, long version) throws Exception
     {
-        //
-        // Failsafe.
-        //
-        if (inputPort < 1 || inputPort > NUM_INPUT_PORTS)
+        if (epoch == SwitchService.epoch && configurationVersion.get() == version)
         {
-            System.err.println("Unable to connect: Invalid Input-Port " + inputPort);
-            return getConfiguration();
+            return null;
         }
-        if (outputPort < 1 || outputPort > NUM_OUTPUT_PORTS)
+        return getConfiguration();
+    }
+
+
+    /**
+     * Wait until the switch's configuration changes, so that a client learns of changes made by other clients (or by
+     * the scheduler, or a resize) as soon as they happen, without polling.
+     * 
+     * @param epoch - Epoch of the Switch Configuration the caller has.
+     * @param version - Version of the Switch Configuration the caller has.
+     * @param timeoutMillis - Longest time to wait.
+     * 
+     * @return Current Switch Configuration as soon as it differs from that epoch and version, or null if it did not
+     *         change within the timeout.
+     */
+    @Override
+    public SwitchConfiguration awaitConfigurationChange(final long epoch, final long version,
+            final long timeoutMillis) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
         {
-            System.err.println("Unable to connect: Invalid Output-Port " + outputPort);
-            return getConfiguration();
-        }
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                changeLock.lock();
+                try
+                {
+                    while (epoch == SwitchService.epoch && configurationVersion.get() == version)
+                    {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                        {
+                            return null;
+                        }
+                        changed.await(remaining, TimeUnit.MILLISECONDS);
+                    }
+                }
+                finally
+                {
+                    changeLock.unlock();
+                }
+                return getConfiguration();
+            }
+        });
+    }
+
+
+    /**
+     * Change the number of Ingress and Egress Ports, e.g. when a line card is added or removed, without restarting
+     * the Switch. Mappings within the new geometry are kept; any involving a Port that goes away are disconnected
+     * (and audited as such). Waiting clients are told of the new configuration.
+     * 
+     * @param numInputPorts - New number of Ingress Ports (a multiple of 8).
+     * @param numOutputPorts - New number of Egress Ports (a multiple of 8).
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception If the geometry is invalid, or a Port that would go away is reserved by another client or
+     *         busy; nothing is changed in that case.
+     */
+    @Override
+    public SwitchConfiguration resize(final int numInputPorts, final int numOutputPorts) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                //
+                // Failsafe.
+                //
+                List<String> violations = SwitchValidator.validateGeometry(numInputPorts, numOutputPorts);
+                if (numInputPorts > MAX_PORTS || numOutputPorts > MAX_PORTS)
+                {
+                    violations.add("At most " + MAX_PORTS + " Ingress and Egress Ports are supported.");
+                }
+                if (!violations.isEmpty())
+                {
+                    throw new Exception("Unable to resize: " + SwitchValidator.toMessage(violations));
+                }
+
+                geometryLock.lock();
+                try
+                {
+                    int[] previous = geometry;
+                    System.out.println("Resizing from " + previous[0] + "x" + previous[1] + " to " + numInputPorts + "x"
+                            + numOutputPorts);
+
+                    //
+                    // Claim the Ports that go away, so that nobody else can connect them meanwhile, then disconnect
+                    // them while they are still in range. If another client holds one of them, the resize fails
+                    // untouched.
+                    //
+                    int[] removedInputs = range(numInputPorts + 1, previous[0]);
+                    int[] removedOutputs = range(numOutputPorts + 1, previous[1]);
+                    reservations.reserve(clientId, removedInputs, removedOutputs,
+                            PortReservations.OPERATION_LEASE_MILLIS);
+                    try
+                    {
+                        List<PortChange> changes = new ArrayList<PortChange>();
+                        for (int inputPort = 1; inputPort <= previous[0]; inputPort++)
+                        {
+                            BitSet group = ingressToEgress.get(inputPort);
+                            if (group == null)
+                            {
+                                continue;
+                            }
+                            if (inputPort > numInputPorts)
+                            {
+                                changes.add(PortChange.disconnect(inputPort));
+                                continue;
+                            }
+                            for (int outputPort = group.nextSetBit(numOutputPorts + 1); outputPort >= 0;
+                                    outputPort = group.nextSetBit(outputPort + 1))
+                            {
+                                changes.add(PortChange.disconnect(inputPort, outputPort));
+                            }
+                        }
+                        if (!changes.isEmpty())
+                        {
+                            applyLocked(clientId, "resize", changes, false);
+                        }
+
+                        //
+                        // Connections to the new Ports can be made as soon as the geometry is published, and the
+                        // old engine has no counters for them, so it must be stopped first.
+                        //
+                        trafficEngine.stop();
+                        geometry = new int[] { numInputPorts, numOutputPorts };
+                    }
+                    finally
+                    {
+                        reservations.release(clientId, removedInputs, removedOutputs);
+                    }
+
+                    //
+                    // Ports that went away take their metadata with them.
+                    //
+                    portMetadata.clear(true, numInputPorts + 1, previous[0]);
+                    portMetadata.clear(false, numOutputPorts + 1, previous[1]);
+                    metadataVersion.incrementAndGet();
+
+                    //
+                    // Traffic follows the new geometry, at the same rate if it was running.
+                    //
+                    trafficEngine = new TrafficEngine(numInputPorts, numOutputPorts, ingressToEgress);
+                    if (trafficFramesPerSecond > 0)
+                    {
+                        trafficEngine.start(trafficFramesPerSecond);
+                    }
+
+                    configurationVersion.incrementAndGet();
+                    checkpoint();
+                    announce();
+                }
+                finally
+                {
+                    geometryLock.unlock();
+                }
+                return getConfiguration();
+            }
+        });
+    }
 
-        System.out.println("Connecting: " + inputPort + " to " + outputPort);
 
+    /**
+     * Fetch a page of Port metadata. Clients fetch it separately from the Switch Configuration, and only the pages
+     * they need, so that the configuration itself stays small however many Ports are named.
+     * 
+     * @param ingress - Whether to fetch Ingress (rather than Egress) Ports.
+     * @param firstPort - First Port Number of the page.
+     * @param maxPorts - Most Ports to fetch (at most MAX_PORTS).
+     * 
+     * @return Metadata of the Ports from firstPort on (fewer than maxPorts at the end of the Switch).
+     */
+    @Override
+    public PortMetadata getPortMetadata(boolean ingress, int firstPort, int maxPorts) throws Exception
+    {
         //
-        // Simulate an error.
+        // Failsafe.
         //
-        if (inputPort == 4 && outputPort == 20)
+        int numPorts = ingress ? numInputPorts() : numOutputPorts();
+        if (firstPort < 1 || firstPort > numPorts || maxPorts < 1)
         {
-            throw new Exception("Dave's not here Man.");
+            throw new Exception("Unable to fetch metadata: Invalid page of " + maxPorts + " from Port " + firstPort);
         }
 
+        long version = metadataVersion.get();
+        PortMetadata page = portMetadata.page(ingress, firstPort,
+                Math.min(Math.min(maxPorts, MAX_PORTS), numPorts - firstPort + 1), version);
+        page.setEpoch(epoch);
+        return page;
+    }
+
+
+    /**
+     * Set a Port's metadata. Clients are told through a new Switch Configuration, with a new metadata version.
+     * 
+     * @param ingress - Whether it is an Ingress (rather than Egress) Port.
+     * @param port - Port Number.
+     * @param name - Name, e.g. of the circuit on the Port, or null if none.
+     * @param description - Description, or null if none.
+     * @param tags - Tags (empty if none).
+     * @param adminUp - Whether the Port is administratively up.
+     */
+    @Override
+    public void setPortMetadata(boolean ingress, int port, String name, String description, List<String> tags,
+            boolean adminUp) throws Exception
+    {
         //
-        // Simulate a delay.
+        // Failsafe.
         //
-        try
-        {
-            Thread.sleep(1500);
-        }
-        catch (InterruptedException e)
+        if (port < 1 || port > (ingress ? numInputPorts() : numOutputPorts()))
         {
-            // Ignore it.
+            throw new Exception("Unable to set metadata: Invalid " + (ingress ? "Input" : "Output") + "-Port " + port);
         }
 
-        //
-        // Do the Connect then return the new Switch Configuration.
-        //
-        portMap.put(inputPort, outputPort);
-        return getConfiguration();
+        System.out.println("Setting metadata of " + (ingress ? "Ingress" : "Egress") + " Port " + port + ": " + name);
+        portMetadata.set(ingress, port, name, description, tags, adminUp);
+        metadataVersion.incrementAndGet();
+        configurationVersion.incrementAndGet();
+        announce();
     }
 
 
     /**
-     * Disconnect an Ingress Port from an Egress Port.
+     * Connect an Ingress Port to an Egress Port, adding the Egress Port to the group the Ingress Port already feeds.
      * 
      * @param inputPort - Ingress Port Number.
+     * @param outputPort - Egress Port Number
      * 
      * @return Current Switch Configuration.
+     * 
+     * @throws Exception If the Egress Port is already fed by another Ingress Port, or either Port is reserved by
+     *         another client or busy.
      */
-    public SwitchConfiguration disconnect(int inputPort) throws Exception
+    @Override
+    public SwitchConfiguration connect(final int inputPort, final int outputPort) throws Exception
     {
-        //
-        // Failsafe.
-        //
-        if (inputPort < 1 || inputPort > NUM_INPUT_PORTS)
+        return handle(new Callable<SwitchConfiguration>()
         {
-            System.err.println("Unable to disconnect: Invalid Input-Port " + inputPort);
-            return getConfiguration();
-        }
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                //
+                // Failsafe.
+                //
+                if (inputPort < 1 || inputPort > numInputPorts())
+                {
+                    System.err.println("Unable to connect: Invalid Input-Port " + inputPort);
+                    return getConfiguration();
+                }
+                if (outputPort < 1 || outputPort > numOutputPorts())
+                {
+                    System.err.println("Unable to connect: Invalid Output-Port " + outputPort);
+                    return getConfiguration();
+                }
 
-        System.out.println("Disconnecting: " + inputPort + " from " + portMap.get(inputPort));
+                System.out.println("Connecting: " + inputPort + " to " + outputPort);
 
-        //
-        // Simulate a delay.
-        //
-        try
+                //
+                // Simulate an error.
+                //
+                List<PortChange> changes = Collections.singletonList(PortChange.connect(inputPort, outputPort));
+                if (inputPort == 4 && outputPort == 20)
+                {
+                    recordFailure(clientId, "connect", changes, "Dave's not here Man.");
+                    throw new Exception("Dave's not here Man.");
+                }
+
+                //
+                // Do the Connect then return the new Switch Configuration.
+                //
+                applyLocked(clientId, "connect", changes, true);
+                return getConfiguration();
+            }
+        });
+    }
+
+
+    /**
+     * Disconnect an Ingress Port from every Egress Port it feeds.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception If any of the Ports is reserved by another client or busy.
+     */
+    @Override
+    public SwitchConfiguration disconnect(final int inputPort) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
         {
-            Thread.sleep(1500);
-        }
-        catch (InterruptedException e)
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                //
+                // Failsafe.
+                //
+                if (inputPort < 1 || inputPort > numInputPorts())
+                {
+                    System.err.println("Unable to disconnect: Invalid Input-Port " + inputPort);
+                    return getConfiguration();
+                }
+
+                System.out.println("Disconnecting: " + inputPort + " from " + ingressToEgress.get(inputPort));
+
+                //
+                // Do the Disconnect then return the new Switch Configuration.
+                //
+                applyLocked(clientId, "disconnect", Collections.singletonList(PortChange.disconnect(inputPort)), true);
+                return getConfiguration();
+            }
+        });
+    }
+
+
+    /**
+     * Disconnect an Ingress Port from one of the Egress Ports it feeds, leaving the rest of its group connected.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param outputPort - Egress Port Number.
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception If either Port is reserved by another client or busy.
+     */
+    @Override
+    public SwitchConfiguration disconnect(final int inputPort, final int outputPort) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
         {
-            // Ignore it.
-        }
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                //
+                // Failsafe.
+                //
+                if (inputPort < 1 || inputPort > numInputPorts())
+                {
+                    System.err.println("Unable to disconnect: Invalid Input-Port " + inputPort);
+                    return getConfiguration();
+                }
+                if (outputPort < 1 || outputPort > numOutputPorts())
+                {
+                    System.err.println("Unable to disconnect: Invalid Output-Port " + outputPort);
+                    return getConfiguration();
+                }
 
-        //
-        // Do the Disconnect then return the new Switch Configuration.
-        //
-        portMap.remove(inputPort);
-        return getConfiguration();
+                System.out.println("Disconnecting: " + inputPort + " from " + outputPort);
+
+                //
+                // Do the Disconnect then return the new Switch Configuration.
+                //
+                applyLocked(clientId, "disconnect",
+                        Collections.singletonList(PortChange.disconnect(inputPort, outputPort)), true);
+                return getConfiguration();
+            }
+        });
+    }
+
+
+    /**
+     * Replace the whole group of Egress Ports an Ingress Port feeds, in one operation.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param outputPorts - Egress Port Numbers making up the new group. Empty disconnects the Ingress Port.
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception Listing every violation if any new member is invalid or already fed by another Ingress Port,
+     *         or if any Port is reserved by another client or busy; nothing is changed in that case.
+     */
+    @Override
+    public SwitchConfiguration connectGroup(final int inputPort, final int[] outputPorts) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                List<PortChange> changes = new ArrayList<PortChange>(outputPorts.length + 1);
+                changes.add(PortChange.disconnect(inputPort));
+                for (int outputPort : outputPorts)
+                {
+                    changes.add(PortChange.connect(inputPort, outputPort));
+                }
+                return applyBatch("connectGroup", changes);
+            }
+        });
     }
 
 
@@ -147,27 +693,771 @@ public class SwitchService
      * Disconnect ALL Ingress Ports from Egress Ports.
      * 
      * @return Current Switch Configuration.
+     * 
+     * @throws Exception If any Port is reserved by another client or busy; nothing is disconnected in that case.
      */
+    @Override
     public SwitchConfiguration disconnectAll() throws Exception
     {
-        System.out.println("Disconnecting All");
+        return handle(new Callable<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                System.out.println("Disconnecting All");
+
+                //
+                // Do the Disconnect then return the new Switch Configuration.
+                //
+                List<PortChange> changes = new ArrayList<PortChange>();
+                for (int inputPort = 1; inputPort <= numInputPorts(); inputPort++)
+                {
+                    changes.add(PortChange.disconnect(inputPort));
+                }
+                applyLocked(clientId, "disconnectAll", changes, true);
+                return getConfiguration();
+            }
+        });
+    }
+
+
+    /**
+     * Apply a batch of Port Changes, in order, as a single Switch operation.
+     * 
+     * @param changes - Port Changes to apply.
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception Listing every violation if any change is invalid or conflicts with the mapping, or if any
+     *         Port is reserved by another client or busy; nothing is changed in that case.
+     */
+    @Override
+    public SwitchConfiguration applyChanges(final List<PortChange> changes) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                return applyBatch("applyChanges", changes);
+            }
+        });
+    }
+
+
+    /**
+     * Apply a batch of Port Changes as a single Switch operation.
+     * 
+     * @param operation - Switch Service operation (for the audit trail).
+     * @param changes - Port Changes to apply.
+     * 
+     * @return Current Switch Configuration.
+     */
+    private SwitchConfiguration applyBatch(String operation, List<PortChange> changes) throws Exception
+    {
+        System.out.println("Applying " + changes.size() + " change(s)");
 
         //
-        // Simulate a delay.
+        // Failsafe.
         //
-        try
-        {
-            Thread.sleep(1500);
-        }
-        catch (InterruptedException e)
+        List<String> violations = validate(changes);
+        if (!violations.isEmpty())
         {
-            // Ignore it.
+            recordFailure(clientId, operation, changes, SwitchValidator.toMessage(violations));
+            throw new Exception(SwitchValidator.toMessage(violations));
         }
 
         //
-        // Do the Disconnect then return the new Switch Configuration.
+        // Do the changes then return the new Switch Configuration.
         //
-        portMap.clear();
+        applyLocked(clientId, operation, changes, true);
         return getConfiguration();
     }
+
+
+    /**
+     * Apply a batch of Port Changes at most once. A client that lost the reply to a batch replays it with the same
+     * Request ID; if the original was applied (or rejected) the replay is answered the same way without touching the
+     * Switch, and if it is still running the replay waits for it.
+     * 
+     * @param requestId - Unique ID the client chose for this batch.
+     * @param changes - Port Changes to apply.
+     * 
+     * @return Current Switch Configuration.
+     * 
+     * @throws Exception As for {@link #applyChanges(List)}, or the original failure for a replay.
+     */
+    @Override
+    public SwitchConfiguration applyChanges(final String requestId, final List<PortChange> changes) throws Exception
+    {
+        return handle(new Callable<SwitchConfiguration>()
+        {
+            @Override
+            public SwitchConfiguration call() throws Exception
+            {
+                RequestLog.Outcome outcome = new RequestLog.Outcome();
+                RequestLog.Outcome original = requestLog.begin(requestId, outcome);
+                if (original != null)
+                {
+                    System.out.println("Replay of request " + requestId);
+                    original.await();
+                    return getConfiguration();
+                }
+
+                try
+                {
+                    SwitchConfiguration switchConfiguration = applyBatch("applyChanges", changes);
+                    outcome.complete(null);
+                    return switchConfiguration;
+                }
+                catch (Exception exception)
+                {
+                    outcome.complete(exception);
+                    throw exception;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Check a batch of Port Changes against the current mapping without applying it.
+     * 
+     * @param changes - Candidate Port Changes.
+     * 
+     * @return Every violation (empty if the batch could be applied right now).
+     */
+    @Override
+    public List<String> validateChanges(List<PortChange> changes) throws Exception
+    {
+        return validate(changes);
+    }
+
+
+    /**
+     * Search the audit trail, e.g. for who connected Ingress Port 12 to Egress Port 15, and when.
+     * 
+     * @param inputPort - Only events involving this Ingress Port (zero for any).
+     * @param outputPort - Only events involving this Egress Port (zero for any).
+     * @param startTime - Only events at or after this time (milliseconds since the epoch; zero for no limit).
+     * @param endTime - Only events at or before this time (milliseconds since the epoch; zero for no limit).
+     * @param maxEvents - Most events to return.
+     * 
+     * @return Matching events, newest first.
+     */
+    @Override
+    public List<AuditEvent> queryAudit(int inputPort, int outputPort, long startTime, long endTime, int maxEvents)
+            throws Exception
+    {
+        return auditStore.query(inputPort, outputPort, startTime, endTime, maxEvents);
+    }
+
+
+    /**
+     * Reconstruct the Switch Configuration as it was at a past instant, from the audit trail.
+     * 
+     * @param time - Instant (milliseconds since the epoch).
+     * 
+     * @return Switch Configuration then (with a version of zero, as it is not a live one), or null if the audit trail
+     *         does not go back that far.
+     */
+    @Override
+    public SwitchConfiguration getConfigurationAt(long time) throws Exception
+    {
+        return auditStore.configurationAt(time);
+    }
+
+
+    /**
+     * @return Earliest time getConfigurationAt can reconstruct (milliseconds since the epoch), or zero if none.
+     */
+    @Override
+    public long getHistoryStart() throws Exception
+    {
+        return auditStore.getHistoryStart();
+    }
+
+
+    /**
+     * Reserve Ports for this client, so that other clients cannot change them until the reservation is released or
+     * expires. Re-reserving a Port renews the reservation.
+     * 
+     * @param inputPorts - Ingress Port Numbers.
+     * @param outputPorts - Egress Port Numbers.
+     * @param leaseMillis - How long the reservation lasts.
+     * 
+     * @throws Exception If any Port is reserved by another client or busy; nothing is reserved in that case.
+     */
+    @Override
+    public void reservePorts(int[] inputPorts, int[] outputPorts, long leaseMillis) throws Exception
+    {
+        System.out.println(clientId + " reserving " + inputPorts.length + " Ingress and " + outputPorts.length
+                + " Egress Port(s)");
+        reservations.reserve(clientId,
+                distinct(inputPorts, numInputPorts(), "Input"),
+                distinct(outputPorts, numOutputPorts(), "Output"),
+                leaseMillis);
+    }
+
+
+    /**
+     * Release this client's reservation of Ports.
+     * 
+     * @param inputPorts - Ingress Port Numbers.
+     * @param outputPorts - Egress Port Numbers.
+     */
+    @Override
+    public void releasePorts(int[] inputPorts, int[] outputPorts) throws Exception
+    {
+        System.out.println(clientId + " releasing " + inputPorts.length + " Ingress and " + outputPorts.length
+                + " Egress Port(s)");
+        reservations.release(clientId,
+                distinct(inputPorts, numInputPorts(), "Input"),
+                distinct(outputPorts, numOutputPorts(), "Output"));
+    }
+
+
+    /**
+     * Connect an Ingress Port to an Egress Port for a window of time, e.g. a maintenance window or a temporary test
+     * tap.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param outputPort - Egress Port Number
+     * @param startTime - When to Connect (milliseconds since the epoch). Zero or a past time means "now".
+     * @param endTime - When to Disconnect again (milliseconds since the epoch). Zero means "never". The Disconnect
+     *        only removes this Egress Port from the Ingress Port's group.
+     * 
+     * @return Schedule ID, which may be passed to {@link #cancelSchedule(long)}.
+     */
+    @Override
+    public long scheduleConnect(int inputPort, int outputPort, long startTime, long endTime) throws Exception
+    {
+        //
+        // Failsafe.
+        //
+        if (inputPort < 1 || inputPort > numInputPorts())
+        {
+            throw new Exception("Unable to schedule connect: Invalid Input-Port " + inputPort);
+        }
+        if (outputPort < 1 || outputPort > numOutputPorts())
+        {
+            throw new Exception("Unable to schedule connect: Invalid Output-Port " + outputPort);
+        }
+        if (endTime > 0 && endTime <= startTime)
+        {
+            throw new Exception("Unable to schedule connect: End-Time precedes Start-Time");
+        }
+
+        System.out.println("Scheduling: " + inputPort + " to " + outputPort
+                + " from " + startTime + " until " + endTime);
+
+        List<PortChange> changes = new ArrayList<PortChange>();
+        List<Long> times = new ArrayList<Long>();
+        changes.add(PortChange.connect(inputPort, outputPort));
+        times.add(startTime);
+        if (endTime > 0)
+        {
+            changes.add(PortChange.disconnect(inputPort, outputPort));
+            times.add(endTime);
+        }
+        return scheduler.schedule(clientId, changes, times);
+    }
+
+
+    /**
+     * Disconnect an Ingress Port at a later time.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param startTime - When to Disconnect (milliseconds since the epoch). Zero or a past time means "now".
+     * 
+     * @return Schedule ID, which may be passed to {@link #cancelSchedule(long)}.
+     */
+    @Override
+    public long scheduleDisconnect(int inputPort, long startTime) throws Exception
+    {
+        //
+        // Failsafe.
+        //
+        if (inputPort < 1 || inputPort > numInputPorts())
+        {
+            throw new Exception("Unable to schedule disconnect: Invalid Input-Port " + inputPort);
+        }
+
+        System.out.println("Scheduling: disconnect " + inputPort + " at " + startTime);
+
+        List<PortChange> changes = new ArrayList<PortChange>();
+        List<Long> times = new ArrayList<Long>();
+        changes.add(PortChange.disconnect(inputPort));
+        times.add(startTime);
+        return scheduler.schedule(clientId, changes, times);
+    }
+
+
+    /**
+     * Cancel whatever is still pending for a scheduled Connect/Disconnect.
+     * 
+     * @param scheduleId - Schedule ID returned when it was scheduled.
+     * 
+     * @return True if anything was still pending.
+     */
+    @Override
+    public boolean cancelSchedule(long scheduleId) throws Exception
+    {
+        System.out.println("Cancelling schedule " + scheduleId);
+        return scheduler.cancel(scheduleId);
+    }
+
+
+    /**
+     * @return Number of scheduled Connects/Disconnects that have not yet completed.
+     */
+    @Override
+    public int getNumScheduled() throws Exception
+    {
+        return scheduler.getNumPending();
+    }
+
+
+    /**
+     * Start (or restart) simulated traffic through the Switch. All traffic counters are reset.
+     * 
+     * @param framesPerSecond - Offered load, spread evenly over the Ingress Ports.
+     */
+    @Override
+    public void startTraffic(long framesPerSecond) throws Exception
+    {
+        //
+        // Failsafe.
+        //
+        if (framesPerSecond < 1)
+        {
+            throw new Exception("Unable to start traffic: Invalid rate " + framesPerSecond);
+        }
+
+        System.out.println("Starting traffic: " + framesPerSecond + " frames/second");
+        geometryLock.lock();
+        try
+        {
+            trafficEngine.start(framesPerSecond);
+            trafficFramesPerSecond = framesPerSecond;
+        }
+        finally
+        {
+            geometryLock.unlock();
+        }
+    }
+
+
+    /**
+     * Stop simulated traffic. The counters keep their final values.
+     */
+    @Override
+    public void stopTraffic() throws Exception
+    {
+        System.out.println("Stopping traffic");
+        geometryLock.lock();
+        try
+        {
+            trafficEngine.stop();
+            trafficFramesPerSecond = 0;
+        }
+        finally
+        {
+            geometryLock.unlock();
+        }
+    }
+
+
+    /**
+     * Determine the current per-Port traffic counters.
+     * 
+     * @return Traffic Statistics.
+     */
+    @Override
+    public TrafficStatistics getTrafficStatistics() throws Exception
+    {
+        return trafficEngine.getStatistics();
+    }
+
+
+    /**
+     * Lock every Port touched by a batch of (range-checked) Port Changes, check the batch against the current mapping,
+     * then apply it. Batches on disjoint Ports proceed in parallel; a batch that needs a Port held by someone else
+     * fails immediately. Each Port Change applied (or, if the batch is rejected, attempted) goes in the audit trail.
+     * 
+     * @param owner - Client making the changes.
+     * @param operation - Switch Service operation they are part of (for the audit trail).
+     * @param changes - Port Changes to apply, in order.
+     * @param delay - Whether to simulate the hardware delay while the Ports are held.
+     */
+    private static void applyLocked(String owner, String operation, List<PortChange> changes, boolean delay)
+            throws Exception
+    {
+        try
+        {
+            //
+            // Lock the Ingress Ports first: that pins down the groups they currently feed, which a whole-group
+            // Disconnect also affects.
+            //
+            BitSet inputs = new BitSet(MAX_PORTS + 1);
+            for (PortChange change : changes)
+            {
+                inputs.set(change.getInputPort());
+            }
+            int[] inputPorts = inputs.stream().toArray();
+            reservations.lock(owner, inputPorts, new int[0]);
+            int[] outputPorts = new int[0];
+            try
+            {
+                BitSet outputs = new BitSet(MAX_PORTS + 1);
+                for (PortChange change : changes)
+                {
+                    if (change.getOutputPort() != 0)
+                    {
+                        outputs.set(change.getOutputPort());
+                    }
+                    else if (ingressToEgress.get(change.getInputPort()) != null)
+                    {
+                        outputs.or(ingressToEgress.get(change.getInputPort()));
+                    }
+                }
+                reservations.lock(owner, new int[0], outputs.stream().toArray());
+                outputPorts = outputs.stream().toArray();
+
+                //
+                // Fail before touching the hardware if the batch would feed an Egress Port from two Ingress Ports. The
+                // Ports involved are locked, so the answer cannot change before the batch is applied.
+                //
+                List<String> violations = validate(changes);
+                if (!violations.isEmpty())
+                {
+                    throw new Exception(SwitchValidator.toMessage(violations));
+                }
+
+                //
+                // Simulate a delay.
+                //
+                if (delay)
+                {
+                    simulateDelay();
+                }
+
+                List<AuditEvent> events = new ArrayList<AuditEvent>(changes.size());
+                for (PortChange change : changes)
+                {
+                    BitSet before = getGroup(change.getInputPort());
+                    if (change.getAction() == PortChange.Action.CONNECT)
+                    {
+                        map(change.getInputPort(), change.getOutputPort());
+                    }
+                    else if (change.getOutputPort() == 0)
+                    {
+                        unmap(change.getInputPort());
+                    }
+                    else
+                    {
+                        unmap(change.getInputPort(), change.getOutputPort());
+                    }
+                    BitSet after = getGroup(change.getInputPort());
+                    events.add(new AuditEvent(0, 0, owner, operation, change, before, after, null));
+                }
+                audit(events);
+                announce();
+            }
+            finally
+            {
+                reservations.unlock(owner, inputPorts, outputPorts);
+            }
+        }
+        catch (Exception exception)
+        {
+            recordFailure(owner, operation, changes, exception.getMessage());
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Run a request on a virtual thread of its own, and wait for its result. If the caller is interrupted meanwhile,
+     * the request is interrupted too.
+     * 
+     * @param request - Request.
+     * 
+     * @return Its result.
+     * 
+     * @throws Exception Whatever the request threw.
+     */
+    private static <T> T handle(Callable<T> request) throws Exception
+    {
+        Future<T> future = requestExecutor.submit(request);
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException exception)
+        {
+            future.cancel(true);
+            throw exception;
+        }
+        catch (ExecutionException exception)
+        {
+            if (exception.getCause() instanceof Exception)
+            {
+                throw (Exception) exception.getCause();
+            }
+            throw (Error) exception.getCause();
+        }
+    }
+
+
+    /**
+     * Record a rejected batch in the audit trail: each of its Port Changes, with the group as it stands.
+     */
+    private static void recordFailure(String owner, String operation, List<PortChange> changes, String failure)
+    {
+        List<AuditEvent> events = new ArrayList<AuditEvent>(changes.size());
+        for (PortChange change : changes)
+        {
+            //
+            // Failsafe.
+            //
+            if (change == null || change.getAction() == null)
+            {
+                continue;
+            }
+            BitSet group = getGroup(change.getInputPort());
+            events.add(new AuditEvent(0, 0, owner, operation, change, group, group, String.valueOf(failure)));
+        }
+        audit(events);
+    }
+
+
+    /**
+     * Append to the audit trail. Failing to is reported, but does not undo or fail the operation.
+     */
+    private static void audit(List<AuditEvent> events)
+    {
+        try
+        {
+            auditStore.append(events);
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Unable to write the audit trail: " + exception.getMessage());
+        }
+    }
+
+
+    /**
+     * Snapshot the whole Port Map into the audit trail. Failing to is reported, but does not fail the caller.
+     */
+    private static void checkpoint()
+    {
+        int[] current = geometry;
+        Map<Integer, BitSet> portMap = new HashMap<Integer, BitSet>();
+        for (int inputPort = 1; inputPort <= current[0]; inputPort++)
+        {
+            BitSet outputPorts = ingressToEgress.get(inputPort);
+            if (outputPorts != null)
+            {
+                portMap.put(inputPort, outputPorts);
+            }
+        }
+        try
+        {
+            auditStore.checkpoint(current[0], current[1], portMap);
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Unable to snapshot the audit trail: " + exception.getMessage());
+        }
+    }
+
+
+    /**
+     * @return Egress Ports the Ingress Port feeds right now (empty if none, or if the Port Number is invalid).
+     */
+    private static BitSet getGroup(int inputPort)
+    {
+        BitSet group = inputPort >= 1 && inputPort <= MAX_PORTS ? ingressToEgress.get(inputPort) : null;
+        return group == null ? new BitSet() : group;
+    }
+
+
+    /**
+     * Add an Egress Port to an Ingress Port's group (copy-on-write).
+     */
+    private static void map(int inputPort, int outputPort)
+    {
+        BitSet current = ingressToEgress.get(inputPort);
+        BitSet group = current == null ? new BitSet(MAX_PORTS + 1) : (BitSet) current.clone();
+        group.set(outputPort);
+        egressToIngress.set(outputPort, inputPort);
+        ingressToEgress.set(inputPort, group);
+        configurationVersion.incrementAndGet();
+    }
+
+
+    /**
+     * Remove an Egress Port from an Ingress Port's group (copy-on-write), if it is a member.
+     */
+    private static void unmap(int inputPort, int outputPort)
+    {
+        BitSet current = ingressToEgress.get(inputPort);
+        if (current == null || !current.get(outputPort))
+        {
+            return;
+        }
+        BitSet group = (BitSet) current.clone();
+        group.clear(outputPort);
+        ingressToEgress.set(inputPort, group.isEmpty() ? null : group);
+        egressToIngress.compareAndSet(outputPort, inputPort, 0);
+        configurationVersion.incrementAndGet();
+    }
+
+
+    /**
+     * Remove an Ingress Port's whole group.
+     */
+    private static void unmap(int inputPort)
+    {
+        BitSet group = ingressToEgress.getAndSet(inputPort, null);
+        if (group == null)
+        {
+            return;
+        }
+        for (int outputPort = group.nextSetBit(0); outputPort >= 0; outputPort = group.nextSetBit(outputPort + 1))
+        {
+            egressToIngress.compareAndSet(outputPort, inputPort, 0);
+        }
+        configurationVersion.incrementAndGet();
+    }
+
+
+    /**
+     * @return Current number of Ingress Ports.
+     */
+    private static int numInputPorts()
+    {
+        return geometry[0];
+    }
+
+
+    /**
+     * @return Current number of Egress Ports.
+     */
+    private static int numOutputPorts()
+    {
+        return geometry[1];
+    }
+
+
+    /**
+     * Check a batch of Port Changes against the live Port Map indexes, for the current geometry.
+     * 
+     * @param changes - Port Changes, in order.
+     * 
+     * @return Violations (empty if valid).
+     */
+    private static List<String> validate(List<PortChange> changes)
+    {
+        int[] current = geometry;
+        SwitchValidator switchValidator = validators.poll();
+        if (switchValidator == null || switchValidator.getNumInputPorts() != current[0]
+                || switchValidator.getNumOutputPorts() != current[1])
+        {
+            //
+            // Any pooled for an earlier geometry are dropped as they come up.
+            //
+            switchValidator = new SwitchValidator(current[0], current[1], new SwitchValidator.PortIndex()
+            {
+                @Override
+                public BitSet getEgress(int inputPort)
+                {
+                    return ingressToEgress.get(inputPort);
+                }
+
+
+                @Override
+                public int getIngress(int outputPort)
+                {
+                    return egressToIngress.get(outputPort);
+                }
+            });
+        }
+        try
+        {
+            return switchValidator.validateChanges(changes);
+        }
+        finally
+        {
+            validators.offer(switchValidator);
+        }
+    }
+
+
+    /**
+     * Wake every client waiting for the configuration to change.
+     */
+    private static void announce()
+    {
+        changeLock.lock();
+        try
+        {
+            changed.signalAll();
+        }
+        finally
+        {
+            changeLock.unlock();
+        }
+    }
+
+
+    /**
+     * @return Port Numbers first to last inclusive (empty if last < first).
+     */
+    private static int[] range(int first, int last)
+    {
+        int[] ports = new int[Math.max(0, last - first + 1)];
+        for (int index = 0; index < ports.length; index++)
+        {
+            ports[index] = first + index;
+        }
+        return ports;
+    }
+
+
+    /**
+     * Range-check Port Numbers and drop duplicates.
+     */
+    private static int[] distinct(int[] ports, int numPorts, String direction) throws Exception
+    {
+        BitSet set = new BitSet(numPorts + 1);
+        for (int port : ports)
+        {
+            if (port < 1 || port > numPorts)
+            {
+                throw new Exception("Invalid " + direction + "-Port " + port);
+            }
+            set.set(port);
+        }
+        return set.stream().toArray();
+    }
+
+
+    /**
+     * Simulate the delay of talking to the Switch hardware. On a virtual thread, the sleep parks it and frees its
+     * carrier for other requests meanwhile.
+     */
+    private static void simulateDelay()
+    {
+        try
+        {
+            Thread.sleep(HARDWARE_DELAY_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            // Ignore it.
+        }
+    }
 }
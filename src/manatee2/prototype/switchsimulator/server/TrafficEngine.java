@@ -0,0 +1,333 @@
+package manatee2.prototype.switchsimulator.server;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
+
+
+/**
+ * Simulated traffic through the Switch.
+ * 
+ * A Generator thread pushes synthetic frames into a preallocated ring buffer per Ingress Port; a Forwarder thread
+ * drains every ring through the live Port Mapping to the Egress Ports, replicating each frame to every member of a
+ * multicast group. Each ring has exactly one producer and one
+ * consumer, so the only synchronization is an ordered write of the producer/consumer position after each burst. A
+ * frame is just its size in a slot of the ring, and nothing is allocated per frame.
+ * 
+ * Each counter array has a single writer thread. Snapshots read them without locking, so a snapshot taken mid-burst
+ * may be a burst behind; the counters themselves are never lost.
+ * 
+ * The engine is sized for one geometry. The mapping it reads is shared with the Switch, so an Egress Port beyond that
+ * geometry (mapped once the Switch has grown) is treated as absent rather than trusted.
+ */
+class TrafficEngine
+{
+    /**
+     * Frames each Ingress ring can hold. Must be a power of 2.
+     */
+    static final int RING_CAPACITY = 4096;
+
+    /**
+     * Frames per second each Egress Port can transmit; anything beyond that is dropped.
+     */
+    static final long PORT_LINE_RATE = 1000000;
+
+    /**
+     * Most frames the Generator produces per pass, so that it cannot fall arbitrarily far behind.
+     */
+    private static final long MAX_FRAMES_PER_PASS = 1 << 20;
+
+    /**
+     * Spacing between ring positions of neighbouring Ports, so that they do not share a cache line.
+     */
+    private static final int PAD = 8;
+
+    /**
+     * How long an idle thread parks before looking again.
+     */
+    private static final long IDLE_NANOS = 100000;
+
+    private final int numInputPorts;
+    private final int numOutputPorts;
+
+    /**
+     * The Switch's live Ingress to Egress mapping (immutable groups, replaced on change).
+     */
+    private final AtomicReferenceArray<BitSet> forwardingTable;
+
+    /**
+     * Frame sizes; RING_CAPACITY slots per Ingress Port.
+     */
+    private final int[] rings;
+
+    /**
+     * Ring positions: tails are written by the Generator, heads by the Forwarder.
+     */
+    private final AtomicLongArray tails;
+    private final AtomicLongArray heads;
+
+    /**
+     * Written by the Generator.
+     */
+    private final long[] ingressPackets;
+    private final long[] ingressBytes;
+    private final long[] ingressOverflows;
+
+    /**
+     * Written by the Forwarder.
+     */
+    private final long[] ingressUnrouted;
+    private final long[] egressPackets;
+    private final long[] egressBytes;
+    private final long[] egressDrops;
+    private final long[] egressTokens;
+
+    private volatile boolean running;
+    private long framesPerSecond;
+    private Thread generatorThread;
+    private Thread forwarderThread;
+
+
+    TrafficEngine(int numInputPorts, int numOutputPorts, AtomicReferenceArray<BitSet> forwardingTable)
+    {
+        this.numInputPorts = numInputPorts;
+        this.numOutputPorts = numOutputPorts;
+        this.forwardingTable = forwardingTable;
+        this.rings = new int[(numInputPorts + 1) * RING_CAPACITY];
+        this.tails = new AtomicLongArray((numInputPorts + 1) * PAD);
+        this.heads = new AtomicLongArray((numInputPorts + 1) * PAD);
+        this.ingressPackets = new long[numInputPorts + 1];
+        this.ingressBytes = new long[numInputPorts + 1];
+        this.ingressOverflows = new long[numInputPorts + 1];
+        this.ingressUnrouted = new long[numInputPorts + 1];
+        this.egressPackets = new long[numOutputPorts + 1];
+        this.egressBytes = new long[numOutputPorts + 1];
+        this.egressDrops = new long[numOutputPorts + 1];
+        this.egressTokens = new long[numOutputPorts + 1];
+    }
+
+
+    /**
+     * (Re)start traffic, resetting every counter.
+     * 
+     * @param framesPerSecond - Offered load, spread evenly over the Ingress Ports.
+     */
+    synchronized void start(long framesPerSecond)
+    {
+        stop();
+
+        //
+        // Both threads are stopped, so the rings and counters can be reset safely.
+        //
+        for (int index = 0; index < tails.length(); index++)
+        {
+            tails.set(index, 0);
+            heads.set(index, 0);
+        }
+        Arrays.fill(ingressPackets, 0);
+        Arrays.fill(ingressBytes, 0);
+        Arrays.fill(ingressOverflows, 0);
+        Arrays.fill(ingressUnrouted, 0);
+        Arrays.fill(egressPackets, 0);
+        Arrays.fill(egressBytes, 0);
+        Arrays.fill(egressDrops, 0);
+        Arrays.fill(egressTokens, 0);
+
+        this.framesPerSecond = framesPerSecond;
+        running = true;
+        generatorThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                generate();
+            }
+        }, "TrafficGenerator");
+        forwarderThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                forward();
+            }
+        }, "TrafficForwarder");
+        generatorThread.setDaemon(true);
+        forwarderThread.setDaemon(true);
+        generatorThread.start();
+        forwarderThread.start();
+    }
+
+
+    /**
+     * Stop traffic. The counters keep their final values.
+     */
+    synchronized void stop()
+    {
+        running = false;
+        try
+        {
+            if (generatorThread != null)
+            {
+                generatorThread.join();
+            }
+            if (forwarderThread != null)
+            {
+                forwarderThread.join();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        generatorThread = null;
+        forwarderThread = null;
+    }
+
+
+    /**
+     * @return Snapshot of the counters.
+     */
+    TrafficStatistics getStatistics()
+    {
+        TrafficStatistics statistics =
+                new TrafficStatistics(System.currentTimeMillis(), running, numInputPorts, numOutputPorts);
+        for (int port = 1; port <= numInputPorts; port++)
+        {
+            statistics.getIngressPackets()[port] = ingressPackets[port];
+            statistics.getIngressBytes()[port] = ingressBytes[port];
+            statistics.getIngressDrops()[port] = ingressOverflows[port] + ingressUnrouted[port];
+        }
+        for (int port = 1; port <= numOutputPorts; port++)
+        {
+            statistics.getEgressPackets()[port] = egressPackets[port];
+            statistics.getEgressBytes()[port] = egressBytes[port];
+            statistics.getEgressDrops()[port] = egressDrops[port];
+        }
+        return statistics;
+    }
+
+
+    /**
+     * Generator thread: keep the offered load on schedule, spreading frames round-robin over the Ingress Ports.
+     */
+    private void generate()
+    {
+        long startNanos = System.nanoTime();
+        long generated = 0;
+        int seed = 0x2545F491;
+        int port = 1;
+        while (running)
+        {
+            long due = (long) ((System.nanoTime() - startNanos) / 1e9 * framesPerSecond) - generated;
+            if (due <= 0)
+            {
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            due = Math.min(due, MAX_FRAMES_PER_PASS);
+            generated += due;
+
+            long perPort = Math.max(1, due / numInputPorts);
+            while (due > 0)
+            {
+                int frames = (int) Math.min(Math.min(perPort, due), RING_CAPACITY);
+                due -= frames;
+
+                long tail = tails.get(port * PAD);
+                long head = heads.get(port * PAD);
+                int accepted = (int) Math.min(frames, RING_CAPACITY - (tail - head));
+                int base = port * RING_CAPACITY;
+                long bytes = 0;
+                for (int frame = 0; frame < accepted; frame++)
+                {
+                    //
+                    // Frame sizes from 64 to 1087 bytes (xorshift).
+                    //
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 17;
+                    seed ^= seed << 5;
+                    int size = 64 + (seed & 0x3FF);
+                    rings[base + (int) ((tail + frame) & (RING_CAPACITY - 1))] = size;
+                    bytes += size;
+                }
+                tails.lazySet(port * PAD, tail + accepted);
+                ingressPackets[port] += accepted;
+                ingressBytes[port] += bytes;
+                ingressOverflows[port] += frames - accepted;
+
+                port = port == numInputPorts ? 1 : port + 1;
+            }
+        }
+    }
+
+
+    /**
+     * Forwarder thread: drain each Ingress ring to the Egress Ports it is mapped to, within each Port's line rate.
+     */
+    private void forward()
+    {
+        long lastRefillNanos = System.nanoTime();
+        while (running)
+        {
+            //
+            // Refill each Egress Port's token bucket for the time that has passed. Only the time the whole tokens
+            // stand for is used up; the remainder carries over, so a fast loop does not shave a fraction of a token
+            // off every refill.
+            //
+            long now = System.nanoTime();
+            long tokens = (now - lastRefillNanos) * PORT_LINE_RATE / 1000000000L;
+            if (tokens > 0)
+            {
+                lastRefillNanos += tokens * 1000000000L / PORT_LINE_RATE;
+                for (int port = 1; port <= numOutputPorts; port++)
+                {
+                    egressTokens[port] = Math.min(egressTokens[port] + tokens, RING_CAPACITY);
+                }
+            }
+
+            boolean idle = true;
+            for (int port = 1; port <= numInputPorts; port++)
+            {
+                long head = heads.get(port * PAD);
+                long tail = tails.get(port * PAD);
+                int frames = (int) (tail - head);
+                if (frames == 0)
+                {
+                    continue;
+                }
+                idle = false;
+
+                BitSet group = forwardingTable.get(port);
+                int egress = group == null ? -1 : group.nextSetBit(1);
+                if (egress < 0 || egress > numOutputPorts)
+                {
+                    ingressUnrouted[port] += frames;
+                }
+                for (; egress > 0 && egress <= numOutputPorts; egress = group.nextSetBit(egress + 1))
+                {
+                    int sent = (int) Math.min(frames, egressTokens[egress]);
+                    int base = port * RING_CAPACITY;
+                    long bytes = 0;
+                    for (int frame = 0; frame < sent; frame++)
+                    {
+                        bytes += rings[base + (int) ((head + frame) & (RING_CAPACITY - 1))];
+                    }
+                    egressTokens[egress] -= sent;
+                    egressPackets[egress] += sent;
+                    egressBytes[egress] += bytes;
+                    egressDrops[egress] += frames - sent;
+                }
+                heads.lazySet(port * PAD, tail);
+            }
+
+            if (idle)
+            {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+}
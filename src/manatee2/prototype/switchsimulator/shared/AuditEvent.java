@@ -0,0 +1,168 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+
+/**
+ * One entry in the Switch's audit trail: a single Port Change, who asked for it and when, the Ingress Port's group of
+ * Egress Ports before and after, and whether it succeeded.
+ */
+public class AuditEvent implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position in the audit trail (starting at zero).
+     */
+    private long sequence;
+
+    /**
+     * When it happened (milliseconds since the epoch). Never decreases along the trail.
+     */
+    private long timestamp;
+
+    /**
+     * Client that asked for it, e.g. "console-1a2b3c4d" ("scheduler" if it was scheduled).
+     */
+    private String clientId;
+
+    /**
+     * Switch Service operation it was part of, e.g. "connect", "disconnectAll", "applyChanges".
+     */
+    private String operation;
+
+    private PortChange change;
+
+    /**
+     * Egress Ports the Ingress Port fed before and after (equal if it failed).
+     */
+    private BitSet before;
+    private BitSet after;
+
+    /**
+     * Why it failed, or null if it succeeded.
+     */
+    private String failure;
+
+
+    public AuditEvent()
+    {
+    }
+
+
+    public AuditEvent(long sequence, long timestamp, String clientId, String operation, PortChange change,
+            BitSet before, BitSet after, String failure)
+    {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.clientId = clientId;
+        this.operation = operation;
+        this.change = change;
+        this.before = before;
+        this.after = after;
+        this.failure = failure;
+    }
+
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+
+    public void setSequence(long sequence)
+    {
+        this.sequence = sequence;
+    }
+
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+
+    public void setTimestamp(long timestamp)
+    {
+        this.timestamp = timestamp;
+    }
+
+
+    public String getClientId()
+    {
+        return clientId;
+    }
+
+
+    public void setClientId(String clientId)
+    {
+        this.clientId = clientId;
+    }
+
+
+    public String getOperation()
+    {
+        return operation;
+    }
+
+
+    public void setOperation(String operation)
+    {
+        this.operation = operation;
+    }
+
+
+    public PortChange getChange()
+    {
+        return change;
+    }
+
+
+    public void setChange(PortChange change)
+    {
+        this.change = change;
+    }
+
+
+    public BitSet getBefore()
+    {
+        return before;
+    }
+
+
+    public void setBefore(BitSet before)
+    {
+        this.before = before;
+    }
+
+
+    public BitSet getAfter()
+    {
+        return after;
+    }
+
+
+    public void setAfter(BitSet after)
+    {
+        this.after = after;
+    }
+
+
+    public String getFailure()
+    {
+        return failure;
+    }
+
+
+    public void setFailure(String failure)
+    {
+        this.failure = failure;
+    }
+
+
+    public boolean isSucceeded()
+    {
+        return failure == null;
+    }
+}
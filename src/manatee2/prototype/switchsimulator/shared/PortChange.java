@@ -0,0 +1,145 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.io.Serializable;
+
+
+/**
+ * A single change to the Switch's Port Mapping. A list of Port Changes is applied by the Switch Service as one batch.
+ * 
+ * A Connect adds the Egress Port to the group fed by the Ingress Port. A Disconnect removes one Egress Port from the
+ * group, or the whole group.
+ */
+public class PortChange implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kind of change.
+     */
+    public enum Action
+    {
+        CONNECT,
+        DISCONNECT
+    }
+
+    /**
+     * Connect or Disconnect.
+     */
+    private Action action;
+
+    /**
+     * Ingress Port Number.
+     */
+    private int inputPort;
+
+    /**
+     * Egress Port Number. For a Disconnect, zero means "every Egress Port the Ingress Port is connected to";
+     * otherwise only this Egress Port is removed from the Ingress Port's group (if it is still a member).
+     */
+    private int outputPort;
+
+
+    public PortChange()
+    {
+    }
+
+
+    public PortChange(Action action, int inputPort, int outputPort)
+    {
+        this.action = action;
+        this.inputPort = inputPort;
+        this.outputPort = outputPort;
+    }
+
+
+    /**
+     * Create a Connect change, adding the Egress Port to the Ingress Port's group.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param outputPort - Egress Port Number.
+     * 
+     * @return New Port Change.
+     */
+    public static PortChange connect(int inputPort, int outputPort)
+    {
+        return new PortChange(Action.CONNECT, inputPort, outputPort);
+    }
+
+
+    /**
+     * Create a Disconnect change for every Egress Port the Ingress Port is connected to.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * 
+     * @return New Port Change.
+     */
+    public static PortChange disconnect(int inputPort)
+    {
+        return new PortChange(Action.DISCONNECT, inputPort, 0);
+    }
+
+
+    /**
+     * Create a Disconnect change that removes a single Egress Port from the Ingress Port's group.
+     * 
+     * @param inputPort - Ingress Port Number.
+     * @param outputPort - Egress Port Number.
+     * 
+     * @return New Port Change.
+     */
+    public static PortChange disconnect(int inputPort, int outputPort)
+    {
+        return new PortChange(Action.DISCONNECT, inputPort, outputPort);
+    }
+
+
+    public Action getAction()
+    {
+        return action;
+    }
+
+
+    public void setAction(Action action)
+    {
+        this.action = action;
+    }
+
+
+    public int getInputPort()
+    {
+        return inputPort;
+    }
+
+
+    public void setInputPort(int inputPort)
+    {
+        this.inputPort = inputPort;
+    }
+
+
+    public int getOutputPort()
+    {
+        return outputPort;
+    }
+
+
+    public void setOutputPort(int outputPort)
+    {
+        this.outputPort = outputPort;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        if (action == Action.CONNECT)
+        {
+            return "connect " + inputPort + " to " + outputPort;
+        }
+        if (outputPort > 0)
+        {
+            return "disconnect " + inputPort + " from " + outputPort;
+        }
+        return "disconnect " + inputPort;
+    }
+}
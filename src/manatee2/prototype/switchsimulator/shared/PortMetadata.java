@@ -0,0 +1,238 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Descriptive details of a run of consecutive Ports on one side of the Switch: the name operators know each Port by
+ * (e.g. a circuit name), a description, tags, and whether the Port is administratively up. Metadata is fetched a page
+ * at a time (see {@link SwitchServiceApi#getPortMetadata(boolean, int, int)}), so the Switch Configuration itself
+ * stays small.
+ * 
+ * A page is stored by column rather than as one object per Port. Every distinct string is held once, in the page's
+ * string table, and the columns refer to it by index, so Ports that share a description or tags cost one int each.
+ */
+public class PortMetadata implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private boolean ingress;
+    private int firstPort;
+    private int numPorts;
+
+    /**
+     * Epoch and metadata version the page belongs to (see {@link SwitchConfiguration#getEpoch()} and
+     * {@link SwitchConfiguration#getMetadataVersion()}).
+     */
+    private long epoch;
+    private long version;
+
+    /**
+     * Distinct strings of the page. Index 0 stands for "none".
+     */
+    private List<String> strings = new ArrayList<String>(Collections.singletonList((String) null));
+
+    /**
+     * Columns, indexed by Port Number - First Port. Tags are held as one comma-separated string.
+     */
+    private int[] names;
+    private int[] descriptions;
+    private int[] tags;
+    private BitSet adminDown = new BitSet();
+
+    /**
+     * Index of the string table, while the page is being filled in.
+     */
+    private transient Map<String, Integer> stringIndex;
+
+
+    public PortMetadata()
+    {
+    }
+
+
+    /**
+     * Create a page with no details for any of its Ports.
+     * 
+     * @param ingress - Whether the Ports are Ingress (rather than Egress) Ports.
+     * @param firstPort - First Port Number of the page.
+     * @param numPorts - Number of Ports on the page.
+     * @param version - Metadata version.
+     */
+    public PortMetadata(boolean ingress, int firstPort, int numPorts, long version)
+    {
+        this.ingress = ingress;
+        this.firstPort = firstPort;
+        this.numPorts = numPorts;
+        this.version = version;
+        this.names = new int[numPorts];
+        this.descriptions = new int[numPorts];
+        this.tags = new int[numPorts];
+    }
+
+
+    /**
+     * Fill in a Port's details.
+     * 
+     * @param port - Port Number (on the page).
+     * @param name - Name, or null if none.
+     * @param description - Description, or null if none.
+     * @param tagList - Tags (empty if none).
+     * @param adminUp - Whether the Port is administratively up.
+     */
+    public void setPort(int port, String name, String description, List<String> tagList, boolean adminUp)
+    {
+        int index = port - firstPort;
+        names[index] = intern(name);
+        descriptions[index] = intern(description);
+        tags[index] = intern(joinTags(tagList));
+        adminDown.set(index, !adminUp);
+    }
+
+
+    public boolean isIngress()
+    {
+        return ingress;
+    }
+
+
+    public int getFirstPort()
+    {
+        return firstPort;
+    }
+
+
+    public int getNumPorts()
+    {
+        return numPorts;
+    }
+
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+
+    public void setEpoch(long epoch)
+    {
+        this.epoch = epoch;
+    }
+
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+
+    /**
+     * @return True if the Port is on this page.
+     */
+    public boolean contains(int port)
+    {
+        return port >= firstPort && port < firstPort + numPorts;
+    }
+
+
+    /**
+     * @return Name of the Port, or null if none.
+     */
+    public String getName(int port)
+    {
+        return strings.get(names[port - firstPort]);
+    }
+
+
+    /**
+     * @return Description of the Port, or null if none.
+     */
+    public String getDescription(int port)
+    {
+        return strings.get(descriptions[port - firstPort]);
+    }
+
+
+    /**
+     * @return Tags of the Port (empty if none).
+     */
+    public List<String> getTags(int port)
+    {
+        String joined = strings.get(tags[port - firstPort]);
+        if (joined == null)
+        {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(joined.split(",")));
+    }
+
+
+    /**
+     * @return Whether the Port is administratively up.
+     */
+    public boolean isAdminUp(int port)
+    {
+        return !adminDown.get(port - firstPort);
+    }
+
+
+    /**
+     * Join tags into the form they are stored in: trimmed, without commas, in order, and null if there are none.
+     * 
+     * @param tagList - Tags.
+     * 
+     * @return Comma-separated tags, or null.
+     */
+    public static String joinTags(List<String> tagList)
+    {
+        if (tagList == null)
+        {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String tag : tagList)
+        {
+            String cleaned = tag == null ? "" : tag.replace(',', ' ').trim();
+            if (!cleaned.isEmpty())
+            {
+                joined.append(joined.length() > 0 ? "," : "").append(cleaned);
+            }
+        }
+        return joined.length() > 0 ? joined.toString() : null;
+    }
+
+
+    /**
+     * @return Index of a string in the string table, adding it if need be (0 for null).
+     */
+    private int intern(String string)
+    {
+        if (string == null)
+        {
+            return 0;
+        }
+        if (stringIndex == null)
+        {
+            stringIndex = new HashMap<String, Integer>();
+            for (int index = 1; index < strings.size(); index++)
+            {
+                stringIndex.put(strings.get(index), index);
+            }
+        }
+        Integer index = stringIndex.get(string);
+        if (index == null)
+        {
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,141 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class SwitchConfiguration implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of Ingress ports. Must be divisible by 8.
+     */
+    private int numInputPorts;
+
+    /**
+     * Number of Egress ports. Must be divisible by 8.
+     */
+    private int numOutputPorts;
+
+    /**
+     * Mapping of Ingress to Egress Ports. An Ingress Port may feed many Egress Ports (multicast), but each Egress Port
+     * is fed by at most one Ingress Port.
+     * 
+     * The Map Keys represent the Ingress Port Number. The Map Values represent the group of Egress Port Numbers it
+     * feeds (bit N set for Egress Port N); unmapped Ingress Ports have no entry.
+     */
+    Map<Integer, BitSet> portMap = new HashMap<Integer, BitSet>();
+
+    /**
+     * Run of the Switch Service that issued the versions below. Versions are only comparable within one epoch: each
+     * run counts them afresh.
+     */
+    private long epoch;
+
+    /**
+     * Version of the Switch's mapping this snapshot reflects. Versions only ever increase (within an epoch), so an
+     * unchanged epoch and version means an unchanged mapping (see SwitchService.getConfigurationIfChanged).
+     */
+    private long version;
+
+    /**
+     * Version of the Ports' metadata (names, descriptions, ...), which is fetched separately, a page at a time. A
+     * client only needs to fetch it again when this changes.
+     */
+    private long metadataVersion;
+
+
+    public SwitchConfiguration()
+    {
+    }
+
+
+    public SwitchConfiguration(int numInputPorts, int numOutputPorts, Map<Integer, BitSet> portMap)
+    {
+        this.numInputPorts = numInputPorts;
+        this.numOutputPorts = numOutputPorts;
+        this.portMap = portMap;
+    }
+
+
+    public SwitchConfiguration(int numInputPorts, int numOutputPorts, Map<Integer, BitSet> portMap, long version)
+    {
+        this(numInputPorts, numOutputPorts, portMap);
+        this.version = version;
+    }
+
+
+    public int getNumInputPorts()
+    {
+        return numInputPorts;
+    }
+
+
+    public void setNumInputPorts(int numInputPorts)
+    {
+        this.numInputPorts = numInputPorts;
+    }
+
+
+    public int getNumOutputPorts()
+    {
+        return numOutputPorts;
+    }
+
+
+    public void setNumOutputPorts(int numOutputPorts)
+    {
+        this.numOutputPorts = numOutputPorts;
+    }
+
+
+    public Map<Integer, BitSet> getPortMap()
+    {
+        return portMap;
+    }
+
+
+    public void setPortMap(Map<Integer, BitSet> portMap)
+    {
+        this.portMap = portMap;
+    }
+
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+
+    public void setEpoch(long epoch)
+    {
+        this.epoch = epoch;
+    }
+
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+
+    public void setVersion(long version)
+    {
+        this.version = version;
+    }
+
+
+    public long getMetadataVersion()
+    {
+        return metadataVersion;
+    }
+
+
+    public void setMetadataVersion(long metadataVersion)
+    {
+        this.metadataVersion = metadataVersion;
+    }
+}
@@ -0,0 +1,230 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.util.List;
+
+
+/**
+ * Interface to the Switch, as seen by a client (operator console). Implemented by the Switch Service itself, and by
+ * anything standing between it and the client.
+ * 
+ * Any method may throw a {@link SwitchUnavailableException} if the Switch Service cannot be reached. Reads, Connects
+ * and Disconnects leave the Switch the same however many times they are repeated, so they may simply be retried. A
+ * batch may only be replayed through {@link #applyChanges(String, List)} with the same Request ID; scheduling is not
+ * safe to replay.
+ */
+public interface SwitchServiceApi
+{
+    /**
+     * @return Identity under-which this client locks and reserves Ports.
+     */
+    String getClientId();
+
+
+    /**
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration getConfiguration() throws Exception;
+
+
+    /**
+     * @param epoch - Epoch of the Switch Configuration the caller has.
+     * @param version - Version of the Switch Configuration the caller has.
+     * 
+     * @return Current Switch Configuration, or null if it is still at that epoch and version ("not modified").
+     */
+    SwitchConfiguration getConfigurationIfChanged(long epoch, long version) throws Exception;
+
+
+    /**
+     * Wait until the Switch Configuration moves on from a version (or the Switch Service has restarted since).
+     * 
+     * @param epoch - Epoch of the Switch Configuration the caller has.
+     * @param version - Version of the Switch Configuration the caller has.
+     * @param timeoutMillis - Longest time to wait.
+     * 
+     * @return Current Switch Configuration, or null if it did not change within the timeout.
+     */
+    SwitchConfiguration awaitConfigurationChange(long epoch, long version, long timeoutMillis) throws Exception;
+
+
+    /**
+     * Change the number of Ingress and Egress Ports, disconnecting mappings to Ports that go away.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration resize(int numInputPorts, int numOutputPorts) throws Exception;
+
+
+    /**
+     * Fetch a page of Port metadata.
+     * 
+     * @param ingress - Whether to fetch Ingress (rather than Egress) Ports.
+     * @param firstPort - First Port Number of the page.
+     * @param maxPorts - Most Ports to fetch.
+     * 
+     * @return Metadata of the Ports from firstPort on (fewer than maxPorts at the end of the Switch).
+     */
+    PortMetadata getPortMetadata(boolean ingress, int firstPort, int maxPorts) throws Exception;
+
+
+    /**
+     * Set a Port's metadata.
+     */
+    void setPortMetadata(boolean ingress, int port, String name, String description, List<String> tags,
+            boolean adminUp) throws Exception;
+
+
+    /**
+     * Connect an Ingress Port to an Egress Port, adding it to the Ingress Port's group.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration connect(int inputPort, int outputPort) throws Exception;
+
+
+    /**
+     * Disconnect an Ingress Port from every Egress Port it feeds.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration disconnect(int inputPort) throws Exception;
+
+
+    /**
+     * Disconnect an Ingress Port from one of the Egress Ports it feeds.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration disconnect(int inputPort, int outputPort) throws Exception;
+
+
+    /**
+     * Replace the whole group of Egress Ports an Ingress Port feeds.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration connectGroup(int inputPort, int[] outputPorts) throws Exception;
+
+
+    /**
+     * Disconnect ALL Ingress Ports from Egress Ports.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration disconnectAll() throws Exception;
+
+
+    /**
+     * Apply a batch of Port Changes, in order, as a single Switch operation.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration applyChanges(List<PortChange> changes) throws Exception;
+
+
+    /**
+     * Apply a batch of Port Changes at most once: a repeat of a Request ID already applied (or rejected) is not
+     * applied again, but answered as the original was.
+     * 
+     * @param requestId - Unique ID the client chose for this batch, reused for every retry of it.
+     * @param changes - Port Changes to apply.
+     * 
+     * @return Current Switch Configuration.
+     */
+    SwitchConfiguration applyChanges(String requestId, List<PortChange> changes) throws Exception;
+
+
+    /**
+     * @return Every violation in a batch of Port Changes (empty if it could be applied right now).
+     */
+    List<String> validateChanges(List<PortChange> changes) throws Exception;
+
+
+    /**
+     * Search the audit trail of Port Changes.
+     * 
+     * @param inputPort - Only events involving this Ingress Port (zero for any).
+     * @param outputPort - Only events involving this Egress Port (zero for any).
+     * @param startTime - Only events at or after this time (milliseconds since the epoch; zero for no limit).
+     * @param endTime - Only events at or before this time (milliseconds since the epoch; zero for no limit).
+     * @param maxEvents - Most events to return.
+     * 
+     * @return Matching events, newest first.
+     */
+    List<AuditEvent> queryAudit(int inputPort, int outputPort, long startTime, long endTime, int maxEvents)
+            throws Exception;
+
+
+    /**
+     * Reconstruct the Switch Configuration as it was at a past instant.
+     * 
+     * @param time - Instant (milliseconds since the epoch).
+     * 
+     * @return Switch Configuration then (version zero), or null if the history does not go back that far.
+     */
+    SwitchConfiguration getConfigurationAt(long time) throws Exception;
+
+
+    /**
+     * @return Earliest time getConfigurationAt can reconstruct (milliseconds since the epoch), or zero if none.
+     */
+    long getHistoryStart() throws Exception;
+
+
+    /**
+     * Reserve Ports for this client.
+     */
+    void reservePorts(int[] inputPorts, int[] outputPorts, long leaseMillis) throws Exception;
+
+
+    /**
+     * Release this client's reservation of Ports.
+     */
+    void releasePorts(int[] inputPorts, int[] outputPorts) throws Exception;
+
+
+    /**
+     * Connect an Ingress Port to an Egress Port for a window of time.
+     * 
+     * @return Schedule ID.
+     */
+    long scheduleConnect(int inputPort, int outputPort, long startTime, long endTime) throws Exception;
+
+
+    /**
+     * Disconnect an Ingress Port at a later time.
+     * 
+     * @return Schedule ID.
+     */
+    long scheduleDisconnect(int inputPort, long startTime) throws Exception;
+
+
+    /**
+     * @return True if anything was still pending for the Schedule ID.
+     */
+    boolean cancelSchedule(long scheduleId) throws Exception;
+
+
+    /**
+     * @return Number of scheduled Connects/Disconnects that have not yet completed.
+     */
+    int getNumScheduled() throws Exception;
+
+
+    /**
+     * Start (or restart) simulated traffic through the Switch.
+     */
+    void startTraffic(long framesPerSecond) throws Exception;
+
+
+    /**
+     * Stop simulated traffic.
+     */
+    void stopTraffic() throws Exception;
+
+
+    /**
+     * @return Current per-Port traffic counters.
+     */
+    TrafficStatistics getTrafficStatistics() throws Exception;
+}
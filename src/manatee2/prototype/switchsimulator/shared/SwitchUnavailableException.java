@@ -0,0 +1,24 @@
+package manatee2.prototype.switchsimulator.shared;
+
+
+/**
+ * The Switch Service could not be reached, or the link to it was lost before it replied. Unlike other failures this
+ * one says nothing about the request itself, so the request may be retried (see SwitchServiceApi for which requests
+ * are safe to replay).
+ */
+public class SwitchUnavailableException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+
+    public SwitchUnavailableException(String message)
+    {
+        super(message);
+    }
+
+
+    public SwitchUnavailableException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
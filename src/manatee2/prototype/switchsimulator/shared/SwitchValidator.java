@@ -0,0 +1,354 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Checks Switch Configurations and candidate Port Changes before they are applied. Used by both the Switch Service and
+ * the client, so that a bad request is caught before a round-trip is spent on it.
+ * 
+ * The checks run against a Port Index (Ingress to its group of Egress Ports, and the reverse Egress to Ingress).
+ * Checking a batch of changes costs O(changes): the batch is replayed over scratch arrays whose entries are only
+ * trusted when stamped with the current pass, so nothing has to be cleared between passes. Every violation is
+ * reported, not just the first.
+ * 
+ * A Validator is not thread-safe; give each thread its own.
+ */
+public class SwitchValidator
+{
+    /**
+     * The number of Ingress and Egress ports must be divisible by this.
+     */
+    public static final int PORT_GROUP_SIZE = 8;
+
+    /**
+     * Read access to the current Port Mapping.
+     */
+    public interface PortIndex
+    {
+        /**
+         * @return Egress Ports fed by the Ingress Port (null or empty if unmapped). Must not be modified.
+         */
+        BitSet getEgress(int inputPort);
+
+        /**
+         * @return Ingress Port feeding the Egress Port, or zero if unmapped.
+         */
+        int getIngress(int outputPort);
+    }
+
+    private final int numInputPorts;
+    private final int numOutputPorts;
+    private final PortIndex portIndex;
+
+    /**
+     * Scratch overlay of the Port Index while replaying a batch. An entry is only valid if its stamp matches the
+     * current pass.
+     */
+    private final BitSet[] ingressOverlay;
+    private final int[] ingressStamps;
+    private final int[] egressOverlay;
+    private final int[] egressStamps;
+    private int pass;
+
+
+    public SwitchValidator(int numInputPorts, int numOutputPorts, PortIndex portIndex)
+    {
+        this.numInputPorts = numInputPorts;
+        this.numOutputPorts = numOutputPorts;
+        this.portIndex = portIndex;
+        this.ingressOverlay = new BitSet[numInputPorts + 1];
+        this.ingressStamps = new int[numInputPorts + 1];
+        this.egressOverlay = new int[numOutputPorts + 1];
+        this.egressStamps = new int[numOutputPorts + 1];
+    }
+
+
+    /**
+     * @return Number of Ingress Ports this Validator checks against.
+     */
+    public int getNumInputPorts()
+    {
+        return numInputPorts;
+    }
+
+
+    /**
+     * @return Number of Egress Ports this Validator checks against.
+     */
+    public int getNumOutputPorts()
+    {
+        return numOutputPorts;
+    }
+
+
+    /**
+     * Create a Validator over a Switch Configuration. The configuration should already have passed
+     * {@link #validateConfiguration(SwitchConfiguration)}; out-of-range entries are left out of the index.
+     * 
+     * @param switchConfiguration - Current Switch Configuration.
+     * 
+     * @return New Validator.
+     */
+    public static SwitchValidator forConfiguration(SwitchConfiguration switchConfiguration)
+    {
+        final BitSet[] ingressToEgress = new BitSet[Math.max(0, switchConfiguration.getNumInputPorts()) + 1];
+        final int[] egressToIngress = new int[Math.max(0, switchConfiguration.getNumOutputPorts()) + 1];
+        if (switchConfiguration.getPortMap() != null)
+        {
+            for (Map.Entry<Integer, BitSet> entry : switchConfiguration.getPortMap().entrySet())
+            {
+                Integer input = entry.getKey();
+                BitSet outputs = entry.getValue();
+                if (input == null || outputs == null || input < 1 || input >= ingressToEgress.length)
+                {
+                    continue;
+                }
+                BitSet group = new BitSet(egressToIngress.length);
+                for (int output = outputs.nextSetBit(1);
+                        output > 0 && output < egressToIngress.length;
+                        output = outputs.nextSetBit(output + 1))
+                {
+                    group.set(output);
+                    egressToIngress[output] = input;
+                }
+                ingressToEgress[input] = group;
+            }
+        }
+        return new SwitchValidator(
+                ingressToEgress.length - 1,
+                egressToIngress.length - 1,
+                new PortIndex()
+                {
+                    @Override
+                    public BitSet getEgress(int inputPort)
+                    {
+                        return ingressToEgress[inputPort];
+                    }
+
+
+                    @Override
+                    public int getIngress(int outputPort)
+                    {
+                        return egressToIngress[outputPort];
+                    }
+                });
+    }
+
+
+    /**
+     * Check the Switch's geometry.
+     * 
+     * @param numInputPorts - Number of Ingress Ports.
+     * @param numOutputPorts - Number of Egress Ports.
+     * 
+     * @return Violations (empty if valid).
+     */
+    public static List<String> validateGeometry(int numInputPorts, int numOutputPorts)
+    {
+        List<String> violations = new ArrayList<String>();
+        if (numInputPorts <= 0 || numInputPorts % PORT_GROUP_SIZE != 0)
+        {
+            violations.add("Invalid Number of Ingress Ports (" + numInputPorts + ").");
+        }
+        if (numOutputPorts <= 0 || numOutputPorts % PORT_GROUP_SIZE != 0)
+        {
+            violations.add("Invalid Number of Egress Ports (" + numOutputPorts + ").");
+        }
+        return violations;
+    }
+
+
+    /**
+     * Check a whole Switch Configuration, e.g. one received from the Switch Service or imported from elsewhere: its
+     * geometry, that every mapped Port is in range, and that no Egress Port is fed by two Ingress Ports.
+     * 
+     * @param switchConfiguration - Switch Configuration to check.
+     * 
+     * @return Violations (empty if valid).
+     */
+    public static List<String> validateConfiguration(SwitchConfiguration switchConfiguration)
+    {
+        List<String> violations =
+                validateGeometry(switchConfiguration.getNumInputPorts(), switchConfiguration.getNumOutputPorts());
+        if (switchConfiguration.getPortMap() == null)
+        {
+            violations.add("Port Mapping is null.");
+            return violations;
+        }
+
+        int[] egressToIngress = new int[Math.max(0, switchConfiguration.getNumOutputPorts()) + 1];
+        for (Map.Entry<Integer, BitSet> entry : switchConfiguration.getPortMap().entrySet())
+        {
+            Integer input = entry.getKey();
+            BitSet outputs = entry.getValue();
+            if (input == null || outputs == null)
+            {
+                violations.add("Incomplete mapping: " + input + " to " + outputs + ".");
+                continue;
+            }
+            if (input < 1 || input > switchConfiguration.getNumInputPorts())
+            {
+                violations.add("Invalid Input mapping: " + input + ".");
+                continue;
+            }
+            for (int output = outputs.nextSetBit(0); output >= 0; output = outputs.nextSetBit(output + 1))
+            {
+                if (output < 1 || output > switchConfiguration.getNumOutputPorts())
+                {
+                    violations.add("Invalid Output mapping: " + output + " (from Input " + input + ").");
+                    continue;
+                }
+                if (egressToIngress[output] != 0)
+                {
+                    violations.add("Egress Port " + output + " is fed by both Ingress Port "
+                            + egressToIngress[output] + " and Ingress Port " + input + ".");
+                    continue;
+                }
+                egressToIngress[output] = input;
+            }
+        }
+        return violations;
+    }
+
+
+    /**
+     * Check a batch of Port Changes against the current Port Mapping, replaying them in order: every Port must be in
+     * range, and no Connect may feed an Egress Port that is (by then) fed by another Ingress Port.
+     * 
+     * @param changes - Candidate Port Changes.
+     * 
+     * @return Violations (empty if valid).
+     */
+    public List<String> validateChanges(List<PortChange> changes)
+    {
+        List<String> violations = new ArrayList<String>();
+        nextPass();
+        for (PortChange change : changes)
+        {
+            //
+            // Failsafe.
+            //
+            if (change == null || change.getAction() == null)
+            {
+                violations.add("Incomplete change: " + change + ".");
+                continue;
+            }
+            int input = change.getInputPort();
+            int output = change.getOutputPort();
+            if (input < 1 || input > numInputPorts)
+            {
+                violations.add("Unable to " + change + ": Invalid Input-Port " + input + ".");
+                continue;
+            }
+            int minOutput = change.getAction() == PortChange.Action.CONNECT ? 1 : 0;
+            if (output < minOutput || output > numOutputPorts)
+            {
+                violations.add("Unable to " + change + ": Invalid Output-Port " + output + ".");
+                continue;
+            }
+
+            BitSet group = getGroup(input);
+            if (change.getAction() == PortChange.Action.DISCONNECT)
+            {
+                if (output != 0)
+                {
+                    if (group.get(output))
+                    {
+                        group.clear(output);
+                        setIngress(output, 0);
+                    }
+                    continue;
+                }
+                for (int member = group.nextSetBit(0); member >= 0; member = group.nextSetBit(member + 1))
+                {
+                    setIngress(member, 0);
+                }
+                group.clear();
+                continue;
+            }
+
+            int currentInput = getIngress(output);
+            if (currentInput != 0 && currentInput != input)
+            {
+                violations.add("Unable to " + change + ": Egress Port " + output
+                        + " is already connected to Ingress Port " + currentInput + ".");
+                continue;
+            }
+            group.set(output);
+            setIngress(output, input);
+        }
+        return violations;
+    }
+
+
+    /**
+     * Join violations into a single message, one per line.
+     * 
+     * @param violations - Violations, as returned by one of the validate methods.
+     * 
+     * @return Message text.
+     */
+    public static String toMessage(List<String> violations)
+    {
+        StringBuilder message = new StringBuilder();
+        for (String violation : violations)
+        {
+            if (message.length() > 0)
+            {
+                message.append('\n');
+            }
+            message.append(violation);
+        }
+        return message.toString();
+    }
+
+
+    private void nextPass()
+    {
+        pass++;
+        if (pass == 0)
+        {
+            //
+            // The stamp wrapped; forget every stamp so none can be mistaken for the new pass.
+            //
+            Arrays.fill(ingressOverlay, null);
+            Arrays.fill(ingressStamps, 0);
+            Arrays.fill(egressStamps, 0);
+            pass = 1;
+        }
+    }
+
+
+    /**
+     * The Ingress Port's group as of this point in the replay. The first touch in a pass copies it from the Port Index,
+     * so only Ingress Ports named in the batch are ever copied.
+     */
+    private BitSet getGroup(int inputPort)
+    {
+        if (ingressStamps[inputPort] != pass)
+        {
+            BitSet group = portIndex.getEgress(inputPort);
+            ingressOverlay[inputPort] = group == null ? new BitSet() : (BitSet) group.clone();
+            ingressStamps[inputPort] = pass;
+        }
+        return ingressOverlay[inputPort];
+    }
+
+
+    private int getIngress(int outputPort)
+    {
+        return egressStamps[outputPort] == pass ? egressOverlay[outputPort] : portIndex.getIngress(outputPort);
+    }
+
+
+    private void setIngress(int outputPort, int inputPort)
+    {
+        egressOverlay[outputPort] = inputPort;
+        egressStamps[outputPort] = pass;
+    }
+}
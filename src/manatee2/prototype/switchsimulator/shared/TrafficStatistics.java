@@ -0,0 +1,151 @@
+package manatee2.prototype.switchsimulator.shared;
+
+import java.io.Serializable;
+
+
+/**
+ * Snapshot of the simulated traffic counters. Each array is indexed by Port Number (index 0 is unused); counters are
+ * cumulative since traffic was last started.
+ */
+public class TrafficStatistics implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * When the snapshot was taken (milliseconds since the epoch).
+     */
+    private long timestamp;
+
+    /**
+     * Whether traffic is currently being generated.
+     */
+    private boolean running;
+
+    /**
+     * Frames/Bytes accepted by each Ingress Port, and Frames dropped there (queue overflow, or no Egress Port mapped).
+     */
+    private long[] ingressPackets;
+    private long[] ingressBytes;
+    private long[] ingressDrops;
+
+    /**
+     * Frames/Bytes transmitted by each Egress Port, and Frames dropped there (line rate exceeded).
+     */
+    private long[] egressPackets;
+    private long[] egressBytes;
+    private long[] egressDrops;
+
+
+    public TrafficStatistics()
+    {
+    }
+
+
+    public TrafficStatistics(long timestamp, boolean running, int numInputPorts, int numOutputPorts)
+    {
+        this.timestamp = timestamp;
+        this.running = running;
+        this.ingressPackets = new long[numInputPorts + 1];
+        this.ingressBytes = new long[numInputPorts + 1];
+        this.ingressDrops = new long[numInputPorts + 1];
+        this.egressPackets = new long[numOutputPorts + 1];
+        this.egressBytes = new long[numOutputPorts + 1];
+        this.egressDrops = new long[numOutputPorts + 1];
+    }
+
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+
+    public void setTimestamp(long timestamp)
+    {
+        this.timestamp = timestamp;
+    }
+
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+
+    public void setRunning(boolean running)
+    {
+        this.running = running;
+    }
+
+
+    public long[] getIngressPackets()
+    {
+        return ingressPackets;
+    }
+
+
+    public void setIngressPackets(long[] ingressPackets)
+    {
+        this.ingressPackets = ingressPackets;
+    }
+
+
+    public long[] getIngressBytes()
+    {
+        return ingressBytes;
+    }
+
+
+    public void setIngressBytes(long[] ingressBytes)
+    {
+        this.ingressBytes = ingressBytes;
+    }
+
+
+    public long[] getIngressDrops()
+    {
+        return ingressDrops;
+    }
+
+
+    public void setIngressDrops(long[] ingressDrops)
+    {
+        this.ingressDrops = ingressDrops;
+    }
+
+
+    public long[] getEgressPackets()
+    {
+        return egressPackets;
+    }
+
+
+    public void setEgressPackets(long[] egressPackets)
+    {
+        this.egressPackets = egressPackets;
+    }
+
+
+    public long[] getEgressBytes()
+    {
+        return egressBytes;
+    }
+
+
+    public void setEgressBytes(long[] egressBytes)
+    {
+        this.egressBytes = egressBytes;
+    }
+
+
+    public long[] getEgressDrops()
+    {
+        return egressDrops;
+    }
+
+
+    public void setEgressDrops(long[] egressDrops)
+    {
+        this.egressDrops = egressDrops;
+    }
+}
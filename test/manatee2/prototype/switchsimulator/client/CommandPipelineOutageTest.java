@@ -0,0 +1,172 @@
+package manatee2.prototype.switchsimulator.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import manatee2.prototype.switchsimulator.server.SwitchService;
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+
+
+/**
+ * Drives a Command Pipeline, through a Switch Connection, against a Switch Service behind a {@link FlakySwitchService}
+ * link, and checks that every batch ends up applied exactly once however often the link drops.
+ * 
+ * The link fails from a seeded Random, and the pipeline sends one request at a time, so every run sees the same
+ * outages.
+ */
+public class CommandPipelineOutageTest
+{
+    /**
+     * A seed under-which the link refuses a connection, loses a request and loses replies (so batches are replayed).
+     */
+    private static final long SEED = 10;
+    private static final double FAILURE_RATE = 0.3;
+
+    /**
+     * Longest a batch may take to get through (several reconnects, each with the simulated hardware delay).
+     */
+    private static final long BATCH_TIMEOUT_MILLIS = 120000;
+
+    /**
+     * Ingress Ports 3-6 and Egress Ports 40-46, none of which the Switch maps initially.
+     */
+    private static final List<List<PortChange>> BATCHES = Arrays.asList(
+            Arrays.asList(PortChange.connect(3, 40), PortChange.connect(3, 41)),
+            Arrays.asList(PortChange.connect(4, 42), PortChange.connect(5, 43)),
+            Arrays.asList(PortChange.disconnect(3, 41), PortChange.connect(6, 44)),
+            Arrays.asList(PortChange.connect(6, 45), PortChange.connect(4, 46)));
+
+
+    @Test
+    public void batchesSurviveOutagesAndApplyExactlyOnce() throws Exception
+    {
+        //
+        // Start the Ports off unmapped, and only look at the audit trail from then on.
+        //
+        SwitchService switchService = new SwitchService("outage-test-setup");
+        switchService.applyChanges(Arrays.asList(PortChange.disconnect(3), PortChange.disconnect(4),
+                PortChange.disconnect(5), PortChange.disconnect(6)));
+        Thread.sleep(10);
+        long startTime = System.currentTimeMillis();
+
+        final Random random = new Random(SEED);
+        SwitchConnection connection = new SwitchConnection("outage-test", new SwitchConnection.Connector()
+        {
+            @Override
+            public SwitchServiceApi connect(String clientId) throws Exception
+            {
+                return new FlakySwitchService(clientId, random, FAILURE_RATE);
+            }
+        });
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        CommandPipeline pipeline = new CommandPipeline(connection, 50, new CommandPipeline.Listener()
+        {
+            @Override
+            public void configurationChanged(SwitchConfiguration switchConfiguration)
+            {
+            }
+
+
+            @Override
+            public void commandFailed(String message)
+            {
+                failures.add(message);
+            }
+        });
+
+        //
+        // One batch at a time, so that each is (re)sent under a Request ID of its own.
+        //
+        try
+        {
+            for (List<PortChange> batch : BATCHES)
+            {
+                pipeline.submit(batch);
+                awaitDrained(pipeline);
+            }
+        }
+        finally
+        {
+            pipeline.shutdown();
+        }
+
+        assertTrue(FlakySwitchService.refusals.get() > 0, "The link never refused a connection");
+        assertTrue(FlakySwitchService.lostRequests.get() > 0, "The link never lost a request");
+        assertTrue(FlakySwitchService.lostReplies.get() > 0, "The link never lost a reply");
+        for (String failure : failures)
+        {
+            assertTrue(failure.startsWith("Switch unavailable"), "Batch failed: " + failure);
+        }
+
+        //
+        // Final Port Map.
+        //
+        Map<Integer, BitSet> portMap = switchService.getConfiguration().getPortMap();
+        assertEquals(group(40), portMap.get(3));
+        assertEquals(group(42, 46), portMap.get(4));
+        assertEquals(group(43), portMap.get(5));
+        assertEquals(group(44, 45), portMap.get(6));
+
+        //
+        // Exactly once: every change appears in the audit trail as applied once, and nothing else was applied.
+        //
+        Map<String, Integer> applied = new HashMap<String, Integer>();
+        for (AuditEvent event : switchService.queryAudit(0, 0, startTime, 0, 1000))
+        {
+            int inputPort = event.getChange().getInputPort();
+            if (event.isSucceeded() && inputPort >= 3 && inputPort <= 6)
+            {
+                String change = event.getChange().toString();
+                applied.put(change, applied.containsKey(change) ? applied.get(change) + 1 : 1);
+            }
+        }
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (List<PortChange> batch : BATCHES)
+        {
+            for (PortChange change : batch)
+            {
+                expected.put(change.toString(), 1);
+            }
+        }
+        assertEquals(expected, applied);
+    }
+
+
+    /**
+     * Wait until the pipeline has nothing left to send.
+     */
+    private static void awaitDrained(CommandPipeline pipeline) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + BATCH_TIMEOUT_MILLIS;
+        while (!pipeline.getOutstandingChanges().isEmpty())
+        {
+            assertTrue(System.currentTimeMillis() < deadline, "Batch not sent within " + BATCH_TIMEOUT_MILLIS + " ms");
+            Thread.sleep(50);
+        }
+    }
+
+
+    private static BitSet group(int... outputPorts)
+    {
+        BitSet group = new BitSet();
+        for (int outputPort : outputPorts)
+        {
+            group.set(outputPort);
+        }
+        return group;
+    }
+}
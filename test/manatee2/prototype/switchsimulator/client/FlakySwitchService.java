@@ -0,0 +1,315 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import manatee2.prototype.switchsimulator.server.SwitchService;
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchUnavailableException;
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
+
+
+/**
+ * Stand-in for a Switch Service reached over an unreliable link, for testing how clients cope with outages.
+ * 
+ * Each connection fails at random: either the request never arrives, or it is carried out but the reply is lost. Once
+ * a connection has failed it stays dead, so the client has to reconnect (create a new instance); connecting can fail
+ * too. Behind the link is the real (shared) Switch.
+ */
+public class FlakySwitchService implements SwitchServiceApi
+{
+    /**
+     * Failures injected so far, by kind, across every instance.
+     */
+    static final AtomicInteger refusals = new AtomicInteger();
+    static final AtomicInteger lostRequests = new AtomicInteger();
+    static final AtomicInteger lostReplies = new AtomicInteger();
+
+    private final Random random;
+    private final SwitchService switchService;
+    private final double failureRate;
+    private volatile boolean dropped;
+
+
+    /**
+     * Connect.
+     * 
+     * @param clientId - Identity under-which this client locks and reserves Ports.
+     * @param random - Decides which connections and requests fail (seeded, for a repeatable run).
+     * @param failureRate - Probability (0 to 1) of a connection attempt or a request failing.
+     * 
+     * @throws SwitchUnavailableException If the connection attempt fails.
+     */
+    public FlakySwitchService(String clientId, Random random, double failureRate) throws Exception
+    {
+        this.random = random;
+        this.failureRate = failureRate;
+        if (random.nextDouble() < failureRate)
+        {
+            refusals.incrementAndGet();
+            throw new SwitchUnavailableException("Connection refused");
+        }
+        this.switchService = new SwitchService(clientId);
+    }
+
+
+    /**
+     * Before each request: the link may already be down, or drop before the request gets through.
+     */
+    private void send() throws SwitchUnavailableException
+    {
+        if (dropped)
+        {
+            throw new SwitchUnavailableException("Connection closed");
+        }
+        if (random.nextDouble() < failureRate / 2)
+        {
+            dropped = true;
+            lostRequests.incrementAndGet();
+            throw new SwitchUnavailableException("Connection reset (request lost)");
+        }
+    }
+
+
+    /**
+     * After each request: the link may drop before the reply gets back, although the request was carried out.
+     */
+    private <T> T reply(T result) throws SwitchUnavailableException
+    {
+        if (random.nextDouble() < failureRate / 2)
+        {
+            dropped = true;
+            lostReplies.incrementAndGet();
+            throw new SwitchUnavailableException("Connection reset (reply lost)");
+        }
+        return result;
+    }
+
+
+    @Override
+    public String getClientId()
+    {
+        return switchService.getClientId();
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfiguration() throws Exception
+    {
+        send();
+        return reply(switchService.getConfiguration());
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfigurationIfChanged(long epoch, long version) throws Exception
+    {
+        send();
+        return reply(switchService.getConfigurationIfChanged(epoch, version));
+    }
+
+
+    @Override
+    public SwitchConfiguration awaitConfigurationChange(long epoch, long version, long timeoutMillis)
+            throws Exception
+    {
+        send();
+        return reply(switchService.awaitConfigurationChange(epoch, version, timeoutMillis));
+    }
+
+
+    @Override
+    public SwitchConfiguration resize(int numInputPorts, int numOutputPorts) throws Exception
+    {
+        send();
+        return reply(switchService.resize(numInputPorts, numOutputPorts));
+    }
+
+
+    @Override
+    public PortMetadata getPortMetadata(boolean ingress, int firstPort, int maxPorts) throws Exception
+    {
+        send();
+        return reply(switchService.getPortMetadata(ingress, firstPort, maxPorts));
+    }
+
+
+    @Override
+    public void setPortMetadata(boolean ingress, int port, String name, String description, List<String> tags,
+            boolean adminUp) throws Exception
+    {
+        send();
+        switchService.setPortMetadata(ingress, port, name, description, tags, adminUp);
+        reply(null);
+    }
+
+
+    @Override
+    public SwitchConfiguration connect(int inputPort, int outputPort) throws Exception
+    {
+        send();
+        return reply(switchService.connect(inputPort, outputPort));
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(int inputPort) throws Exception
+    {
+        send();
+        return reply(switchService.disconnect(inputPort));
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(int inputPort, int outputPort) throws Exception
+    {
+        send();
+        return reply(switchService.disconnect(inputPort, outputPort));
+    }
+
+
+    @Override
+    public SwitchConfiguration connectGroup(int inputPort, int[] outputPorts) throws Exception
+    {
+        send();
+        return reply(switchService.connectGroup(inputPort, outputPorts));
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnectAll() throws Exception
+    {
+        send();
+        return reply(switchService.disconnectAll());
+    }
+
+
+    @Override
+    public SwitchConfiguration applyChanges(List<PortChange> changes) throws Exception
+    {
+        send();
+        return reply(switchService.applyChanges(changes));
+    }
+
+
+    @Override
+    public SwitchConfiguration applyChanges(String requestId, List<PortChange> changes) throws Exception
+    {
+        send();
+        return reply(switchService.applyChanges(requestId, changes));
+    }
+
+
+    @Override
+    public List<String> validateChanges(List<PortChange> changes) throws Exception
+    {
+        send();
+        return reply(switchService.validateChanges(changes));
+    }
+
+
+    @Override
+    public List<AuditEvent> queryAudit(int inputPort, int outputPort, long startTime, long endTime, int maxEvents)
+            throws Exception
+    {
+        send();
+        return reply(switchService.queryAudit(inputPort, outputPort, startTime, endTime, maxEvents));
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfigurationAt(long time) throws Exception
+    {
+        send();
+        return reply(switchService.getConfigurationAt(time));
+    }
+
+
+    @Override
+    public long getHistoryStart() throws Exception
+    {
+        send();
+        return reply(switchService.getHistoryStart());
+    }
+
+
+    @Override
+    public void reservePorts(int[] inputPorts, int[] outputPorts, long leaseMillis) throws Exception
+    {
+        send();
+        switchService.reservePorts(inputPorts, outputPorts, leaseMillis);
+        reply(null);
+    }
+
+
+    @Override
+    public void releasePorts(int[] inputPorts, int[] outputPorts) throws Exception
+    {
+        send();
+        switchService.releasePorts(inputPorts, outputPorts);
+        reply(null);
+    }
+
+
+    @Override
+    public long scheduleConnect(int inputPort, int outputPort, long startTime, long endTime) throws Exception
+    {
+        send();
+        return reply(switchService.scheduleConnect(inputPort, outputPort, startTime, endTime));
+    }
+
+
+    @Override
+    public long scheduleDisconnect(int inputPort, long startTime) throws Exception
+    {
+        send();
+        return reply(switchService.scheduleDisconnect(inputPort, startTime));
+    }
+
+
+    @Override
+    public boolean cancelSchedule(long scheduleId) throws Exception
+    {
+        send();
+        return reply(switchService.cancelSchedule(scheduleId));
+    }
+
+
+    @Override
+    public int getNumScheduled() throws Exception
+    {
+        send();
+        return reply(switchService.getNumScheduled());
+    }
+
+
+    @Override
+    public void startTraffic(long framesPerSecond) throws Exception
+    {
+        send();
+        switchService.startTraffic(framesPerSecond);
+        reply(null);
+    }
+
+
+    @Override
+    public void stopTraffic() throws Exception
+    {
+        send();
+        switchService.stopTraffic();
+        reply(null);
+    }
+
+
+    @Override
+    public TrafficStatistics getTrafficStatistics() throws Exception
+    {
+        send();
+        return reply(switchService.getTrafficStatistics());
+    }
+}
@@ -0,0 +1,584 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javafx.application.Platform;
+import javafx.scene.Parent;
+import javafx.scene.control.Button;
+import javafx.stage.Stage;
+
+
+/**
+ * Performance benchmark of the Switch Simulator GUI, for catching regressions in setup(), establishPortMapping() and
+ * colorCodeAllButtons().
+ * 
+ * For each size (32 to 8192 Ingress and Egress Ports by default, or the sizes given as arguments) it builds the GUI
+ * over a SyntheticSwitchService and measures:
+ * <ul>
+ * <li>scene build time (setup plus the first CSS and layout pass) and the heap it takes;</li>
+ * <li>a full CSS pass, establishPortMapping() and colorCodeAllButtons() on their own;</li>
+ * <li>FX-thread latency of clicking Ingress/Egress buttons (the handler plus the CSS and layout pass it causes);</li>
+ * <li>end-to-end Connect and Disconnect All, from the click until the grid shows the result (this includes the Command
+ * Pipeline's coalescing window).</li>
+ * </ul>
+ * 
+ * It runs headless when Monocle is on the class path (unless {@code -Dbenchmark.display=true}), otherwise on the
+ * default platform, which needs a display. {@code mvn -Pbenchmark test-compile exec:exec} runs it with Monocle, and
+ * {@link SwitchSimulatorBenchmarkTest} holds the smaller sizes to fixed budgets under {@code mvn test}.
+ * 
+ * Given a baseline file ({@code -Dbenchmark.baseline}), it compares the build, CSS and click (p50 and p99) times of
+ * each size with the baseline's, and exits with status 2 if any is more than {@code benchmark.tolerance} (a fraction,
+ * 0.5 by default) and MIN_REGRESSION_MILLIS above it. If the file does not exist yet, or with
+ * {@code -Dbenchmark.update=true}, it records the results as the baseline instead. Timings only compare on the
+ * machine they were recorded on.
+ */
+public class SwitchSimulatorBenchmark
+{
+    private static final int[] DEFAULT_PORT_COUNTS = { 32, 128, 512, 2048, 8192 };
+
+    /**
+     * Samples per measurement.
+     */
+    private static final int NUM_CLICKS = 200;
+    private static final int NUM_REPEATS = 5;
+    private static final int NUM_CONNECTS = 5;
+
+    /**
+     * Longest a Connect or Disconnect All may take to reach the grid.
+     */
+    private static final long FLOW_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Smallest slowdown counted as a regression, whatever the tolerance (sub-millisecond timings are mostly noise).
+     */
+    private static final double MIN_REGRESSION_MILLIS = 1.0;
+
+    private static final double DEFAULT_TOLERANCE = 0.5;
+
+    /**
+     * Exit status when a measurement regressed past the tolerance.
+     */
+    private static final int REGRESSION_STATUS = 2;
+
+    private static int[] portCounts = DEFAULT_PORT_COUNTS;
+
+
+    /**
+     * Results for one size.
+     */
+    static class Result
+    {
+        int numPorts;
+        double buildMillis;
+        double heapMegabytes;
+        double cssMillis;
+        double mappingMillis;
+        double colorCodeMillis;
+        double[] clickMillis;
+        double connectMillis;
+        double disconnectAllMillis;
+    }
+
+
+    /**
+     * Entry point.
+     * 
+     * @param args - Port counts to benchmark (each a multiple of 8), or none for the defaults.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length > 0)
+        {
+            portCounts = new int[args.length];
+            for (int index = 0; index < args.length; index++)
+            {
+                portCounts[index] = Integer.parseInt(args[index]);
+            }
+        }
+        startToolkit();
+
+        int status = 0;
+        try
+        {
+            System.out.println(String.format("%6s %10s %9s %8s %11s %11s %10s %10s %10s %15s",
+                    "Ports", "Build(ms)", "Heap(MB)", "CSS(ms)", "Mapping(ms)", "Colour(ms)",
+                    "Click p50", "Click p99", "Click max", "Connect/All(ms)"));
+            List<Result> results = new ArrayList<Result>();
+            for (int numPorts : portCounts)
+            {
+                Result result = benchmark(numPorts);
+                print(result);
+                results.add(result);
+            }
+
+            String baseline = System.getProperty("benchmark.baseline");
+            if (baseline != null)
+            {
+                File baselineFile = new File(baseline);
+                if (Boolean.getBoolean("benchmark.update") || !baselineFile.isFile())
+                {
+                    recordBaseline(baselineFile, results);
+                }
+                else if (!compareWithBaseline(baselineFile, results,
+                        Double.parseDouble(System.getProperty("benchmark.tolerance", "" + DEFAULT_TOLERANCE))))
+                {
+                    status = REGRESSION_STATUS;
+                }
+            }
+        }
+        catch (Exception exception)
+        {
+            System.err.println("Benchmark failed: " + exception.getMessage());
+            exception.printStackTrace(System.err);
+            status = 1;
+        }
+        Platform.exit();
+        System.exit(status);
+    }
+
+
+    /**
+     * Start the toolkit (headless if possible, see configurePlatform) without an Application, so that the benchmark
+     * also runs from the class path, and keep it running while each size's Stage is closed.
+     */
+    static void startToolkit()
+    {
+        configurePlatform();
+        Platform.startup(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        });
+        Platform.setImplicitExit(false);
+    }
+
+
+    /**
+     * Use Monocle's headless platform, if it is available and a display has not been asked for. Must be called before
+     * the toolkit starts.
+     */
+    private static void configurePlatform()
+    {
+        if (Boolean.getBoolean("benchmark.display"))
+        {
+            return;
+        }
+        try
+        {
+            Class.forName("com.sun.glass.ui.monocle.MonoclePlatformFactory");
+        }
+        catch (ClassNotFoundException exception)
+        {
+            System.err.println("Monocle is not on the class path; running on the default platform");
+            return;
+        }
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        System.setProperty("java.awt.headless", "true");
+    }
+
+
+    /**
+     * Benchmark one size.
+     */
+    static Result benchmark(final int numPorts) throws Exception
+    {
+        final Result result = new Result();
+        result.numPorts = numPorts;
+
+        File cacheFile = File.createTempFile("switchsimulator-benchmark", ".ser");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+        final SwitchSimulator simulator = new SwitchSimulator(
+                new SyntheticSwitchService(numPorts, numPorts, numPorts), new ConfigurationCache(cacheFile));
+        final Stage stage = onFxThread(new Callable<Stage>()
+        {
+            @Override
+            public Stage call()
+            {
+                return new Stage();
+            }
+        });
+
+        //
+        // Scene build, and the heap it holds on to.
+        //
+        long heapBefore = usedHeap();
+        result.buildMillis = onFxThread(new Callable<Double>()
+        {
+            @Override
+            public Double call() throws Exception
+            {
+                long start = System.nanoTime();
+                simulator.setup(stage);
+                pulse(stage);
+                return millisSince(start);
+            }
+        });
+        result.heapMegabytes = (usedHeap() - heapBefore) / (1024.0 * 1024.0);
+
+        try
+        {
+            //
+            // Full CSS pass, establishPortMapping() and colorCodeAllButtons(), each on their own.
+            //
+            double[] samples = onFxThread(new Callable<double[]>()
+            {
+                @Override
+                public double[] call()
+                {
+                    Parent root = stage.getScene().getRoot();
+                    double[] css = new double[NUM_REPEATS];
+                    double[] mapping = new double[NUM_REPEATS];
+                    double[] colorCode = new double[NUM_REPEATS];
+                    for (int repeat = 0; repeat < NUM_REPEATS; repeat++)
+                    {
+                        //
+                        // Changing the root's style classes makes the whole tree re-apply its CSS.
+                        //
+                        root.getStyleClass().add("benchmark");
+                        long start = System.nanoTime();
+                        root.applyCss();
+                        css[repeat] = millisSince(start);
+                        root.getStyleClass().remove("benchmark");
+                        pulse(stage);
+
+                        start = System.nanoTime();
+                        simulator.establishPortMapping();
+                        mapping[repeat] = millisSince(start);
+                        pulse(stage);
+
+                        start = System.nanoTime();
+                        simulator.colorCodeAllButtons();
+                        colorCode[repeat] = millisSince(start);
+                        pulse(stage);
+                    }
+                    return new double[] { median(css), median(mapping), median(colorCode) };
+                }
+            });
+            result.cssMillis = samples[0];
+            result.mappingMillis = samples[1];
+            result.colorCodeMillis = samples[2];
+
+            //
+            // Clicks on random Ingress and Egress buttons, alternately.
+            //
+            result.clickMillis = onFxThread(new Callable<double[]>()
+            {
+                @Override
+                public double[] call()
+                {
+                    Random random = new Random(numPorts);
+                    SwitchButton[] ingressButtons = simulator.getIngressButtons();
+                    SwitchButton[] egressButtons = simulator.getEgressButtons();
+                    double[] clicks = new double[NUM_CLICKS];
+                    for (int click = 0; click < NUM_CLICKS; click++)
+                    {
+                        SwitchButton[] buttons = click % 2 == 0 ? ingressButtons : egressButtons;
+                        SwitchButton button = buttons[random.nextInt(buttons.length)];
+                        long start = System.nanoTime();
+                        button.fire();
+                        pulse(stage);
+                        clicks[click] = millisSince(start);
+                    }
+                    Arrays.sort(clicks);
+                    return clicks;
+                }
+            });
+
+            //
+            // Connect: select a free Ingress and a free Egress, click Connect, wait for the grid to pair them.
+            //
+            double[] connects = new double[NUM_CONNECTS];
+            for (int connect = 0; connect < NUM_CONNECTS; connect++)
+            {
+                final SwitchButton[] pair = onFxThread(new Callable<SwitchButton[]>()
+                {
+                    @Override
+                    public SwitchButton[] call() throws Exception
+                    {
+                        SwitchButton ingressButton = firstUnpaired(simulator.getIngressButtons());
+                        SwitchButton egressButton = firstUnpaired(simulator.getEgressButtons());
+                        if (ingressButton == null || egressButton == null)
+                        {
+                            throw new Exception("No free Ports left to connect");
+                        }
+
+                        //
+                        // Clicking an already-selected button would deselect it.
+                        //
+                        simulator.clearSelection();
+                        ingressButton.fire();
+                        egressButton.fire();
+                        if (simulator.getConnectButton().isDisabled())
+                        {
+                            throw new Exception("Connect is disabled for " + ingressButton.getPortNumber() + " to "
+                                    + egressButton.getPortNumber());
+                        }
+                        return new SwitchButton[] { ingressButton, egressButton };
+                    }
+                });
+                connects[connect] = timeFlow(simulator.getConnectButton(), new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return pair[0].isPairedWith(pair[1]);
+                    }
+                });
+            }
+            result.connectMillis = median(connects);
+
+            //
+            // Disconnect All: wait for every pairing to disappear from the grid.
+            //
+            result.disconnectAllMillis = timeFlow(simulator.getDisconnectAllButton(), new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return firstPaired(simulator.getIngressButtons()) == null;
+                }
+            });
+        }
+        finally
+        {
+            simulator.shutdown();
+            onFxThread(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    stage.close();
+                    return null;
+                }
+            });
+        }
+        return result;
+    }
+
+
+    /**
+     * Click a Control Button and wait until the grid shows the outcome.
+     * 
+     * @return Milliseconds from the click until the condition held.
+     */
+    private static double timeFlow(final Button button, Callable<Boolean> done) throws Exception
+    {
+        long start = System.nanoTime();
+        onFxThread(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                button.fire();
+                return null;
+            }
+        });
+        while (!onFxThread(done))
+        {
+            if (millisSince(start) > FLOW_TIMEOUT_MILLIS)
+            {
+                throw new Exception(button.getText() + " did not reach the grid within " + FLOW_TIMEOUT_MILLIS + "ms");
+            }
+            Thread.sleep(1);
+        }
+        return millisSince(start);
+    }
+
+
+    private static void print(Result result)
+    {
+        double[] clicks = result.clickMillis;
+        System.out.println(String.format("%6d %10.1f %9.1f %8.2f %11.2f %11.2f %10.2f %10.2f %10.2f %7.0f/%-7.0f",
+                result.numPorts, result.buildMillis, result.heapMegabytes, result.cssMillis, result.mappingMillis,
+                result.colorCodeMillis, clicks[clicks.length / 2], clicks[(int) (clicks.length * 0.99)],
+                clicks[clicks.length - 1], result.connectMillis, result.disconnectAllMillis));
+    }
+
+
+    /**
+     * The measurements a baseline holds for a size, by name.
+     */
+    private static Properties measurements(Result result)
+    {
+        double[] clicks = result.clickMillis;
+        Properties measurements = new Properties();
+        measurements.setProperty(result.numPorts + ".build", "" + result.buildMillis);
+        measurements.setProperty(result.numPorts + ".css", "" + result.cssMillis);
+        measurements.setProperty(result.numPorts + ".clickP50", "" + clicks[clicks.length / 2]);
+        measurements.setProperty(result.numPorts + ".clickP99", "" + clicks[(int) (clicks.length * 0.99)]);
+        return measurements;
+    }
+
+
+    /**
+     * Save the results as the baseline, adding to (or replacing the same sizes in) any baseline already there.
+     */
+    private static void recordBaseline(File file, List<Result> results) throws IOException
+    {
+        Properties baseline = new Properties();
+        if (file.isFile())
+        {
+            try (InputStream input = new FileInputStream(file))
+            {
+                baseline.load(input);
+            }
+        }
+        for (Result result : results)
+        {
+            baseline.putAll(measurements(result));
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create " + directory);
+        }
+        try (OutputStream output = new FileOutputStream(file))
+        {
+            baseline.store(output, "SwitchSimulatorBenchmark baseline (milliseconds), on "
+                    + System.getProperty("os.name") + " " + System.getProperty("os.arch") + " with "
+                    + Runtime.getRuntime().availableProcessors() + " processor(s)");
+        }
+        System.out.println("Recorded the baseline in " + file);
+    }
+
+
+    /**
+     * Compare the results with the baseline. Sizes or measurements the baseline does not have are not compared.
+     * 
+     * @return True if none regressed past the tolerance.
+     */
+    private static boolean compareWithBaseline(File file, List<Result> results, double tolerance) throws IOException
+    {
+        Properties baseline = new Properties();
+        try (InputStream input = new FileInputStream(file))
+        {
+            baseline.load(input);
+        }
+
+        boolean passed = true;
+        for (Result result : results)
+        {
+            Properties measurements = measurements(result);
+            for (String name : new TreeSet<String>(measurements.stringPropertyNames()))
+            {
+                String expected = baseline.getProperty(name);
+                if (expected == null)
+                {
+                    continue;
+                }
+                double baselineMillis = Double.parseDouble(expected);
+                double millis = Double.parseDouble(measurements.getProperty(name));
+                double limit = Math.max(baselineMillis * (1 + tolerance), baselineMillis + MIN_REGRESSION_MILLIS);
+                if (millis > limit)
+                {
+                    System.err.println(String.format("Regression: %s took %.2f ms, baseline %.2f ms (limit %.2f ms)",
+                            name, millis, baselineMillis, limit));
+                    passed = false;
+                }
+            }
+        }
+        System.out.println((passed ? "Within " : "Regressed past ") + Math.round(tolerance * 100)
+                + "% of the baseline in " + file);
+        return passed;
+    }
+
+
+    /**
+     * Do the CSS and layout work the next pulse would do.
+     */
+    private static void pulse(Stage stage)
+    {
+        Parent root = stage.getScene().getRoot();
+        root.applyCss();
+        root.layout();
+    }
+
+
+    private static SwitchButton firstUnpaired(SwitchButton[] buttons)
+    {
+        for (SwitchButton button : buttons)
+        {
+            if (button.getPairedPort() == null)
+            {
+                return button;
+            }
+        }
+        return null;
+    }
+
+
+    private static SwitchButton firstPaired(SwitchButton[] buttons)
+    {
+        for (SwitchButton button : buttons)
+        {
+            if (button.getPairedPort() != null)
+            {
+                return button;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Run on the FX thread and wait for the result.
+     */
+    static <T> T onFxThread(Callable<T> callable) throws Exception
+    {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        Platform.runLater(task);
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException exception)
+        {
+            throw exception.getCause() instanceof Exception ? (Exception) exception.getCause() : exception;
+        }
+    }
+
+
+    private static long usedHeap() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int pass = 0; pass < 3; pass++)
+        {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    private static double millisSince(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1000000.0;
+    }
+
+
+    private static double median(double[] samples)
+    {
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
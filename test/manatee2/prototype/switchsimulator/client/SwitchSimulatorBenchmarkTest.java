@@ -0,0 +1,117 @@
+package manatee2.prototype.switchsimulator.client;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.Callable;
+
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+/**
+ * Runs the GUI benchmark headless (see {@link SwitchSimulatorBenchmark}) and holds each size to latency and throughput
+ * budgets an operator would notice being missed: a click must repaint within a frame or two, and the flows must feel
+ * immediate. The budgets are absolute, with room for a slow build machine; the benchmark's baseline comparison is what
+ * catches smaller regressions.
+ * 
+ * It is skipped where JavaFX cannot lay out text headless (no Monocle on the class path, or no native font libraries),
+ * unless {@code -Dbenchmark.required=true}, which makes that a failure (for build machines meant to run it).
+ */
+public class SwitchSimulatorBenchmarkTest
+{
+    /**
+     * Budgets at 2048 Ports; smaller sizes get the same ones.
+     */
+    private static final double BUILD_BUDGET_MILLIS = 5000;
+    private static final double CSS_BUDGET_MILLIS = 1000;
+    private static final double CLICK_P99_BUDGET_MILLIS = 50;
+    private static final double MIN_CLICKS_PER_SECOND = 50;
+    private static final double CONNECT_BUDGET_MILLIS = 1000;
+    private static final double DISCONNECT_ALL_BUDGET_MILLIS = 2000;
+    private static final double HEAP_BUDGET_MEGABYTES = 256;
+
+    private static String unavailable;
+
+
+    @BeforeAll
+    public static void startToolkit()
+    {
+        try
+        {
+            Class.forName("com.sun.glass.ui.monocle.MonoclePlatformFactory");
+        }
+        catch (ClassNotFoundException exception)
+        {
+            unavailable = "Monocle is not on the class path";
+            return;
+        }
+        try
+        {
+            SwitchSimulatorBenchmark.startToolkit();
+
+            //
+            // Lay out some text, which needs the native font libraries.
+            //
+            SwitchSimulatorBenchmark.onFxThread(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    Label label = new Label("Port 1");
+                    new Scene(new Group(label));
+                    label.applyCss();
+                    label.prefWidth(-1);
+                    return null;
+                }
+            });
+        }
+        catch (Throwable throwable)
+        {
+            unavailable = "JavaFX cannot lay out text headless here: " + throwable;
+        }
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(ints = { 32, 512, 2048 })
+    public void staysWithinBudget(int numPorts) throws Exception
+    {
+        if (Boolean.getBoolean("benchmark.required"))
+        {
+            assertNull(unavailable, unavailable);
+        }
+        assumeTrue(unavailable == null, unavailable);
+
+        SwitchSimulatorBenchmark.Result result = SwitchSimulatorBenchmark.benchmark(numPorts);
+        double[] clicks = result.clickMillis;
+        double clickSeconds = 0;
+        for (double click : clicks)
+        {
+            clickSeconds += click / 1000;
+        }
+
+        assertWithin(numPorts + " Ports: Scene build", result.buildMillis, BUILD_BUDGET_MILLIS);
+        assertWithin(numPorts + " Ports: CSS pass", result.cssMillis, CSS_BUDGET_MILLIS);
+        assertWithin(numPorts + " Ports: Click p99", clicks[(int) (clicks.length * 0.99)], CLICK_P99_BUDGET_MILLIS);
+        assertTrue(clicks.length / clickSeconds >= MIN_CLICKS_PER_SECOND, String.format(
+                "%d Ports: %.1f clicks/s, below %.0f", numPorts, clicks.length / clickSeconds, MIN_CLICKS_PER_SECOND));
+        assertWithin(numPorts + " Ports: Connect", result.connectMillis, CONNECT_BUDGET_MILLIS);
+        assertWithin(numPorts + " Ports: Disconnect All", result.disconnectAllMillis, DISCONNECT_ALL_BUDGET_MILLIS);
+        assertTrue(result.heapMegabytes <= HEAP_BUDGET_MEGABYTES, String.format(
+                "%d Ports: scene took %.1f MB, over %.0f", numPorts, result.heapMegabytes, HEAP_BUDGET_MEGABYTES));
+    }
+
+
+    private static void assertWithin(String name, double millis, double budgetMillis)
+    {
+        assertTrue(millis <= budgetMillis, String.format("%s took %.2f ms, over its %.0f ms budget", name, millis,
+                budgetMillis));
+    }
+}
@@ -0,0 +1,376 @@
+package manatee2.prototype.switchsimulator.client;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import manatee2.prototype.switchsimulator.shared.AuditEvent;
+import manatee2.prototype.switchsimulator.shared.PortChange;
+import manatee2.prototype.switchsimulator.shared.PortMetadata;
+import manatee2.prototype.switchsimulator.shared.SwitchConfiguration;
+import manatee2.prototype.switchsimulator.shared.SwitchServiceApi;
+import manatee2.prototype.switchsimulator.shared.SwitchValidator;
+import manatee2.prototype.switchsimulator.shared.TrafficStatistics;
+
+
+/**
+ * In-memory Switch of any size, with no hardware delay, for benchmarking the GUI (see SwitchSimulatorBenchmark).
+ * 
+ * It starts with a random mapping: about half the Ingress Ports each feed a few free Egress Ports. Port Changes are
+ * checked as the real Switch checks them. Every Port has generated metadata, drawn from a few descriptions and tags
+ * as a real inventory would be. Audit, history, reservations, scheduling and traffic are not simulated.
+ */
+class SyntheticSwitchService implements SwitchServiceApi
+{
+    /**
+     * A synthetic Switch never restarts, so it has one epoch; generated metadata never changes.
+     */
+    private static final long EPOCH = 1;
+    private static final long METADATA_VERSION = 1;
+    private static final String[] DESCRIPTIONS = { "Carrier hand-off", "Core router", "Customer circuit", "Lab" };
+    private static final String[] TAGS = { "uplink", "core", "customer", "test", "spare" };
+
+    /**
+     * Geometry, group of Egress Ports each mapped Ingress Port feeds, and version. All guarded by this.
+     */
+    private int numInputPorts;
+    private int numOutputPorts;
+    private final Map<Integer, BitSet> portMap = new HashMap<Integer, BitSet>();
+    private long version = 1;
+
+
+    /**
+     * @param numInputPorts - Number of Ingress Ports (a multiple of 8).
+     * @param numOutputPorts - Number of Egress Ports (a multiple of 8).
+     * @param seed - Seed for the initial mapping, so runs are comparable.
+     */
+    SyntheticSwitchService(int numInputPorts, int numOutputPorts, long seed)
+    {
+        this.numInputPorts = numInputPorts;
+        this.numOutputPorts = numOutputPorts;
+
+        Random random = new Random(seed);
+        BitSet used = new BitSet(numOutputPorts + 1);
+        for (int inputPort = 1; inputPort <= numInputPorts; inputPort++)
+        {
+            if (random.nextBoolean())
+            {
+                continue;
+            }
+            BitSet group = new BitSet(numOutputPorts + 1);
+            for (int count = 1 + random.nextInt(3); count > 0; count--)
+            {
+                int outputPort = 1 + random.nextInt(numOutputPorts);
+                if (!used.get(outputPort))
+                {
+                    used.set(outputPort);
+                    group.set(outputPort);
+                }
+            }
+            if (!group.isEmpty())
+            {
+                portMap.put(inputPort, group);
+            }
+        }
+    }
+
+
+    @Override
+    public String getClientId()
+    {
+        return "benchmark";
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration getConfiguration()
+    {
+        Map<Integer, BitSet> copy = new HashMap<Integer, BitSet>();
+        for (Map.Entry<Integer, BitSet> entry : portMap.entrySet())
+        {
+            copy.put(entry.getKey(), (BitSet) entry.getValue().clone());
+        }
+        SwitchConfiguration switchConfiguration = new SwitchConfiguration(numInputPorts, numOutputPorts, copy, version);
+        switchConfiguration.setEpoch(EPOCH);
+        switchConfiguration.setMetadataVersion(METADATA_VERSION);
+        return switchConfiguration;
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration getConfigurationIfChanged(long epoch, long version)
+    {
+        return epoch == EPOCH && version == this.version ? null : getConfiguration();
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration awaitConfigurationChange(long epoch, long version, long timeoutMillis)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (epoch == EPOCH && version == this.version)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                return null;
+            }
+            wait(remaining);
+        }
+        return getConfiguration();
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration resize(int numInputPorts, int numOutputPorts) throws Exception
+    {
+        List<String> violations = SwitchValidator.validateGeometry(numInputPorts, numOutputPorts);
+        if (!violations.isEmpty())
+        {
+            throw new Exception(SwitchValidator.toMessage(violations));
+        }
+        this.numInputPorts = numInputPorts;
+        this.numOutputPorts = numOutputPorts;
+        Iterator<Map.Entry<Integer, BitSet>> entries = portMap.entrySet().iterator();
+        while (entries.hasNext())
+        {
+            Map.Entry<Integer, BitSet> entry = entries.next();
+            if (entry.getKey() > numInputPorts)
+            {
+                entries.remove();
+                continue;
+            }
+            entry.getValue().clear(numOutputPorts + 1, Math.max(numOutputPorts + 1, entry.getValue().length()));
+            if (entry.getValue().isEmpty())
+            {
+                entries.remove();
+            }
+        }
+        return changed();
+    }
+
+
+    @Override
+    public synchronized PortMetadata getPortMetadata(boolean ingress, int firstPort, int maxPorts) throws Exception
+    {
+        int numPorts = ingress ? numInputPorts : numOutputPorts;
+        if (firstPort < 1 || firstPort > numPorts || maxPorts < 1)
+        {
+            throw new Exception("Invalid page of " + maxPorts + " from Port " + firstPort);
+        }
+        PortMetadata page =
+                new PortMetadata(ingress, firstPort, Math.min(maxPorts, numPorts - firstPort + 1), METADATA_VERSION);
+        page.setEpoch(EPOCH);
+        for (int port = firstPort; port < firstPort + page.getNumPorts(); port++)
+        {
+            page.setPort(port, (ingress ? "IN-" : "OUT-") + port, DESCRIPTIONS[port % DESCRIPTIONS.length],
+                    Collections.singletonList(TAGS[port % TAGS.length]), port % 50 != 0);
+        }
+        return page;
+    }
+
+
+    @Override
+    public void setPortMetadata(boolean ingress, int port, String name, String description, List<String> tags,
+            boolean adminUp) throws Exception
+    {
+        throw new Exception("Metadata is generated");
+    }
+
+
+    @Override
+    public SwitchConfiguration connect(int inputPort, int outputPort) throws Exception
+    {
+        return applyChanges(Collections.singletonList(PortChange.connect(inputPort, outputPort)));
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(int inputPort) throws Exception
+    {
+        return applyChanges(Collections.singletonList(PortChange.disconnect(inputPort)));
+    }
+
+
+    @Override
+    public SwitchConfiguration disconnect(int inputPort, int outputPort) throws Exception
+    {
+        return applyChanges(Collections.singletonList(PortChange.disconnect(inputPort, outputPort)));
+    }
+
+
+    @Override
+    public SwitchConfiguration connectGroup(int inputPort, int[] outputPorts) throws Exception
+    {
+        List<PortChange> changes = new ArrayList<PortChange>();
+        changes.add(PortChange.disconnect(inputPort));
+        for (int outputPort : outputPorts)
+        {
+            changes.add(PortChange.connect(inputPort, outputPort));
+        }
+        return applyChanges(changes);
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration disconnectAll()
+    {
+        portMap.clear();
+        return changed();
+    }
+
+
+    @Override
+    public synchronized SwitchConfiguration applyChanges(List<PortChange> changes) throws Exception
+    {
+        List<String> violations = validateChanges(changes);
+        if (!violations.isEmpty())
+        {
+            throw new Exception(SwitchValidator.toMessage(violations));
+        }
+        for (PortChange change : changes)
+        {
+            BitSet group = portMap.get(change.getInputPort());
+            if (change.getAction() == PortChange.Action.CONNECT)
+            {
+                if (group == null)
+                {
+                    group = new BitSet(numOutputPorts + 1);
+                    portMap.put(change.getInputPort(), group);
+                }
+                group.set(change.getOutputPort());
+            }
+            else if (group != null)
+            {
+                if (change.getOutputPort() == 0)
+                {
+                    group.clear();
+                }
+                else
+                {
+                    group.clear(change.getOutputPort());
+                }
+                if (group.isEmpty())
+                {
+                    portMap.remove(change.getInputPort());
+                }
+            }
+        }
+        return changed();
+    }
+
+
+    @Override
+    public SwitchConfiguration applyChanges(String requestId, List<PortChange> changes) throws Exception
+    {
+        return applyChanges(changes);
+    }
+
+
+    /**
+     * Move to the next version, waking anyone waiting for it. Called holding this.
+     */
+    private SwitchConfiguration changed()
+    {
+        version++;
+        notifyAll();
+        return getConfiguration();
+    }
+
+
+    @Override
+    public synchronized List<String> validateChanges(List<PortChange> changes)
+    {
+        return SwitchValidator.forConfiguration(getConfiguration()).validateChanges(changes);
+    }
+
+
+    @Override
+    public List<AuditEvent> queryAudit(int inputPort, int outputPort, long startTime, long endTime, int maxEvents)
+    {
+        return new ArrayList<AuditEvent>();
+    }
+
+
+    @Override
+    public SwitchConfiguration getConfigurationAt(long time)
+    {
+        return null;
+    }
+
+
+    @Override
+    public long getHistoryStart()
+    {
+        return 0;
+    }
+
+
+    @Override
+    public void reservePorts(int[] inputPorts, int[] outputPorts, long leaseMillis)
+    {
+        // Nothing to reserve against.
+    }
+
+
+    @Override
+    public void releasePorts(int[] inputPorts, int[] outputPorts)
+    {
+        // Nothing to release.
+    }
+
+
+    @Override
+    public long scheduleConnect(int inputPort, int outputPort, long startTime, long endTime) throws Exception
+    {
+        throw new Exception("Scheduling is not simulated");
+    }
+
+
+    @Override
+    public long scheduleDisconnect(int inputPort, long startTime) throws Exception
+    {
+        throw new Exception("Scheduling is not simulated");
+    }
+
+
+    @Override
+    public boolean cancelSchedule(long scheduleId)
+    {
+        return false;
+    }
+
+
+    @Override
+    public int getNumScheduled()
+    {
+        return 0;
+    }
+
+
+    @Override
+    public void startTraffic(long framesPerSecond) throws Exception
+    {
+        throw new Exception("Traffic is not simulated");
+    }
+
+
+    @Override
+    public void stopTraffic()
+    {
+        // Never started.
+    }
+
+
+    @Override
+    public TrafficStatistics getTrafficStatistics() throws Exception
+    {
+        throw new Exception("Traffic is not simulated");
+    }
+}